@@ -21,55 +21,79 @@ package org.apache.guacamole.auth.cas;
 
 import com.google.inject.Inject;
 import com.google.inject.Provider;
+import com.google.inject.Singleton;
+
+import io.micrometer.core.instrument.Timer;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.io.IOException;
+import java.time.Clock;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.time.format.DateTimeFormatter;
-import java.time.LocalDateTime;
-import java.time.OffsetDateTime;
-import java.time.Instant;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.ServletException;
 
-import org.apache.http.HttpResponse;
-import org.apache.http.HttpHeaders;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.NameValuePair;
-
 import org.apache.guacamole.form.Field;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.net.auth.Credentials;
 import org.apache.guacamole.net.auth.credentials.CredentialsInfo;
 import org.apache.guacamole.net.auth.credentials.GuacamoleInvalidCredentialsException;
 import org.apache.guacamole.auth.cas.conf.ConfigurationService;
+import org.apache.guacamole.auth.cas.conf.LibCalCalendar;
 import org.apache.guacamole.auth.cas.form.CASTicketField;
-import org.apache.guacamole.auth.cas.ticket.TicketValidationService;
+import org.apache.guacamole.auth.cas.libcal.Booking;
+import org.apache.guacamole.auth.cas.libcal.BookingCache;
+import org.apache.guacamole.auth.cas.libcal.BookingEvaluator;
+import org.apache.guacamole.auth.cas.libcal.BookingIndex;
+import org.apache.guacamole.auth.cas.libcal.LibCalDates;
+import org.apache.guacamole.auth.cas.metrics.LoginOutcome;
+import org.apache.guacamole.auth.cas.metrics.MetricsService;
+import org.apache.guacamole.auth.cas.session.Admission;
+import org.apache.guacamole.auth.cas.session.AdmissionLedger;
+import org.apache.guacamole.auth.cas.ticket.TicketCache;
 import org.apache.guacamole.auth.cas.user.CASAuthenticatedUser;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 
 /**
  * Service providing convenience functions for the CAS AuthenticationProvider
- * implementation. Adding LibCal API support.
+ * implementation. Adding LibCal API support. A single instance is shared by
+ * all logins.
  */
+@Singleton
 public class AuthenticationProviderService {
 
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(AuthenticationProviderService.class);
+
+    /**
+     * MDC key holding the correlation ID of the login being processed, so
+     * that every line logged during one login can be found together.
+     */
+    private static final String MDC_LOGIN_ID = "loginId";
+
+    /**
+     * MDC key holding the username of the login being processed, once known.
+     */
+    private static final String MDC_USER = "user";
+
     /**
      * Service for retrieving CAS configuration information.
      */
@@ -77,10 +101,41 @@ public class AuthenticationProviderService {
     private ConfigurationService confService;
 
     /**
-     * Service for validating received ID tickets.
+     * Cache validating received ID tickets, reusing recent validations of
+     * resubmitted tickets.
+     */
+    @Inject
+    private TicketCache ticketCache;
+
+    /**
+     * Cache of LibCal bookings.
+     */
+    @Inject
+    private BookingCache bookingCache;
+
+    /**
+     * Evaluator deciding which booking grants access.
+     */
+    @Inject
+    private BookingEvaluator bookingEvaluator;
+
+    /**
+     * Service recording login latency and outcomes.
+     */
+    @Inject
+    private MetricsService metricsService;
+
+    /**
+     * Record of users admitted during their current booking.
      */
     @Inject
-    private TicketValidationService ticketService;
+    private AdmissionLedger admissionLedger;
+
+    /**
+     * The clock against which bookings are checked.
+     */
+    @Inject
+    private Clock clock;
 
     /**
      * Provider for AuthenticatedUser objects.
@@ -88,64 +143,176 @@ public class AuthenticationProviderService {
     @Inject
     private Provider<CASAuthenticatedUser> authenticatedUserProvider;
 
+
     /**
-     * Definition for minute reconciliation.
+     * Returns the booking of the given user which grants access now.
+     *
+     * @param bookings
+     *     The index of bookings returned by LibCal.
+     *
+     * @param username
+     *     The username of the user.
+     *
+     * @param mail
+     *     The local part of the user's CAS email address, or null.
+     *
+     * @return
+     *     The user's active booking, or null if the user has none.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
      */
-    private long ONE_MINUTE_IN_MILLIS=60000;//millisecs
+    private Booking findBooking(BookingIndex bookings, String username, String mail)
+            throws GuacamoleException {
+        long now = clock.millis();
+        Booking found = bookingEvaluator.findActive(bookings.getBookings(username), now);
+        if (found == null && mail != null)
+            found = bookingEvaluator.findActive(bookings.getBookings(mail), now);
+        return found;
+    }//findBooking
 
     /**
-     * Returns date for today in LibCal format.
+     * Returns whether the given user has any bookings at all, active or not.
+     *
+     * @param bookings
+     *     The index of bookings returned by LibCal.
      *
+     * @param username
+     *     The username of the user.
+     *
+     * @param mail
+     *     The local part of the user's CAS email address, or null.
+     *
+     * @return
+     *     true if the user has at least one booking, false otherwise.
      */
-    public String sortOutDate() {
-        String libcalDatePattern = "yyyy-MM-dd";
+    private boolean hasBookings(BookingIndex bookings, String username, String mail) {
+        return !bookings.getBookings(username).isEmpty()
+            || (mail != null && !bookings.getBookings(mail).isEmpty());
+    }//hasBookings
 
-        DateTimeFormatter libcalDateFormatter = DateTimeFormatter.ofPattern(libcalDatePattern);
-        String today = libcalDateFormatter.format(LocalDateTime.now());
+    /**
+     * Starts looking up the bookings of every given calendar at once, so that
+     * a login waits only as long as the slowest calendar takes.
+     *
+     * @param calendars
+     *     The calendars whose bookings are needed.
+     *
+     * @param date
+     *     The date of the bookings, in yyyy-MM-dd format.
+     *
+     * @param refresh
+     *     Whether to fetch bookings again unless they were fetched moments
+     *     ago, rather than accept cached bookings.
+     *
+     * @return
+     *     A future for the bookings of each calendar, in the same order.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    private List<CompletableFuture<BookingIndex>> startLookups(
+            List<LibCalCalendar> calendars, String date, boolean refresh)
+            throws GuacamoleException {
+        List<CompletableFuture<BookingIndex>> lookups =
+            new ArrayList<CompletableFuture<BookingIndex>>(calendars.size());
+        for (LibCalCalendar calendar : calendars) {
+            lookups.add(refresh ? bookingCache.refreshAsync(calendar.getId(), date)
+                : bookingCache.getBookingsAsync(calendar.getId(), date));
+        }//for
+        return lookups;
+    }//startLookups
 
-        return today;
-    }//sortOutDate
+    /**
+     * Returns the name under which the station of the given booking is
+     * listed in the station file, or in user-mapping.xml.
+     *
+     * @param booking
+     *     The booking granting access.
+     *
+     * @return
+     *     The station's LibCal id, prefixed with the group of its calendar if
+     *     it has one.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    private String stationName(Booking booking) throws GuacamoleException {
+        LibCalCalendar calendar = booking.getCalendarId() == null ? null
+            : confService.getCalendar(booking.getCalendarId());
+        if (calendar == null)
+            return Integer.toString(booking.getEid());
+        return calendar.getStationName(booking.getEid());
+    }//stationName
 
     /**
-     * Returns boolean value for date-time range.
+     * Waits for bookings being fetched in the background, for no longer than
+     * the login deadline.
      *
-     * @param fromDate
-     *     The booked date.
+     * @param bookings
+     *     The future which will be completed with the bookings.
      *
-     * @param end
-     *     The calculated date for end of session.
+     * @param deadline
+     *     The System.nanoTime() value by which the login must be decided.
      *
      * @return
-     *     Boolean value for whether in range.
+     *     The index of bookings.
+     *
+     * @throws IOException
+     *     If the bookings could not be retrieved before the deadline.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
      */
-    public static boolean isNowBetweenDateTime(Date start, Date end) {
-         final Date now = new Date();
-         return now.after(start) && now.before(end);
-    }//isNowBetweenDateTime
+    private BookingIndex awaitBookings(Future<BookingIndex> bookings, long deadline)
+            throws IOException, GuacamoleException {
+        try {
+            return bookings.get(Math.max(0, deadline - System.nanoTime()),
+                TimeUnit.NANOSECONDS);
+        } catch (TimeoutException te) {
+            throw new IOException("Timed out waiting for LibCal bookings.", te);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for LibCal bookings.", ie);
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof GuacamoleException)
+                throw (GuacamoleException) cause;
+            if (cause instanceof RejectedExecutionException)
+                throw new IOException("Too many LibCal lookups in progress.", cause);
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException("Unable to retrieve LibCal bookings.", cause);
+        }//try
+    }//awaitBookings
 
     /**
-     * Returns boolean value for date-time range.
+     * Returns an AuthenticatedUser granted access to the given station. The
+     * station's name is passed on as the username and password, through
+     * which its connection is found.
      *
-     * @param fromDate
-     *     The booked date.
+     * @param credentials
+     *     The credentials of the login.
+     *
+     * @param stationName
+     *     The name of the station, as returned by stationName().
      *
-     * @param minutes
-     *     The number of minutes to use for calculation.
+     * @param tokens
+     *     The parameter tokens obtained from CAS.
      *
      * @return
-     *     Boolean value for whether in range.
+     *     The authenticated user.
      */
-    public boolean withinRange(String fromDate, int minutes) {
-        DateTimeFormatter timeFormatter = DateTimeFormatter.ISO_DATE_TIME;
-        OffsetDateTime offsetDateTime = OffsetDateTime.parse(fromDate, timeFormatter);
-
-        Date date = Date.from(Instant.from(offsetDateTime));
-        long t= date.getTime();
-        Date afterAddingSession=new Date(t + (minutes * ONE_MINUTE_IN_MILLIS));
-        if (isNowBetweenDateTime(date,afterAddingSession)) return true;
-        return false;
-    }//withinRange
-
+    private CASAuthenticatedUser grantAccess(Credentials credentials,
+            String stationName, Map<String, String> tokens) {
+        CASAuthenticatedUser authenticatedUser = authenticatedUserProvider.get();
+        credentials.setUsername(stationName);
+        credentials.setPassword(stationName);
+        authenticatedUser.init("ADC Virtual", credentials, tokens);
+        return authenticatedUser;
+    }//grantAccess
 
     /**
      * Returns an AuthenticatedUser representing the user authenticated by the
@@ -165,124 +332,184 @@ public class AuthenticationProviderService {
     public CASAuthenticatedUser authenticateUser(Credentials credentials)
             throws GuacamoleException {
 
-        // Pull CAS ticket from request if present
-        System.out.println("CAS request");
-        HttpServletRequest request = credentials.getRequest();
-        String username = null;
-        String mail = null;
-        String ticket = null;
-        String fromDate = null;
+        Timer.Sample loginSample = metricsService.startTimer();
+        long started = System.nanoTime();
+        LoginOutcome outcome = LoginOutcome.NO_TICKET;
+        boolean fallback = false;
+        String casUser = null;
         int station = 0;
+        String stationName = null;
+        Booking admitted = null;
+        long windowEnd = 0;
+
+        MDC.put(MDC_LOGIN_ID, Long.toHexString(ThreadLocalRandom.current().nextLong()));
+        try {
+
+            // Pull CAS ticket from request if present
+            HttpServletRequest request = credentials.getRequest();
+            String username = null;
+            String mail = null;
+            String ticket = null;
 
-        if (request != null) {
-            System.out.println("checking ticket...");
-            ticket = request.getParameter(CASTicketField.PARAMETER_NAME);
-            //not used but this is syntax for passing parameters
-            /*
-            machine = request.getParameter("machine");
-            System.out.println("MACHINE: " + machine);
-            */
-
-            if (ticket != null) {
-                System.out.println("ticket not null...");
-                Map<String, String> tokens = ticketService.validateTicket(ticket, credentials);
-                System.out.println("using entrySet and toString");
-                for (Entry<String, String> entry : tokens.entrySet()) {
-                    if (entry.getKey().contains("CAS_MAIL")) {
-                        mail = entry.getValue().toLowerCase();
-                        if (mail.contains("@"))
-                            mail = mail.split("@")[0];
-                    }//if
-                }//for
-                username = credentials.getUsername();
-                
-                if (username != null) {
-                    station = -1;
-
-                    //Get calendar bookings
-                    System.out.println("got username, now checking bookings...");
+            if (request != null) {
+                ticket = request.getParameter(CASTicketField.PARAMETER_NAME);
+                //not used but this is syntax for passing parameters
+                /*
+                machine = request.getParameter("machine");
+                System.out.println("MACHINE: " + machine);
+                */
+
+                if (ticket != null) {
+                    //Bookings are fetched while the ticket is validated, both within one deadline
+                    long deadline = System.nanoTime()
+                        + TimeUnit.MILLISECONDS.toNanos(confService.getLoginTimeout());
+                    List<LibCalCalendar> calendars = confService.getCalendars();
+                    String date = LibCalDates.today(clock);
+                    List<CompletableFuture<BookingIndex>> pending =
+                        startLookups(calendars, date, false);
+
+                    logger.debug("Validating CAS ticket.");
+                    outcome = LoginOutcome.INVALID_TICKET;
+                    Map<String, String> tokens;
+                    Timer.Sample casSample = metricsService.startTimer();
                     try {
-                        List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>();
-                        CloseableHttpClient client = HttpClients.createDefault();
-                        HttpPost post = new HttpPost(confService.getOauthServer() + "/oauth/token");
-                        nameValuePairs.add(new BasicNameValuePair("client_id",confService.getClientId()));
-                        nameValuePairs.add(new BasicNameValuePair("client_secret",confService.getClientSecret()));
-                        nameValuePairs.add(new BasicNameValuePair("grant_type", "client_credentials"));
-                        post.setEntity(new UrlEncodedFormEntity(nameValuePairs));
-                        HttpResponse response = client.execute(post);
-                        BufferedReader reader = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
-
-                        String line = reader.readLine();
-                        JSONObject obj = new JSONObject(line);
-                        HttpGet get = new HttpGet(confService.getOauthServer() + "/space/bookings?lid=" +
-                             confService.getCalendarId() + "&date=" + sortOutDate()); 
-                        get.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + obj.getString("access_token"));
-                        response = client.execute(get);
-                        reader = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
-                        line = reader.readLine();
-                        line = "{\"bookings\":" + line + "}";
-                        obj = new JSONObject(line);
-                        System.out.println("looping through bookings...");
-                        JSONArray bookings = obj.getJSONArray("bookings");
-                        for (int i = 0; i < bookings.length(); i++) {
-                            JSONObject bObj = bookings.getJSONObject(i);
-                            String email = bObj.getString("email");
-                            if (email.startsWith(username + "@") || email.startsWith(mail + "@")) { 
-                                fromDate = bObj.getString("fromDate");
-                                station = bObj.getInt("eid");
+                        tokens = ticketCache.validateTicket(ticket, credentials);
+                    } finally {
+                        metricsService.recordCasValidation(casSample);
+                    }//try
+                    for (Entry<String, String> entry : tokens.entrySet()) {
+                        if (entry.getKey().contains("CAS_MAIL")) {
+                            mail = entry.getValue().toLowerCase();
+                            if (mail.contains("@"))
+                                mail = mail.split("@")[0];
+                        }//if
+                    }//for
+                    username = credentials.getUsername();
+
+                    if (username != null) {
+                        casUser = username;
+                        MDC.put(MDC_USER, casUser);
+
+                        //A user already admitted during this booking needs no lookup
+                        Admission admission = admissionLedger.find(casUser);
+                        if (admission != null) {
+                            logger.debug("Readmitting to station {} until {}.",
+                                admission.getStationName(), admission.getWindowEnd());
+                            station = admission.getEid();
+                            outcome = LoginOutcome.READMITTED;
+                            return grantAccess(credentials, admission.getStationName(), tokens);
+                        }//if
+
+                        station = -1;
+                        outcome = LoginOutcome.NO_BOOKING;
+
+                        //Get calendar bookings
+                        try {
+                            logger.debug("Looking up bookings: calendars={} date={} mail={}",
+                                calendars, date, mail);
+                            List<BookingIndex> found = new ArrayList<BookingIndex>(calendars.size());
+                            for (int i = 0; i < calendars.size(); i++) {
+                                String calendarId = calendars.get(i).getId();
+                                BookingIndex calendarBookings;
+                                try {
+                                    calendarBookings = awaitBookings(pending.get(i), deadline);
+                                } catch (IOException ioe) {
+                                    //Decide from the last bookings fetched, if recent enough
+                                    calendarBookings = bookingCache.getLastKnown(calendarId, date);
+                                    if (calendarBookings == null)
+                                        throw ioe;
+                                    logger.warn("LibCal unavailable, using last fetched bookings "
+                                        + "of calendar {}: {}", calendarId, ioe.getMessage());
+                                    fallback = true;
+                                }//try
+                                found.add(calendarBookings);
+                            }//for
+                            BookingIndex bookings = BookingIndex.merge(found);
+                            Booking booking = findBooking(bookings, username, mail);
+
+                            //A booking made since the bookings were cached is found by refreshing
+                            if (booking == null && !fallback) {
+                                try {
+                                    List<CompletableFuture<BookingIndex>> refreshes =
+                                        startLookups(calendars, date, true);
+                                    for (int i = 0; i < calendars.size(); i++)
+                                        found.set(i, awaitBookings(refreshes.get(i), deadline));
+                                    bookings = BookingIndex.merge(found);
+                                    booking = findBooking(bookings, username, mail);
+                                } catch (IOException ioe) {
+                                    logger.warn("LibCal unavailable, using cached bookings: {}",
+                                        ioe.getMessage());
+                                    fallback = true;
+                                }//try
                             }//if
-                        }//for
-                        if (fromDate != null && station != -1) {
-                            System.out.println("found booking, checking times for " + fromDate + "...");
-                            if (!withinRange(fromDate,confService.getSessionMins())) {
-                                System.out.println("timing is wrong...");
-                                username = null;
-                                station = -1;
+
+                            if (booking != null) {
+                                logger.debug("Found booking: from={} to={} eid={} calendar={}",
+                                    booking.getFromDate(), booking.getToDate(), booking.getEid(),
+                                    booking.getCalendarId());
+                                station = booking.getEid();
+                                stationName = stationName(booking);
+                                admitted = booking;
+                                windowEnd = bookingEvaluator.getAccessEnd(booking);
+                            } else if (hasBookings(bookings, username, mail)) {
+                                outcome = LoginOutcome.OUTSIDE_WINDOW;
                             }//if
+                        } catch (IOException ioe) {
+                            logger.warn("Unable to retrieve LibCal bookings: {}", ioe.getMessage());
+                            logger.debug("Retrieving LibCal bookings failed.", ioe);
+                            outcome = LoginOutcome.IO_ERROR;
+                            username = null;
+                        }//try
+
+                        //The station must not be in use by another user's booking
+                        if (username != null && station != -1) {
+                            if (admissionLedger.claim(casUser, admitted, stationName,
+                                    date, windowEnd) != null) {
+                                outcome = LoginOutcome.GRANTED;
+                                return grantAccess(credentials, stationName, tokens);
+                            }//if
+                            logger.warn("Station {} is already in use by another user.", stationName);
+                            outcome = LoginOutcome.STATION_IN_USE;
                         }//if
-                    } catch (IOException ioe) {
-                        System.out.println("ioe prob: " + ioe.toString());
-                        username = null;
-                    }//try
+                    }//if username
+                }//if ticket
+            }//if request
 
-                    if (username != null && station != -1) {
-                        System.out.println("Redirect to CAS for authentication...");
-                        CASAuthenticatedUser authenticatedUser = authenticatedUserProvider.get();
-                        username = "ADC Virtual";
-                        credentials.setUsername(Integer.toString(station));
-                        credentials.setPassword(Integer.toString(station));
-                        authenticatedUser.init(username, credentials, tokens);
-                        return authenticatedUser;
-                    }//if
-                }//if username
-            }//if ticket
-        }//if request
-                    
-        //Request CAS ticket service 
-        if (username == null && station == 0) {
-            System.out.println("off to CAS service...");
+            //Request CAS ticket service
+            if (username == null && station == 0) {
+                logger.debug("Redirecting to CAS for a ticket.");
+                throw new GuacamoleInvalidCredentialsException("Invalid login.",
+                    new CredentialsInfo(Arrays.asList(new Field[] {
+                        // CAS-specific ticket (will automatically redirect the user
+                        // to the authorization page via JavaScript)
+                        new CASTicketField(
+                            confService.getAuthorizationEndpoint(),
+                            confService.getRedirectURI()
+                        )
+                     }))
+                );
+            }//if
+
+            //If this point is reached, credentials are fine but the booking is a problem.
+            logger.debug("Redirecting to the no bookings page.");
             throw new GuacamoleInvalidCredentialsException("Invalid login.",
                 new CredentialsInfo(Arrays.asList(new Field[] {
-                    // CAS-specific ticket (will automatically redirect the user
-                    // to the authorization page via JavaScript)
                     new CASTicketField(
-                        confService.getAuthorizationEndpoint(),
-                        confService.getRedirectURI()
+                        confService.getLibCalRedirectURI(),
+                        confService.getLibCalRedirectURI()
                     )
-                 }))
+                }))
             );
-        }//if
-
-        //If this point is reached, credentials are fine but the booking is a problem.
-        System.out.println("Redirect to message about no bookings...");
-        throw new GuacamoleInvalidCredentialsException("Invalid login.",
-            new CredentialsInfo(Arrays.asList(new Field[] {
-                new CASTicketField(
-                    confService.getLibCalRedirectURI(),
-                    confService.getLibCalRedirectURI()
-                )
-            }))
-        );
+
+        } finally {
+            metricsService.recordLogin(loginSample, outcome, fallback);
+            if (outcome != LoginOutcome.NO_TICKET)
+                logger.info("Login decided: user={} station={} decision={} fallback={} elapsedMs={}",
+                    casUser, station, outcome.getTag(), fallback,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            MDC.remove(MDC_USER);
+            MDC.remove(MDC_LOGIN_ID);
+        }//try
 
     }//authenticateUser
 
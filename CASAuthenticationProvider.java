@@ -22,27 +22,61 @@ package org.apache.guacamole.auth.cas;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.auth.cas.conf.ConfigurationService;
+import org.apache.guacamole.auth.cas.conf.StationConnection;
+import org.apache.guacamole.auth.cas.libcal.AccessTokenService;
+import org.apache.guacamole.auth.cas.libcal.BookingCache;
+import org.apache.guacamole.auth.cas.libcal.BookingPoller;
+import org.apache.guacamole.auth.cas.libcal.BookingSnapshot;
+import org.apache.guacamole.auth.cas.libcal.LibCalExecutor;
+import org.apache.guacamole.auth.cas.libcal.LibCalHttpClient;
+import org.apache.guacamole.auth.cas.metrics.MetricsService;
+import org.apache.guacamole.auth.cas.session.Admission;
+import org.apache.guacamole.auth.cas.session.AdmissionLedger;
+import org.apache.guacamole.auth.cas.session.SessionExpiry;
+import org.apache.guacamole.auth.cas.session.SessionScheduler;
 import org.apache.guacamole.auth.cas.user.CASAuthenticatedUser;
+import org.apache.guacamole.auth.cas.user.StationUserContext;
+import org.apache.guacamole.auth.cas.webhook.WebhookResource;
 import org.apache.guacamole.net.auth.AbstractAuthenticationProvider;
 import org.apache.guacamole.net.auth.AuthenticatedUser;
 import org.apache.guacamole.net.auth.Credentials;
 import org.apache.guacamole.net.auth.TokenInjectingUserContext;
 import org.apache.guacamole.net.auth.UserContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Guacamole authentication backend which authenticates users using an
- * arbitrary external system implementing CAS. No storage for connections is
- * provided - only authentication. Storage must be provided by some other
+ * arbitrary external system implementing CAS. If a station file is
+ * configured, the booked station's connection is provided directly;
+ * otherwise storage for connections must be provided by some other
  * extension.
  */
 public class CASAuthenticationProvider extends AbstractAuthenticationProvider {
 
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(CASAuthenticationProvider.class);
+
     /**
      * Injector which will manage the object graph of this authentication
      * provider.
      */
     private final Injector injector;
 
+    /**
+     * Service which performs authentication, resolved once from the
+     * injector and shared by all logins.
+     */
+    private final AuthenticationProviderService authProviderService;
+
+    /**
+     * Limiter turning away excess logins, resolved once from the injector.
+     */
+    private final LoginRateLimiter loginRateLimiter;
+
     /**
      * Creates a new CASAuthenticationProvider that authenticates users
      * against an CAS service
@@ -57,6 +91,25 @@ public class CASAuthenticationProvider extends AbstractAuthenticationProvider {
         injector = Guice.createInjector(
             new CASAuthenticationProviderModule(this)
         );
+        authProviderService = injector.getInstance(AuthenticationProviderService.class);
+        loginRateLimiter = injector.getInstance(LoginRateLimiter.class);
+
+        // Validate configuration now, and reload it whenever it changes
+        ConfigurationService confService = injector.getInstance(ConfigurationService.class);
+        confService.load();
+        confService.startWatching();
+
+        // Withdraw admissions whose bookings are cancelled
+        injector.getInstance(BookingCache.class).addListener(
+                injector.getInstance(AdmissionLedger.class));
+
+        // Restore bookings saved before the last restart, then begin loading
+        // bookings ahead of logins, if configured to do either
+        injector.getInstance(BookingSnapshot.class).start();
+        injector.getInstance(BookingPoller.class).start();
+
+        // Publish metrics over JMX, and over HTTP if configured to do so
+        injector.getInstance(MetricsService.class).start();
 
     }
 
@@ -65,16 +118,54 @@ public class CASAuthenticationProvider extends AbstractAuthenticationProvider {
         return "cas";
     }
 
+    @Override
+    public Object getResource() throws GuacamoleException {
+
+        // Accept booking notifications only once a secret is shared
+        if (injector.getInstance(ConfigurationService.class).getWebhookSecret() == null)
+            return null;
+
+        return injector.getInstance(WebhookResource.class);
+
+    }
+
     @Override
     public AuthenticatedUser authenticateUser(Credentials credentials)
             throws GuacamoleException {
 
+        // Turn away excess logins before CAS or LibCal is called
+        loginRateLimiter.check(credentials);
+
         // Attempt to authenticate user with given credentials
-        AuthenticationProviderService authProviderService = injector.getInstance(AuthenticationProviderService.class);
         return authProviderService.authenticateUser(credentials);
 
     }
     
+    @Override
+    public UserContext getUserContext(AuthenticatedUser authenticatedUser)
+            throws GuacamoleException {
+
+        if (!(authenticatedUser instanceof CASAuthenticatedUser))
+            return null;
+
+        // Without a station file, the station is left to another extension
+        ConfigurationService confService = injector.getInstance(ConfigurationService.class);
+        if (confService.getStationFile() == null)
+            return null;
+
+        // The booked station was passed on as the username
+        String station = authenticatedUser.getCredentials().getUsername();
+        StationConnection connection = confService.getStationConnection(station);
+        if (connection == null) {
+            logger.warn("No connection is listed for station \"{}\".", station);
+            return null;
+        }
+
+        return new StationUserContext(this, authenticatedUser.getIdentifier(),
+                connection);
+
+    }
+
     @Override
     public UserContext decorate(UserContext context,
             AuthenticatedUser authenticatedUser, Credentials credentials)
@@ -83,8 +174,32 @@ public class CASAuthenticationProvider extends AbstractAuthenticationProvider {
         if (!(authenticatedUser instanceof CASAuthenticatedUser))
             return context;
         
-        return new TokenInjectingUserContext(context,
+        UserContext decorated = new TokenInjectingUserContext(context,
                 ((CASAuthenticatedUser) authenticatedUser).getTokens());
+
+        // End the session with the booking of the station passed on as the username
+        Admission admission = injector.getInstance(AdmissionLedger.class)
+                .findByStation(credentials.getUsername());
+        if (admission == null)
+            return decorated;
+
+        return injector.getInstance(SessionExpiry.class).attach(decorated,
+                admission, authenticatedUser);
+    }
+
+    @Override
+    public void shutdown() {
+
+        // Stop background refreshes and release pooled LibCal connections
+        injector.getInstance(ConfigurationService.class).shutdown();
+        injector.getInstance(BookingPoller.class).shutdown();
+        injector.getInstance(BookingSnapshot.class).shutdown();
+        injector.getInstance(AccessTokenService.class).shutdown();
+        injector.getInstance(SessionScheduler.class).shutdown();
+        injector.getInstance(LibCalExecutor.class).shutdown();
+        injector.getInstance(LibCalHttpClient.class).shutdown();
+        injector.getInstance(MetricsService.class).shutdown();
+
     }
 
 }
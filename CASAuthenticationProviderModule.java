@@ -20,11 +20,27 @@
 package org.apache.guacamole.auth.cas;
 
 import org.apache.guacamole.auth.cas.conf.ConfigurationService;
+import org.apache.guacamole.auth.cas.libcal.AccessTokenService;
+import org.apache.guacamole.auth.cas.libcal.BookingCache;
+import org.apache.guacamole.auth.cas.libcal.BookingEvaluator;
+import org.apache.guacamole.auth.cas.libcal.BookingPoller;
+import org.apache.guacamole.auth.cas.libcal.BookingSnapshot;
+import org.apache.guacamole.auth.cas.libcal.LibCalExecutor;
+import org.apache.guacamole.auth.cas.libcal.LibCalHttpClient;
+import org.apache.guacamole.auth.cas.libcal.LibCalService;
+import org.apache.guacamole.auth.cas.metrics.MetricsService;
+import org.apache.guacamole.auth.cas.session.AdmissionLedger;
+import org.apache.guacamole.auth.cas.session.SessionExpiry;
+import org.apache.guacamole.auth.cas.session.SessionScheduler;
+import org.apache.guacamole.auth.cas.webhook.WebhookResource;
 import com.google.inject.AbstractModule;
+import com.google.inject.Scopes;
+import java.time.Clock;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.environment.Environment;
 import org.apache.guacamole.environment.LocalEnvironment;
 import org.apache.guacamole.net.auth.AuthenticationProvider;
+import org.apache.guacamole.auth.cas.ticket.TicketCache;
 import org.apache.guacamole.auth.cas.ticket.TicketValidationService;
 
 /**
@@ -72,9 +88,37 @@ public class CASAuthenticationProviderModule extends AbstractModule {
         bind(AuthenticationProvider.class).toInstance(authProvider);
         bind(Environment.class).toInstance(environment);
 
-        // Bind CAS-specific services
+        // All time checks use the system clock in the local time zone
+        bind(Clock.class).toInstance(Clock.systemDefaultZone());
+
+        // Bind CAS-specific services, each shared by all logins
         bind(ConfigurationService.class);
-        bind(TicketValidationService.class);
+        bind(TicketValidationService.class).in(Scopes.SINGLETON);
+        bind(TicketCache.class);
+        bind(AuthenticationProviderService.class);
+        bind(LoginRateLimiter.class);
+
+        // Bind LibCal services
+        bind(LibCalHttpClient.class);
+        bind(LibCalExecutor.class);
+        bind(AccessTokenService.class);
+        bind(LibCalService.class);
+        bind(BookingCache.class);
+        bind(BookingPoller.class);
+        bind(BookingSnapshot.class);
+        bind(BookingEvaluator.class);
+
+        // Bind the record of admitted users, and the timer expiring them and
+        // their sessions
+        bind(SessionScheduler.class);
+        bind(AdmissionLedger.class);
+        bind(SessionExpiry.class);
+
+        // Bind metrics
+        bind(MetricsService.class);
+
+        // Bind the booking notification endpoint
+        bind(WebhookResource.class);
 
     }
 
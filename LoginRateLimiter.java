@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.auth.cas.conf.ConfigurationService;
+import org.apache.guacamole.auth.cas.form.CASTicketField;
+import org.apache.guacamole.auth.cas.metrics.MetricsService;
+import org.apache.guacamole.auth.cas.util.RateLimiter;
+import org.apache.guacamole.net.auth.Credentials;
+import org.apache.guacamole.net.auth.credentials.CredentialsInfo;
+import org.apache.guacamole.net.auth.credentials.GuacamoleInvalidCredentialsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the rate of logins carrying a CAS ticket, from each client address
+ * and from all clients together, so that a client submitting bogus tickets
+ * cannot make the extension call CAS and LibCal at will. Logins without a
+ * ticket are only sent to CAS, which costs nothing upstream, and are not
+ * limited. The limits are read once at startup.
+ */
+@Singleton
+public class LoginRateLimiter {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(LoginRateLimiter.class);
+
+    /**
+     * The number of buckets over which client addresses are spread.
+     */
+    private static final int ADDRESS_BUCKETS = 4096;
+
+    /**
+     * Service recording refused logins.
+     */
+    private final MetricsService metricsService;
+
+    /**
+     * Limiter of logins from each client address, or null if logins are not
+     * limited by address.
+     */
+    private final RateLimiter perAddress;
+
+    /**
+     * Limiter of logins from all clients together, or null if logins are not
+     * limited overall.
+     */
+    private final RateLimiter global;
+
+    /**
+     * Creates a new LoginRateLimiter configured from guacamole.properties.
+     *
+     * @param confService
+     *     Service for retrieving CAS and LibCal configuration information.
+     *
+     * @param metricsService
+     *     Service recording refused logins.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    @Inject
+    public LoginRateLimiter(ConfigurationService confService,
+            MetricsService metricsService) throws GuacamoleException {
+
+        this.metricsService = metricsService;
+
+        int ratePerIp = confService.getLoginRatePerIp();
+        perAddress = ratePerIp == 0 ? null
+            : new RateLimiter(ratePerIp, 1, TimeUnit.MINUTES,
+                    confService.getLoginBurstPerIp(), ADDRESS_BUCKETS);
+
+        int rate = confService.getLoginRate();
+        global = rate == 0 ? null
+            : new RateLimiter(rate, 1, TimeUnit.SECONDS,
+                    confService.getLoginBurst(), 1);
+
+    }
+
+    /**
+     * Refuses the given login if it carries a CAS ticket and exceeds either
+     * rate limit. The address limit is checked first, so that one client
+     * exceeding its own limit does not use up the global one, and a login
+     * refused by the global limit gives back its address token.
+     *
+     * @param credentials
+     *     The credentials of the login.
+     *
+     * @throws GuacamoleInvalidCredentialsException
+     *     If the login exceeds a rate limit.
+     */
+    public void check(Credentials credentials)
+            throws GuacamoleInvalidCredentialsException {
+
+        HttpServletRequest request = credentials.getRequest();
+        if (request == null
+                || request.getParameter(CASTicketField.PARAMETER_NAME) == null)
+            return;
+
+        String scope;
+        String address = credentials.getRemoteAddress();
+        boolean limitAddress = perAddress != null && address != null;
+        if (limitAddress && !perAddress.tryAcquire(address))
+            scope = "ip";
+        else if (global != null && !global.tryAcquire()) {
+            if (limitAddress)
+                perAddress.release(address);
+            scope = "global";
+        }
+        else
+            return;
+
+        logger.debug("Login from {} exceeds the {} rate limit.", address, scope);
+        metricsService.recordRateLimited(scope);
+        throw new GuacamoleInvalidCredentialsException("Too many logins.",
+                CredentialsInfo.EMPTY);
+
+    }
+
+}
@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.benchmarks;
+
+import com.google.inject.Injector;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.auth.cas.AuthenticationProviderService;
+import org.apache.guacamole.auth.cas.session.AdmissionLedger;
+import org.apache.guacamole.net.auth.AuthenticatedUser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end benchmark of AuthenticationProviderService.authenticateUser,
+ * from CAS ticket to admitted user, against an embedded LibCal stand-in and
+ * a fake CAS validator. Each user logging in holds a booking active now.
+ *
+ * "login" performs one login per invocation; run it with "-t" to add
+ * benchmark threads. "loginBurst" starts concurrentLogins logins at once,
+ * as when a lab opens, and completes when all are admitted. Both first
+ * forget any earlier admission, so every login looks up bookings. "relogin"
+ * logs in users who were already admitted, as when tunnels drop. Both report
+ * throughput and, in sample mode, p99 latency; add "-prof gc" for the
+ * allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.net.preferIPv4Stack=true")
+public class AuthenticationBenchmark {
+
+    /**
+     * The number of bookings LibCal returns for the day.
+     */
+    @Param({ "100", "1000", "5000" })
+    public int bookingsPerDay;
+
+    /**
+     * The number of logins started at once by loginBurst.
+     */
+    @Param({ "1", "16", "64" })
+    public int concurrentLogins;
+
+    /**
+     * The number of LibCal calendars consulted by each login. The LibCal
+     * stand-in returns the same bookings for every calendar.
+     */
+    @Param({ "1", "3" })
+    public int calendars;
+
+    /**
+     * The LibCal stand-in.
+     */
+    private FakeLibCalServer libcal;
+
+    /**
+     * The service under test.
+     */
+    private AuthenticationProviderService service;
+
+    /**
+     * Record of admitted users, cleared after each full login.
+     */
+    private AdmissionLedger admissionLedger;
+
+    /**
+     * Threads performing the logins of a burst.
+     */
+    private ExecutorService burstExecutor;
+
+    /**
+     * The number of users logging in, each holding a booking active now at
+     * a station of their own, so that no login is refused for a station in
+     * use.
+     */
+    private int activeUsers;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, GuacamoleException {
+
+        libcal = new FakeLibCalServer(BookingPayloads.generate(bookingsPerDay, false));
+
+        Map<String, String> settings = new HashMap<String, String>();
+        settings.put("libcalcas-oauth-server", libcal.getBaseURI());
+        StringBuilder calendarIds = new StringBuilder("1000");
+        for (int i = 1; i < calendars; i++)
+            calendarIds.append(",").append(1000 + i);
+        settings.put("libcalcas-calendar-id", calendarIds.toString());
+        settings.put("libcalcas-http-max-connections", Integer.toString(concurrentLogins + 4));
+        settings.put("libcalcas-http-max-per-route", Integer.toString(concurrentLogins + 4));
+
+        Injector injector = BenchmarkExtension.start(settings);
+        service = injector.getInstance(AuthenticationProviderService.class);
+        admissionLedger = injector.getInstance(AdmissionLedger.class);
+
+        burstExecutor = Executors.newFixedThreadPool(concurrentLogins);
+        activeUsers = Math.min(BookingPayloads.active(bookingsPerDay),
+                BookingPayloads.STATIONS);
+
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        burstExecutor.shutdownNow();
+        libcal.stop();
+    }
+
+    /**
+     * Logs in as a random user holding an active booking.
+     *
+     * @param readmit
+     *     Whether the user may be admitted again from an earlier admission,
+     *     rather than from their bookings.
+     *
+     * @return
+     *     The admitted user.
+     *
+     * @throws GuacamoleException
+     *     If the login is refused.
+     */
+    private AuthenticatedUser loginRandomUser(boolean readmit)
+            throws GuacamoleException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String user = "user" + random.nextInt(activeUsers);
+        if (!readmit)
+            admissionLedger.revoke(user);
+        return service.authenticateUser(FakeRequests.login(user,
+                "10.0." + random.nextInt(256) + "." + random.nextInt(256)));
+    }
+
+    @Benchmark
+    public AuthenticatedUser login() throws GuacamoleException {
+        return loginRandomUser(false);
+    }
+
+    @Benchmark
+    public AuthenticatedUser relogin() throws GuacamoleException {
+        return loginRandomUser(true);
+    }
+
+    @Benchmark
+    public int loginBurst() throws InterruptedException, ExecutionException {
+
+        List<Future<AuthenticatedUser>> logins =
+                new ArrayList<Future<AuthenticatedUser>>(concurrentLogins);
+
+        for (int i = 0; i < concurrentLogins; i++) {
+            logins.add(burstExecutor.submit(new Callable<AuthenticatedUser>() {
+
+                @Override
+                public AuthenticatedUser call() throws GuacamoleException {
+                    return loginRandomUser(false);
+                }
+
+            }));
+        }
+
+        int admitted = 0;
+        for (Future<AuthenticatedUser> login : logins) {
+            if (login.get() != null)
+                admitted++;
+        }
+
+        return admitted;
+
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Sets up a temporary GUACAMOLE_HOME containing a guacamole.properties with
+ * the settings a benchmark needs, so that the extension can be started
+ * outside of a Guacamole deployment.
+ */
+public class BenchmarkEnvironment {
+
+    /**
+     * This class should not be instantiated.
+     */
+    private BenchmarkEnvironment() {}
+
+    /**
+     * Writes the given settings, along with placeholder values for every
+     * required setting not given, to a new temporary GUACAMOLE_HOME, and
+     * points the "guacamole.home" system property at it.
+     *
+     * @param settings
+     *     The settings to write, overriding the placeholders.
+     *
+     * @return
+     *     The new GUACAMOLE_HOME directory.
+     *
+     * @throws IOException
+     *     If the directory or file cannot be written.
+     */
+    public static File install(Map<String, String> settings) throws IOException {
+
+        Properties properties = new Properties();
+        properties.setProperty("cas-authorization-endpoint", "http://127.0.0.1:1/cas");
+        properties.setProperty("cas-redirect-uri", "http://127.0.0.1:1/guacamole/");
+        properties.setProperty("libcalcas-oauth-server", "http://127.0.0.1:1/1.1");
+        properties.setProperty("libcalcas-client-id", "000");
+        properties.setProperty("libcalcas-calendar-id", "0000");
+        properties.setProperty("libcalcas-client-secret", "secret");
+        properties.setProperty("libcalcas-session-mins", "150");
+        properties.setProperty("libcalcas-invalid-uri", "http://127.0.0.1:1/invalid");
+        properties.putAll(settings);
+
+        File home = Files.createTempDirectory("guacamole-home").toFile();
+        home.deleteOnExit();
+
+        File file = new File(home, "guacamole.properties");
+        file.deleteOnExit();
+
+        OutputStream output = new FileOutputStream(file);
+        try {
+            properties.store(output, "Generated for benchmarking");
+        }
+        finally {
+            output.close();
+        }
+
+        System.setProperty("guacamole.home", home.getAbsolutePath());
+        return home;
+
+    }
+
+}
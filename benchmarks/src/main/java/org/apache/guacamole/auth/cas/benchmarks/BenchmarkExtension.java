@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.benchmarks;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.util.Modules;
+import java.io.IOException;
+import java.util.Map;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.auth.cas.CASAuthenticationProviderModule;
+import org.apache.guacamole.auth.cas.conf.ConfigurationService;
+import org.apache.guacamole.auth.cas.ticket.TicketValidationService;
+import org.apache.guacamole.net.auth.AbstractAuthenticationProvider;
+
+/**
+ * Starts the extension's object graph for benchmarking, configured exactly
+ * as in a deployment except that CAS ticket validation is replaced by
+ * FakeTicketValidationService.
+ */
+public class BenchmarkExtension {
+
+    /**
+     * This class should not be instantiated.
+     */
+    private BenchmarkExtension() {}
+
+    /**
+     * Writes the given settings to a temporary GUACAMOLE_HOME and creates an
+     * injector for the extension, with its configuration loaded.
+     *
+     * @param settings
+     *     The guacamole.properties settings to use.
+     *
+     * @return
+     *     An injector for the extension's services.
+     *
+     * @throws IOException
+     *     If the temporary GUACAMOLE_HOME cannot be written.
+     *
+     * @throws GuacamoleException
+     *     If the configuration is invalid.
+     */
+    public static Injector start(Map<String, String> settings)
+            throws IOException, GuacamoleException {
+
+        BenchmarkEnvironment.install(settings);
+
+        AbstractAuthenticationProvider provider = new AbstractAuthenticationProvider() {
+
+            @Override
+            public String getIdentifier() {
+                return "cas";
+            }
+
+        };
+
+        Injector injector = Guice.createInjector(Modules.override(
+                new CASAuthenticationProviderModule(provider)).with(new AbstractModule() {
+
+            @Override
+            protected void configure() {
+                bind(TicketValidationService.class).to(FakeTicketValidationService.class);
+            }
+
+        }));
+
+        injector.getInstance(ConfigurationService.class).load();
+        return injector;
+
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.benchmarks;
+
+import com.google.inject.Injector;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.auth.cas.libcal.Booking;
+import org.apache.guacamole.auth.cas.libcal.BookingEvaluator;
+import org.apache.guacamole.auth.cas.libcal.BookingIndex;
+import org.apache.guacamole.auth.cas.libcal.BookingParser;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the in-memory part of a login: finding the user's bookings
+ * and deciding whether one is active. "legacyScan" is the original linear
+ * startsWith scan over the org.json array, for comparison; "lookup" is the
+ * index lookup; "findActive" is the time-window check alone; and "match"
+ * is lookup and check together, as performed per login.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BookingMatchBenchmark {
+
+    /**
+     * The number of bookings LibCal returns for the day.
+     */
+    @Param({ "100", "1000", "5000" })
+    public int bookingsPerDay;
+
+    /**
+     * The bookings, as the original code held them.
+     */
+    private JSONArray legacyBookings;
+
+    /**
+     * The bookings, indexed by user.
+     */
+    private BookingIndex index;
+
+    /**
+     * The evaluator under test.
+     */
+    private BookingEvaluator evaluator;
+
+    /**
+     * The clock used by the extension.
+     */
+    private Clock clock;
+
+    /**
+     * The number of users holding a booking active now.
+     */
+    private int activeUsers;
+
+    /**
+     * The bookings of one active user.
+     */
+    private List<Booking> userBookings;
+
+    @Setup
+    public void setUp() throws IOException, GuacamoleException {
+
+        byte[] payload = BookingPayloads.generate(bookingsPerDay, false);
+        legacyBookings = new JSONArray(new String(payload, StandardCharsets.UTF_8));
+        index = BookingIndex.of(BookingParser.parse(new ByteArrayInputStream(payload)));
+
+        Injector injector = BenchmarkExtension.start(Collections.<String, String>emptyMap());
+        evaluator = injector.getInstance(BookingEvaluator.class);
+        clock = injector.getInstance(Clock.class);
+
+        activeUsers = BookingPayloads.active(bookingsPerDay);
+        userBookings = index.getBookings(BookingPayloads.email(0));
+
+    }
+
+    /**
+     * Returns the username of a random user holding an active booking.
+     *
+     * @return
+     *     A username.
+     */
+    private String randomUser() {
+        return "user" + ThreadLocalRandom.current().nextInt(activeUsers);
+    }
+
+    @Benchmark
+    public int legacyScan() {
+        String username = randomUser();
+        int station = -1;
+        for (int i = 0; i < legacyBookings.length(); i++) {
+            JSONObject bObj = legacyBookings.getJSONObject(i);
+            String email = bObj.getString("email");
+            if (email.startsWith(username + "@"))
+                station = bObj.getInt("eid");
+        }
+        return station;
+    }
+
+    @Benchmark
+    public List<Booking> lookup() {
+        return index.getBookings(randomUser());
+    }
+
+    @Benchmark
+    public Booking findActive() throws GuacamoleException {
+        return evaluator.findActive(userBookings, clock.millis());
+    }
+
+    @Benchmark
+    public Booking match() throws GuacamoleException {
+        return evaluator.findActive(index.getBookings(randomUser()), clock.millis());
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.auth.cas.libcal.BookingIndex;
+import org.apache.guacamole.auth.cas.libcal.BookingParser;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the streaming bookings parser against the original approach of
+ * reading the first line of the response, wrapping it in an object and
+ * building a full org.json tree. Run with "-prof gc" to compare allocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BookingParserBenchmark {
+
+    /**
+     * The number of bookings in the response.
+     */
+    @Param({ "5000" })
+    public int bookings;
+
+    /**
+     * The bookings response, on a single line as LibCal returns it.
+     */
+    private byte[] payload;
+
+    @Setup
+    public void setUp() {
+        payload = BookingPayloads.generate(bookings, false);
+    }
+
+    @Benchmark
+    public void legacyJSONObject(Blackhole blackhole) throws IOException {
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(payload), StandardCharsets.UTF_8));
+        String line = "{\"bookings\":" + reader.readLine() + "}";
+        JSONObject obj = new JSONObject(line);
+
+        JSONArray array = obj.getJSONArray("bookings");
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject bObj = array.getJSONObject(i);
+            blackhole.consume(bObj.getString("email"));
+            blackhole.consume(bObj.getString("fromDate"));
+            blackhole.consume(bObj.getInt("eid"));
+        }
+
+    }
+
+    @Benchmark
+    public BookingIndex streaming() throws IOException {
+        return BookingIndex.of(BookingParser.parse(new ByteArrayInputStream(payload)));
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Generates LibCal bookings responses for benchmarking. Each booking carries
+ * the full set of fields LibCal returns, not only those the extension reads.
+ */
+public class BookingPayloads {
+
+    /**
+     * Format of LibCal booking times.
+     */
+    private static final DateTimeFormatter LIBCAL_TIME =
+            DateTimeFormatter.ISO_OFFSET_DATE_TIME;
+
+    /**
+     * Number of distinct bookable stations.
+     */
+    public static final int STATIONS = 60;
+
+    /**
+     * This class should not be instantiated.
+     */
+    private BookingPayloads() {}
+
+    /**
+     * Returns the email address of the user who made the given booking.
+     *
+     * @param booking
+     *     The index of the booking.
+     *
+     * @return
+     *     The email address of the booking's user.
+     */
+    public static String email(int booking) {
+        return "user" + booking + "@example.org";
+    }
+
+    /**
+     * Returns the LibCal id of the station booked by the given booking.
+     *
+     * @param booking
+     *     The index of the booking.
+     *
+     * @return
+     *     The station id.
+     */
+    public static int eid(int booking) {
+        return 10000 + booking % STATIONS;
+    }
+
+    /**
+     * Number of consecutive half-hour slots, starting from the first, whose
+     * bookings are active at the time the payload is generated.
+     */
+    public static final int ACTIVE_SLOTS = 3;
+
+    /**
+     * Returns the number of bookings active at the time a payload of the
+     * given size is generated. These are always the first bookings, so
+     * booking indexes below this number belong to users who may log in.
+     *
+     * @param count
+     *     The number of bookings in the payload.
+     *
+     * @return
+     *     The number of active bookings.
+     */
+    public static int active(int count) {
+        return Math.min(count, STATIONS * ACTIVE_SLOTS);
+    }
+
+    /**
+     * Generates a bookings response with the given number of bookings.
+     * Bookings fill one half-hour slot per station before moving on to the
+     * next slot. The first slot opens an hour before the current hour, and
+     * every booking lasts 150 minutes, so the first three slots are active
+     * now.
+     *
+     * @param count
+     *     The number of bookings.
+     *
+     * @param pretty
+     *     Whether to spread the response over multiple lines, as a
+     *     pretty-printing server would.
+     *
+     * @return
+     *     The bookings response as UTF-8 bytes.
+     */
+    public static byte[] generate(int count, boolean pretty) {
+
+        String newline = pretty ? "\n  " : "";
+        ZonedDateTime firstSlot = ZonedDateTime.now(ZoneOffset.UTC)
+                .truncatedTo(ChronoUnit.HOURS).minusHours(1);
+
+        StringBuilder json = new StringBuilder(count * 512);
+        json.append('[');
+        for (int i = 0; i < count; i++) {
+
+            ZonedDateTime from = firstSlot.plusMinutes(30L * (i / STATIONS));
+            ZonedDateTime to = from.plusMinutes(150);
+
+            if (i > 0)
+                json.append(',');
+
+            json.append(newline).append('{')
+                .append("\"bookId\":\"cs_").append(Integer.toHexString(i * 7919)).append("\",")
+                .append("\"id\":").append(i).append(',')
+                .append("\"eid\":").append(eid(i)).append(',')
+                .append("\"cid\":1234,\"lid\":5678,")
+                .append("\"fromDate\":\"").append(LIBCAL_TIME.format(from)).append("\",")
+                .append("\"toDate\":\"").append(LIBCAL_TIME.format(to)).append("\",")
+                .append("\"created\":\"").append(LIBCAL_TIME.format(firstSlot)).append("\",")
+                .append("\"firstName\":\"First").append(i).append("\",")
+                .append("\"lastName\":\"Last").append(i).append("\",")
+                .append("\"email\":\"").append(email(i)).append("\",")
+                .append("\"account\":\"\",")
+                .append("\"status\":\"Confirmed\",")
+                .append("\"location_name\":\"Academic Data Centre\",")
+                .append("\"category_name\":\"Virtual Workstations\",")
+                .append("\"item_name\":\"WK ").append(eid(i) % 100).append("\",")
+                .append("\"check_in_status\":null,")
+                .append("\"q2406\":\"Undergraduate\",")
+                .append("\"seat\":{\"id\":").append(i).append(",\"name\":\"Seat\"}")
+                .append('}');
+
+        }
+        json.append(pretty ? "\n]" : "]");
+
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+
+    }
+
+}
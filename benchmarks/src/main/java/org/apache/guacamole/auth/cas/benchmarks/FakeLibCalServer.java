@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embedded stand-in for the LibCal API, serving the OAuth token endpoint and
+ * the space bookings endpoint on a local port. Every bookings request,
+ * whatever its calendar or date, receives the same payload.
+ */
+public class FakeLibCalServer {
+
+    /**
+     * The API path prefix, matching the version segment of the real API.
+     */
+    public static final String API_PREFIX = "/1.1";
+
+    /**
+     * The token response body.
+     */
+    private static final byte[] TOKEN_RESPONSE = ("{\"access_token\":\"benchmark\","
+            + "\"expires_in\":3600,\"token_type\":\"Bearer\",\"scope\":\"rm_r\"}")
+            .getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * The underlying HTTP server.
+     */
+    private final HttpServer server;
+
+    /**
+     * Threads handling requests.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The number of token requests received.
+     */
+    private final AtomicLong tokenRequests = new AtomicLong();
+
+    /**
+     * The number of bookings requests received.
+     */
+    private final AtomicLong bookingsRequests = new AtomicLong();
+
+    /**
+     * The bookings response body.
+     */
+    private volatile byte[] bookings;
+
+    /**
+     * Starts a new server on an ephemeral local port.
+     *
+     * @param bookings
+     *     The bookings response body.
+     *
+     * @throws IOException
+     *     If the server cannot be started.
+     */
+    public FakeLibCalServer(byte[] bookings) throws IOException {
+
+        this.bookings = bookings;
+
+        server = HttpServer.create(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), 0), 0);
+
+        server.createContext(API_PREFIX + "/oauth/token", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                tokenRequests.incrementAndGet();
+                respond(exchange, TOKEN_RESPONSE);
+            }
+
+        });
+
+        server.createContext(API_PREFIX + "/space/bookings", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                bookingsRequests.incrementAndGet();
+                respond(exchange, FakeLibCalServer.this.bookings);
+            }
+
+        });
+
+        executor = Executors.newFixedThreadPool(8);
+        server.setExecutor(executor);
+        server.start();
+
+    }
+
+    /**
+     * Sends the given JSON body with a 200 status, draining the request.
+     *
+     * @param exchange
+     *     The exchange to respond to.
+     *
+     * @param body
+     *     The response body.
+     *
+     * @throws IOException
+     *     If the response cannot be written.
+     */
+    private static void respond(HttpExchange exchange, byte[] body)
+            throws IOException {
+
+        byte[] buffer = new byte[1024];
+        while (exchange.getRequestBody().read(buffer) != -1);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream output = exchange.getResponseBody();
+        try {
+            output.write(body);
+        }
+        finally {
+            output.close();
+        }
+
+    }
+
+    /**
+     * Returns the value for libcalcas-oauth-server which points at this
+     * server.
+     *
+     * @return
+     *     The base URI of the fake API.
+     */
+    public String getBaseURI() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + API_PREFIX;
+    }
+
+    /**
+     * Replaces the bookings response body.
+     *
+     * @param bookings
+     *     The new bookings response body.
+     */
+    public void setBookings(byte[] bookings) {
+        this.bookings = bookings;
+    }
+
+    /**
+     * Returns the number of token requests received.
+     *
+     * @return
+     *     The number of token requests.
+     */
+    public long getTokenRequests() {
+        return tokenRequests.get();
+    }
+
+    /**
+     * Returns the number of bookings requests received.
+     *
+     * @return
+     *     The number of bookings requests.
+     */
+    public long getBookingsRequests() {
+        return bookingsRequests.get();
+    }
+
+    /**
+     * Stops the server.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+}
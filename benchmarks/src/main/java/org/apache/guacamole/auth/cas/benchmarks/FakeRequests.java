@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import javax.servlet.http.HttpServletRequest;
+import org.apache.guacamole.net.auth.Credentials;
+
+/**
+ * Builds the credentials Guacamole would pass to the extension for a login
+ * request carrying a CAS ticket.
+ */
+public class FakeRequests {
+
+    /**
+     * This class should not be instantiated.
+     */
+    private FakeRequests() {}
+
+    /**
+     * Returns a request with the given ticket parameter, arriving from the
+     * given address. All other request methods return null, zero or false.
+     *
+     * @param ticket
+     *     The value of the "ticket" parameter.
+     *
+     * @param remoteAddress
+     *     The address the request arrives from.
+     *
+     * @return
+     *     A request carrying the given ticket.
+     */
+    public static HttpServletRequest withTicket(final String ticket,
+            final String remoteAddress) {
+
+        return (HttpServletRequest) Proxy.newProxyInstance(
+                FakeRequests.class.getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class },
+                new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+
+                String name = method.getName();
+                if (name.equals("getParameter") && "ticket".equals(args[0]))
+                    return ticket;
+                if (name.equals("getRemoteAddr") || name.equals("getRemoteHost"))
+                    return remoteAddress;
+
+                Class<?> type = method.getReturnType();
+                if (type == boolean.class)
+                    return false;
+                if (type == int.class)
+                    return 0;
+                if (type == long.class)
+                    return 0L;
+                return null;
+
+            }
+
+        });
+
+    }
+
+    /**
+     * Returns credentials for a login by the given user, as Guacamole would
+     * construct them after CAS redirects back with a ticket.
+     *
+     * @param username
+     *     The user logging in.
+     *
+     * @param remoteAddress
+     *     The address the login arrives from.
+     *
+     * @return
+     *     Credentials carrying a ticket for the given user.
+     */
+    public static Credentials login(String username, String remoteAddress) {
+        HttpServletRequest request = withTicket(
+                FakeTicketValidationService.ticketFor(username), remoteAddress);
+        Credentials credentials = new Credentials(null, null, request);
+        credentials.setRemoteAddress(remoteAddress);
+        return credentials;
+    }
+
+}
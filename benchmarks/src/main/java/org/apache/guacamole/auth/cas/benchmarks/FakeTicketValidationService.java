@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.auth.cas.ticket.TicketValidationService;
+import org.apache.guacamole.net.auth.Credentials;
+import org.apache.guacamole.net.auth.credentials.CredentialsInfo;
+import org.apache.guacamole.net.auth.credentials.GuacamoleInvalidCredentialsException;
+
+/**
+ * Stand-in for CAS ticket validation. A ticket of the form "ST-username" is
+ * accepted as belonging to that user, whose email address is
+ * username@example.org. Any other ticket is rejected.
+ */
+public class FakeTicketValidationService extends TicketValidationService {
+
+    /**
+     * The prefix of every valid ticket.
+     */
+    public static final String TICKET_PREFIX = "ST-";
+
+    /**
+     * Returns the ticket which validates as the given user.
+     *
+     * @param username
+     *     The user to issue a ticket for.
+     *
+     * @return
+     *     A ticket for the given user.
+     */
+    public static String ticketFor(String username) {
+        return TICKET_PREFIX + username;
+    }
+
+    @Override
+    public Map<String, String> validateTicket(String ticket,
+            Credentials credentials) throws GuacamoleException {
+
+        if (!ticket.startsWith(TICKET_PREFIX))
+            throw new GuacamoleInvalidCredentialsException("Ticket validation failed.",
+                    CredentialsInfo.EMPTY);
+
+        String username = ticket.substring(TICKET_PREFIX.length());
+        credentials.setUsername(username);
+
+        Map<String, String> tokens = new HashMap<String, String>();
+        tokens.put("CAS_MAIL", username + "@example.org");
+        return tokens;
+
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.benchmarks;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Scopes;
+import com.google.inject.util.Modules;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.auth.cas.AuthenticationProviderService;
+import org.apache.guacamole.auth.cas.CASAuthenticationProviderModule;
+import org.apache.guacamole.auth.cas.conf.ConfigurationService;
+import org.apache.guacamole.auth.cas.ticket.TicketValidationService;
+import org.apache.guacamole.net.auth.AbstractAuthenticationProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per-login cost of obtaining the AuthenticationProviderService
+ * in CASAuthenticationProvider. "unscoped" reproduces the original bindings,
+ * under which every login built and injected a new service graph;
+ * "singleton" looks the shared instance up in the injector; "resolvedOnce"
+ * is the field read the provider now performs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceResolutionBenchmark {
+
+    /**
+     * Injector configured exactly as the extension configures it.
+     */
+    private Injector injector;
+
+    /**
+     * Injector whose CAS services are unscoped, as before they were bound
+     * as singletons.
+     */
+    private Injector unscoped;
+
+    /**
+     * The service as resolved once by the provider.
+     */
+    private AuthenticationProviderService resolved;
+
+    @Setup
+    public void setUp() throws GuacamoleException, IOException {
+
+        BenchmarkEnvironment.install(Collections.<String, String>emptyMap());
+
+        AbstractAuthenticationProvider provider = new AbstractAuthenticationProvider() {
+
+            @Override
+            public String getIdentifier() {
+                return "cas";
+            }
+
+        };
+
+        injector = Guice.createInjector(new CASAuthenticationProviderModule(provider));
+        resolved = injector.getInstance(AuthenticationProviderService.class);
+
+        unscoped = Guice.createInjector(Modules.override(
+                new CASAuthenticationProviderModule(provider)).with(new AbstractModule() {
+
+            @Override
+            protected void configure() {
+                bind(AuthenticationProviderService.class).in(Scopes.NO_SCOPE);
+                bind(ConfigurationService.class).in(Scopes.NO_SCOPE);
+                bind(TicketValidationService.class).in(Scopes.NO_SCOPE);
+            }
+
+        }));
+
+    }
+
+    @Benchmark
+    public AuthenticationProviderService unscoped() {
+        return unscoped.getInstance(AuthenticationProviderService.class);
+    }
+
+    @Benchmark
+    public AuthenticationProviderService singleton() {
+        return injector.getInstance(AuthenticationProviderService.class);
+    }
+
+    @Benchmark
+    public AuthenticationProviderService resolvedOnce() {
+        return resolved;
+    }
+
+}
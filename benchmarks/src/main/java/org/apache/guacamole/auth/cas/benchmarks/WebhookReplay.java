@@ -0,0 +1,414 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.benchmarks;
+
+import com.google.inject.Injector;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.auth.cas.libcal.BookingCache;
+import org.apache.guacamole.auth.cas.libcal.BookingNotification;
+import org.apache.guacamole.auth.cas.webhook.WebhookResource;
+import org.apache.guacamole.auth.cas.webhook.WebhookSignature;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Replays a stream of booking notifications, one JSON notification per line,
+ * signing each as it is sent. The stream is replayed either against a running
+ * Guacamole server, or against the extension started in-process with an
+ * embedded stand-in for the LibCal API, in which case the number of cached
+ * bookings of each calendar and date is shown before and after. A stream can
+ * be generated for testing:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar org.apache.guacamole.auth.cas.benchmarks.WebhookReplay \
+ *     generate 500 0000 &gt; notifications.jsonl
+ * java -cp target/benchmarks.jar org.apache.guacamole.auth.cas.benchmarks.WebhookReplay \
+ *     replay local secret notifications.jsonl
+ * java -cp target/benchmarks.jar org.apache.guacamole.auth.cas.benchmarks.WebhookReplay \
+ *     replay https://somewhere.org/guacamole/api/ext/cas/bookings secret notifications.jsonl
+ * </pre>
+ */
+public class WebhookReplay {
+
+    /**
+     * Format of LibCal booking times.
+     */
+    private static final DateTimeFormatter LIBCAL_TIME =
+            DateTimeFormatter.ISO_OFFSET_DATE_TIME;
+
+    /**
+     * The number of bookings served by the LibCal stand-in in local mode.
+     */
+    private static final int LOCAL_BOOKINGS = 1000;
+
+    /**
+     * This class should not be instantiated.
+     */
+    private WebhookReplay() {}
+
+    /**
+     * Generates or replays a notification stream.
+     *
+     * @param args
+     *     "generate" followed by the number of notifications and the calendar
+     *     id, or "replay" followed by "local" or the URL of the endpoint, the
+     *     webhook secret, the file holding the stream ("-" for standard
+     *     input) and optionally a delay between notifications in
+     *     milliseconds.
+     *
+     * @throws Exception
+     *     If the stream cannot be read or the extension cannot be started.
+     */
+    public static void main(String[] args) throws Exception {
+
+        if (args.length == 3 && args[0].equals("generate"))
+            generate(Integer.parseInt(args[1]), args[2]);
+        else if ((args.length == 4 || args.length == 5) && args[0].equals("replay"))
+            replay(args[1], args[2], readLines(args[3]),
+                    args.length == 5 ? Long.parseLong(args[4]) : 0);
+        else {
+            System.err.println("Usage: WebhookReplay generate <count> <calendar-id>");
+            System.err.println("       WebhookReplay replay <local|url> <secret> <file|-> [delay-ms]");
+            System.exit(2);
+        }
+
+    }
+
+    /**
+     * Prints a stream of notifications for today, alternating between new
+     * bookings and cancellations of bookings served by the LibCal stand-in.
+     *
+     * @param count
+     *     The number of notifications.
+     *
+     * @param calendarId
+     *     The calendar of every notification.
+     */
+    private static void generate(int count, String calendarId) {
+
+        ZonedDateTime firstSlot = ZonedDateTime.now(ZoneOffset.UTC)
+                .truncatedTo(ChronoUnit.HOURS).minusHours(1);
+
+        for (int i = 0; i < count; i++) {
+
+            // Cancel existing bookings, and book as users with none so far
+            boolean cancel = i % 2 == 1;
+            int booking = cancel ? i : LOCAL_BOOKINGS + i;
+            ZonedDateTime from = firstSlot.plusMinutes(
+                    30L * ((cancel ? booking : i) / BookingPayloads.STATIONS));
+
+            System.out.println("{\"action\":\"" + (cancel ? "cancel" : "create") + "\","
+                    + "\"calendarId\":\"" + calendarId + "\","
+                    + "\"booking\":{"
+                    + "\"email\":\"" + BookingPayloads.email(booking) + "\","
+                    + "\"eid\":" + BookingPayloads.eid(booking) + ","
+                    + "\"fromDate\":\"" + LIBCAL_TIME.format(from) + "\","
+                    + "\"toDate\":\"" + LIBCAL_TIME.format(from.plusMinutes(150)) + "\","
+                    + "\"status\":\"" + (cancel ? "Cancelled" : "Confirmed") + "\"}}");
+
+        }
+
+    }
+
+    /**
+     * Reads the non-empty lines of the given file.
+     *
+     * @param file
+     *     The file to read, or "-" for standard input.
+     *
+     * @return
+     *     The lines of the file.
+     *
+     * @throws Exception
+     *     If the file cannot be read.
+     */
+    private static List<String> readLines(String file) throws Exception {
+
+        InputStream input = file.equals("-") ? System.in : new FileInputStream(file);
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(input, StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty())
+                    lines.add(line.trim());
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return lines;
+
+    }
+
+    /**
+     * Replays the given notifications and prints the results.
+     *
+     * @param target
+     *     "local", or the URL of the notification endpoint.
+     *
+     * @param secret
+     *     The webhook secret.
+     *
+     * @param notifications
+     *     The notifications to send.
+     *
+     * @param delay
+     *     The number of milliseconds to wait between notifications.
+     *
+     * @throws Exception
+     *     If the extension cannot be started.
+     */
+    private static void replay(String target, String secret,
+            List<String> notifications, long delay) throws Exception {
+
+        Map<String, Integer> results = new TreeMap<String, Integer>();
+        long[] latencies = new long[notifications.size()];
+
+        if (target.equals("local"))
+            replayLocal(secret, notifications, delay, results, latencies);
+        else
+            replayRemote(target, secret, notifications, delay, results, latencies);
+
+        Arrays.sort(latencies);
+        System.out.println("Notifications: " + notifications.size() + " " + results);
+        if (latencies.length > 0)
+            System.out.printf("Latency (ms): p50=%.3f p99=%.3f max=%.3f%n",
+                    latencies[latencies.length / 2] / 1e6,
+                    latencies[(int) (latencies.length * 0.99)] / 1e6,
+                    latencies[latencies.length - 1] / 1e6);
+
+    }
+
+    /**
+     * Replays the given notifications against the extension started
+     * in-process.
+     *
+     * @param secret
+     *     The webhook secret.
+     *
+     * @param notifications
+     *     The notifications to send.
+     *
+     * @param delay
+     *     The number of milliseconds to wait between notifications.
+     *
+     * @param results
+     *     The number of notifications with each result, to be filled in.
+     *
+     * @param latencies
+     *     The time taken by each notification, in nanoseconds, to be filled
+     *     in.
+     *
+     * @throws Exception
+     *     If the extension cannot be started.
+     */
+    private static void replayLocal(String secret, List<String> notifications,
+            long delay, Map<String, Integer> results, long[] latencies)
+            throws Exception {
+
+        FakeLibCalServer libcal = new FakeLibCalServer(
+                BookingPayloads.generate(LOCAL_BOOKINGS, false));
+        try {
+
+            // Every calendar and date notified is loaded first, as logins would
+            Set<String> keys = new LinkedHashSet<String>();
+            for (String body : notifications) {
+                BookingNotification notification = BookingNotification.parse(body);
+                keys.add(notification.getCalendarId() + "/" + notification.getDate());
+            }
+
+            StringBuilder calendars = new StringBuilder();
+            for (String key : keys) {
+                String calendarId = key.substring(0, key.indexOf('/'));
+                if (calendars.indexOf(calendarId) == -1)
+                    calendars.append(calendars.length() == 0 ? "" : ",").append(calendarId);
+            }
+
+            Map<String, String> settings = new HashMap<String, String>();
+            settings.put("libcalcas-oauth-server", libcal.getBaseURI());
+            settings.put("libcalcas-webhook-secret", secret);
+            if (calendars.length() > 0)
+                settings.put("libcalcas-calendar-id", calendars.toString());
+
+            Injector injector = BenchmarkExtension.start(settings);
+            BookingCache cache = injector.getInstance(BookingCache.class);
+            WebhookResource resource = injector.getInstance(WebhookResource.class);
+
+            printSizes("Before", cache, keys);
+
+            for (int i = 0; i < notifications.size(); i++) {
+                String body = notifications.get(i);
+                String timestamp = Long.toString(
+                        TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+                String signature = WebhookSignature.sign(secret, timestamp, body);
+                long started = System.nanoTime();
+                String result = "accepted";
+                try {
+                    resource.notifyBooking(timestamp, signature, body);
+                }
+                catch (Exception e) {
+                    result = e.getClass().getSimpleName();
+                }
+                latencies[i] = System.nanoTime() - started;
+                count(results, result);
+                if (delay > 0)
+                    Thread.sleep(delay);
+            }
+
+            printSizes("After", cache, keys);
+
+        }
+        finally {
+            libcal.stop();
+        }
+
+    }
+
+    /**
+     * Prints the number of cached bookings of each of the given calendars
+     * and dates.
+     *
+     * @param label
+     *     The label of the line printed.
+     *
+     * @param cache
+     *     The bookings cache.
+     *
+     * @param keys
+     *     The calendars and dates, each as calendar id, "/" and date.
+     *
+     * @throws Exception
+     *     If the bookings cannot be loaded.
+     */
+    private static void printSizes(String label, BookingCache cache,
+            Set<String> keys) throws Exception {
+        StringBuilder sizes = new StringBuilder(label).append(':');
+        for (String key : keys) {
+            int slash = key.indexOf('/');
+            sizes.append(' ').append(key).append('=').append(cache.getBookingsAsync(
+                    key.substring(0, slash), key.substring(slash + 1)).get().size());
+        }
+        System.out.println(sizes);
+    }
+
+    /**
+     * Replays the given notifications against a running Guacamole server.
+     *
+     * @param url
+     *     The URL of the notification endpoint.
+     *
+     * @param secret
+     *     The webhook secret.
+     *
+     * @param notifications
+     *     The notifications to send.
+     *
+     * @param delay
+     *     The number of milliseconds to wait between notifications.
+     *
+     * @param results
+     *     The number of responses with each HTTP status, to be filled in.
+     *
+     * @param latencies
+     *     The time taken by each notification, in nanoseconds, to be filled
+     *     in.
+     *
+     * @throws Exception
+     *     If a notification cannot be sent.
+     */
+    private static void replayRemote(String url, String secret,
+            List<String> notifications, long delay, Map<String, Integer> results,
+            long[] latencies) throws Exception {
+
+        CloseableHttpClient client = HttpClients.createDefault();
+        try {
+            for (int i = 0; i < notifications.size(); i++) {
+
+                String body = notifications.get(i);
+                String timestamp = Long.toString(
+                        TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+
+                HttpPost post = new HttpPost(url);
+                post.setHeader(WebhookSignature.TIMESTAMP_HEADER, timestamp);
+                post.setHeader(WebhookSignature.SIGNATURE_HEADER,
+                        WebhookSignature.sign(secret, timestamp, body));
+                post.setEntity(new StringEntity(body, ContentType.APPLICATION_JSON));
+
+                long started = System.nanoTime();
+                CloseableHttpResponse response = client.execute(post);
+                try {
+                    EntityUtils.consume(response.getEntity());
+                    count(results, Integer.toString(response.getStatusLine().getStatusCode()));
+                }
+                finally {
+                    response.close();
+                }
+                latencies[i] = System.nanoTime() - started;
+
+                if (delay > 0)
+                    Thread.sleep(delay);
+
+            }
+        }
+        finally {
+            client.close();
+        }
+
+    }
+
+    /**
+     * Adds one to the count of the given result.
+     *
+     * @param results
+     *     The count of each result.
+     *
+     * @param result
+     *     The result to count.
+     */
+    private static void count(Map<String, Integer> results, String result) {
+        Integer current = results.get(result);
+        results.put(result, current == null ? 1 : current + 1);
+    }
+
+}
@@ -19,6 +19,8 @@
 
 package org.apache.guacamole.auth.cas.conf;
 
+import org.apache.guacamole.properties.BooleanGuacamoleProperty;
+import org.apache.guacamole.properties.IntegerGuacamoleProperty;
 import org.apache.guacamole.properties.StringGuacamoleProperty;
 
 /**
@@ -69,6 +71,18 @@ public class CASGuacamoleProperties {
 
     };
 
+    /**
+     * The location of the private key file read by CAS_CLEARPASS_KEY, as an
+     * unparsed path, so that the file can be watched for changes.
+     */
+    public static final StringGuacamoleProperty CAS_CLEARPASS_KEY_FILE =
+            new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "cas-clearpass-key"; }
+
+    };
+
     /**
      * The location of the OAUTH server used by LibCal.
      */
@@ -92,7 +106,8 @@ public class CASGuacamoleProperties {
     };
 
     /**
-     * The location of the LibCal calendar id.
+     * The LibCal calendars whose bookings grant access, separated by commas,
+     * each as lid[:session-mins[:group]].
      */
     public static final StringGuacamoleProperty LIBCALCAS_CALENDAR_ID =
             new StringGuacamoleProperty() {
@@ -134,4 +149,464 @@ public class CASGuacamoleProperties {
         public String getName() { return "libcalcas-invalid-uri"; }
 
     };
+
+    /**
+     * The maximum number of pooled HTTP connections held open to LibCal.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_HTTP_MAX_CONNECTIONS =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-http-max-connections"; }
+
+    };
+
+    /**
+     * The maximum number of pooled HTTP connections held open to any single
+     * LibCal host.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_HTTP_MAX_PER_ROUTE =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-http-max-per-route"; }
+
+    };
+
+    /**
+     * The number of seconds an idle LibCal connection is kept alive if the
+     * server does not say otherwise.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_HTTP_KEEP_ALIVE_SECONDS =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-http-keep-alive-seconds"; }
+
+    };
+
+    /**
+     * The number of seconds after which idle LibCal connections are evicted
+     * from the pool.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_HTTP_IDLE_EVICT_SECONDS =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-http-idle-evict-seconds"; }
+
+    };
+
+    /**
+     * The number of milliseconds to wait while connecting to LibCal.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_HTTP_CONNECT_TIMEOUT =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-http-connect-timeout"; }
+
+    };
+
+    /**
+     * The number of milliseconds to wait for data from LibCal once connected.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_HTTP_READ_TIMEOUT =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-http-read-timeout"; }
+
+    };
+
+    /**
+     * The number of milliseconds to wait for a free connection from the pool.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_HTTP_POOL_TIMEOUT =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-http-pool-timeout"; }
+
+    };
+
+    /**
+     * The number of seconds cached LibCal bookings are considered fresh.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_BOOKINGS_CACHE_TTL =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-bookings-cache-ttl"; }
+
+    };
+
+    /**
+     * The number of seconds past their TTL that cached LibCal bookings may
+     * still be served while they are refreshed in the background.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_BOOKINGS_CACHE_STALE =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-bookings-cache-stale"; }
+
+    };
+
+    /**
+     * The maximum number of calendar/date booking lists held in memory.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_BOOKINGS_CACHE_SIZE =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-bookings-cache-size"; }
+
+    };
+
+    /**
+     * How bookings are obtained: "on-demand" fetches them as logins arrive,
+     * "poll" loads them in the background ahead of logins, and "push" keeps
+     * them up to date from booking notifications.
+     */
+    public static final StringGuacamoleProperty LIBCALCAS_BOOKINGS_MODE =
+            new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-bookings-mode"; }
+
+    };
+
+    /**
+     * The number of seconds between background polls of LibCal bookings.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_POLL_INTERVAL =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-poll-interval"; }
+
+    };
+
+    /**
+     * The number of minutes before a booking starts that its user may log in.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_EARLY_ENTRY_MINS =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-early-entry-mins"; }
+
+    };
+
+    /**
+     * The number of minutes after a booking ends that its user may still log
+     * in.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_GRACE_MINS =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-grace-mins"; }
+
+    };
+
+    /**
+     * Comma-separated list of LibCal booking statuses which grant access.
+     */
+    public static final StringGuacamoleProperty LIBCALCAS_ACCEPTED_STATUSES =
+            new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-accepted-statuses"; }
+
+    };
+
+    /**
+     * The port on which metrics are served in the Prometheus text format, or
+     * 0 to not serve them.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_METRICS_PORT =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-metrics-port"; }
+
+    };
+
+    /**
+     * The address on which metrics are served in the Prometheus text format.
+     */
+    public static final StringGuacamoleProperty LIBCALCAS_METRICS_ADDRESS =
+            new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-metrics-address"; }
+
+    };
+
+    /**
+     * The number of seconds for which the result of validating a CAS ticket
+     * is reused for resubmissions of the same ticket, or 0 to validate every
+     * submission with CAS.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_TICKET_CACHE_TTL =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-ticket-cache-ttl"; }
+
+    };
+
+    /**
+     * The maximum number of validated CAS tickets to remember.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_TICKET_CACHE_SIZE =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-ticket-cache-size"; }
+
+    };
+
+    /**
+     * The maximum number of requests to LibCal in progress at once.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_MAX_CONCURRENT_REQUESTS =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-max-concurrent-requests"; }
+
+    };
+
+    /**
+     * The maximum number of requests to LibCal which may wait for a turn
+     * when the concurrent limit is reached.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_MAX_QUEUED_REQUESTS =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-max-queued-requests"; }
+
+    };
+
+    /**
+     * The number of most recent LibCal calls considered by the circuit
+     * breaker.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_CIRCUIT_WINDOW =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-circuit-window"; }
+
+    };
+
+    /**
+     * The percentage of failed LibCal calls at which the circuit breaker
+     * opens.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_CIRCUIT_FAILURE_RATE =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-circuit-failure-rate"; }
+
+    };
+
+    /**
+     * The percentage of slow LibCal calls at which the circuit breaker
+     * opens.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_CIRCUIT_SLOW_RATE =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-circuit-slow-rate"; }
+
+    };
+
+    /**
+     * The number of milliseconds at or above which a LibCal call is slow.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_CIRCUIT_SLOW_CALL =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-circuit-slow-call"; }
+
+    };
+
+    /**
+     * The number of seconds the circuit breaker stays open before LibCal is
+     * tried again.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_CIRCUIT_OPEN_SECONDS =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-circuit-open-seconds"; }
+
+    };
+
+    /**
+     * The age, in seconds, up to which the last fetched bookings are used
+     * when LibCal cannot be reached, or 0 to never use them.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_FALLBACK_MAX_AGE =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-fallback-max-age"; }
+
+    };
+
+    /**
+     * The number of milliseconds a login may wait for CAS and LibCal
+     * together.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_LOGIN_TIMEOUT =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-login-timeout"; }
+
+    };
+
+    /**
+     * Whether LibCal lookups run on virtual threads, where the JVM supports
+     * them.
+     */
+    public static final BooleanGuacamoleProperty LIBCALCAS_VIRTUAL_THREADS =
+            new BooleanGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-virtual-threads"; }
+
+    };
+
+    /**
+     * The shared secret with which booking notifications are signed. The
+     * notification endpoint is disabled if this is not set.
+     */
+    public static final StringGuacamoleProperty LIBCALCAS_WEBHOOK_SECRET =
+            new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-webhook-secret"; }
+
+    };
+
+    /**
+     * The number of seconds between full reloads of bookings when they are
+     * pushed to the extension.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_RECONCILE_INTERVAL =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-reconcile-interval"; }
+
+    };
+
+    /**
+     * The file to which cached bookings are saved, so that they survive a
+     * restart. Bookings are not saved if this is not set.
+     */
+    public static final StringGuacamoleProperty LIBCALCAS_SNAPSHOT_FILE =
+            new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-snapshot-file"; }
+
+    };
+
+    /**
+     * The number of seconds between saves of cached bookings.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_SNAPSHOT_INTERVAL =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-snapshot-interval"; }
+
+    };
+
+    /**
+     * A file mapping each station to the remote desktop its bookings grant
+     * access to. If this is not set, the station's name is passed on as the
+     * username and password for another extension, such as user-mapping.xml,
+     * to look up.
+     */
+    public static final StringGuacamoleProperty LIBCALCAS_STATION_FILE =
+            new StringGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-station-file"; }
+
+    };
+
+    /**
+     * The number of minutes before a booking's access ends at which its
+     * connections are warned. No warning is given if this is 0.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_SESSION_WARNING_MINS =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-session-warning-mins"; }
+
+    };
+
+    /**
+     * The number of logins carrying a CAS ticket allowed per minute from each
+     * client address, sustained. Logins are not limited by address if this
+     * is 0.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_LOGIN_RATE_PER_IP =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-login-rate-per-ip"; }
+
+    };
+
+    /**
+     * The number of logins carrying a CAS ticket allowed at once from each
+     * client address.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_LOGIN_BURST_PER_IP =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-login-burst-per-ip"; }
+
+    };
+
+    /**
+     * The number of logins carrying a CAS ticket allowed per second from all
+     * clients together, sustained. Logins are not limited overall if this is
+     * 0.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_LOGIN_RATE =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-login-rate"; }
+
+    };
+
+    /**
+     * The number of logins carrying a CAS ticket allowed at once from all
+     * clients together.
+     */
+    public static final IntegerGuacamoleProperty LIBCALCAS_LOGIN_BURST =
+            new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "libcalcas-login-burst"; }
+
+    };
 }
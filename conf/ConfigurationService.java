@@ -20,21 +20,288 @@
 package org.apache.guacamole.auth.cas.conf;
 
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.security.PrivateKey;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
 import org.apache.guacamole.environment.Environment;
+import org.apache.guacamole.environment.LocalEnvironment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Service for retrieving configuration information regarding the CAS service.
+ * All settings are read and validated once, into an immutable snapshot, and
+ * re-read whenever guacamole.properties, the ClearPass key file or the station
+ * file changes.
+ * An invalid edit is reported and ignored, leaving the previous snapshot in
+ * service.
  */
+@Singleton
 public class ConfigurationService {
 
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ConfigurationService.class);
+
+    /**
+     * Number of milliseconds to wait after a change is detected before
+     * reloading, so that an editor's several writes cause a single reload.
+     */
+    private static final long RELOAD_DELAY = 500;
+
+    /**
+     * The name of the Guacamole configuration file.
+     */
+    private static final String PROPERTIES_FILE = "guacamole.properties";
+
     /**
      * The Guacamole server environment.
      */
     @Inject
     private Environment environment;
 
+    /**
+     * The current settings, or null if they have not yet been loaded.
+     */
+    private volatile ConfigurationSnapshot snapshot;
+
+    /**
+     * The service watching configuration files for changes, or null if
+     * changes are not being watched.
+     */
+    private WatchService watchService;
+
+    /**
+     * The absolute paths of the files whose changes cause a reload, as
+     * determined by the current settings.
+     */
+    private volatile Set<Path> watchedFiles = Collections.emptySet();
+
+    /**
+     * Reads and validates all settings, replacing the current snapshot. This
+     * is called once at startup so that configuration errors are reported
+     * immediately rather than on the first login.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed, a required property is
+     *     missing, or a property has an invalid value.
+     */
+    public synchronized void load() throws GuacamoleException {
+        snapshot = new ConfigurationSnapshot(environment);
+    }
+
+    /**
+     * Returns the current settings, loading them if this has not yet been
+     * done.
+     *
+     * @return
+     *     The current settings.
+     *
+     * @throws GuacamoleException
+     *     If the settings have not yet been loaded and cannot be.
+     */
+    private ConfigurationSnapshot getSnapshot() throws GuacamoleException {
+
+        ConfigurationSnapshot current = snapshot;
+        if (current != null)
+            return current;
+
+        synchronized (this) {
+            if (snapshot == null)
+                load();
+            return snapshot;
+        }
+
+    }
+
+    /**
+     * Starts watching guacamole.properties, the ClearPass key file and the
+     * station file, reloading the settings whenever any of them changes.
+     *
+     * @throws GuacamoleException
+     *     If the settings cannot be loaded, or the files cannot be watched.
+     */
+    public synchronized void startWatching() throws GuacamoleException {
+
+        if (watchService != null)
+            return;
+
+        ConfigurationSnapshot current = getSnapshot();
+
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            register(watchService, current);
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException("Unable to watch configuration files for changes.", e);
+        }
+
+        final WatchService service = watchService;
+        Thread watcher = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                watch(service);
+            }
+
+        }, "libcalcas-config-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+
+    }
+
+    /**
+     * Registers the directories of guacamole.properties and of the files
+     * named by the given settings with the given watch service, and makes
+     * those files the ones whose changes cause a reload. Directories which
+     * are already registered are unaffected.
+     *
+     * @param service
+     *     The watch service with which to register the directories.
+     *
+     * @param settings
+     *     The settings naming the ClearPass key file and station file.
+     *
+     * @throws IOException
+     *     If a directory cannot be registered.
+     */
+    private void register(WatchService service, ConfigurationSnapshot settings)
+            throws IOException {
+
+        Set<Path> watched = new HashSet<Path>();
+        watched.add(new File(environment.getGuacamoleHome(), PROPERTIES_FILE)
+                .getAbsoluteFile().toPath());
+        if (settings.clearpassKeyFile != null)
+            watched.add(new File(settings.clearpassKeyFile).getAbsoluteFile().toPath());
+        if (settings.stationFile != null)
+            watched.add(new File(settings.stationFile).getAbsoluteFile().toPath());
+
+        for (Path file : watched)
+            file.getParent().register(service,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+
+        watchedFiles = watched;
+
+    }
+
+    /**
+     * Waits for changes to the watched files, reloading the settings after
+     * each, until the watch service is closed.
+     *
+     * @param service
+     *     The watch service on which the files' directories are registered.
+     */
+    private void watch(WatchService service) {
+        try {
+            for (;;) {
+
+                WatchKey key = service.take();
+                boolean changed = false;
+
+                // Collect every event arriving shortly after the first
+                do {
+                    Path directory = (Path) key.watchable();
+                    Set<Path> watched = watchedFiles;
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        Object context = event.context();
+                        if (context instanceof Path
+                                && watched.contains(directory.resolve((Path) context)))
+                            changed = true;
+                    }
+                    key.reset();
+                } while ((key = service.poll(RELOAD_DELAY, TimeUnit.MILLISECONDS)) != null);
+
+                if (changed)
+                    reload(service);
+
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ClosedWatchServiceException e) {
+            // Watching has been stopped
+        }
+    }
+
+    /**
+     * Re-reads guacamole.properties and, if the new settings are valid,
+     * replaces the current snapshot and watches the files they name.
+     * Invalid settings are reported and the current snapshot is kept, and
+     * changes to settings applied only at startup are reported.
+     *
+     * @param service
+     *     The watch service with which to register the directories of the
+     *     files named by the new settings.
+     */
+    private void reload(WatchService service) {
+
+        ConfigurationSnapshot reloaded;
+        List<String> ignored;
+        try {
+            reloaded = new ConfigurationSnapshot(new LocalEnvironment());
+            synchronized (this) {
+                ignored = reloaded.getRestartOnlyChanges(snapshot);
+                snapshot = reloaded;
+            }
+            logger.info("Reloaded {}.", PROPERTIES_FILE);
+        }
+        catch (GuacamoleException e) {
+            logger.error("Ignoring invalid {}, keeping previous settings: {}",
+                    PROPERTIES_FILE, e.getMessage());
+            logger.debug("Reloading the configuration failed.", e);
+            return;
+        }
+
+        if (!ignored.isEmpty())
+            logger.warn("Changes to {} take effect only after a restart.",
+                    String.join(", ", ignored));
+
+        // The key file or station file may have moved
+        try {
+            register(service, reloaded);
+        }
+        catch (IOException e) {
+            logger.warn("Unable to watch configuration files for changes: {}",
+                    e.getMessage());
+            logger.debug("Registering configuration directories failed.", e);
+        }
+
+    }
+
+    /**
+     * Stops watching configuration files for changes.
+     */
+    public synchronized void shutdown() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            }
+            catch (IOException e) {
+                // The watcher thread is a daemon and will not block shutdown
+            }
+            watchService = null;
+        }
+    }
+
     /**
      * Returns the authorization endpoint (URI) of the CAS service as
      * configured with guacamole.properties.
@@ -48,7 +315,7 @@ public class ConfigurationService {
      *     endpoint property is missing.
      */
     public String getAuthorizationEndpoint() throws GuacamoleException {
-        return environment.getRequiredProperty(CASGuacamoleProperties.CAS_AUTHORIZATION_ENDPOINT);
+        return getSnapshot().authorizationEndpoint;
     }
 
     /**
@@ -66,7 +333,7 @@ public class ConfigurationService {
      *     property is missing.
      */
     public String getRedirectURI() throws GuacamoleException {
-        return environment.getRequiredProperty(CASGuacamoleProperties.CAS_REDIRECT_URI);
+        return getSnapshot().redirectURI;
     }
 
     /**
@@ -81,7 +348,7 @@ public class ConfigurationService {
      *     If guacamole.properties cannot be parsed.
      */
     public PrivateKey getClearpassKey() throws GuacamoleException {
-        return environment.getProperty(CASGuacamoleProperties.CAS_CLEARPASS_KEY);
+        return getSnapshot().clearpassKey;
     }
 
     /**
@@ -95,7 +362,7 @@ public class ConfigurationService {
      *     property is missing.
      */
     public String getOauthServer() throws GuacamoleException {
-        return environment.getRequiredProperty(CASGuacamoleProperties.LIBCALCAS_OAUTH_SERVER);
+        return getSnapshot().oauthServer;
     }
 
     /**
@@ -109,21 +376,39 @@ public class ConfigurationService {
      *     property is missing.
      */
     public String getClientId() throws GuacamoleException {
-        return environment.getRequiredProperty(CASGuacamoleProperties.LIBCALCAS_CLIENT_ID);
+        return getSnapshot().clientId;
     }
 
     /**
-     * Returns the calendar id of the LibCal service.
+     * Returns the LibCal calendars whose bookings grant access.
      *
      * @return
-     *     The calendar id for API access.
+     *     The calendars, in the order listed in guacamole.properties. There
+     *     is always at least one.
      *
      * @throws GuacamoleException
-     *     If guacamole.properties cannot be parsed, or if the redirect URI
+     *     If guacamole.properties cannot be parsed, or if the calendar id
      *     property is missing.
      */
-    public String getCalendarId() throws GuacamoleException {
-        return environment.getRequiredProperty(CASGuacamoleProperties.LIBCALCAS_CALENDAR_ID);
+    public List<LibCalCalendar> getCalendars() throws GuacamoleException {
+        return getSnapshot().calendars;
+    }
+
+    /**
+     * Returns the LibCal calendar with the given location id.
+     *
+     * @param calendarId
+     *     The LibCal location (lid) of the calendar.
+     *
+     * @return
+     *     The calendar, or null if it is not listed in guacamole.properties.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed, or if the calendar id
+     *     property is missing.
+     */
+    public LibCalCalendar getCalendar(String calendarId) throws GuacamoleException {
+        return getSnapshot().calendarsById.get(calendarId);
     }
 
     /**
@@ -137,7 +422,7 @@ public class ConfigurationService {
      *     property is missing.
      */
     public String getClientSecret() throws GuacamoleException {
-        return environment.getRequiredProperty(CASGuacamoleProperties.LIBCALCAS_CLIENT_SECRET);
+        return getSnapshot().clientSecret;
     }
 
     /**
@@ -151,8 +436,7 @@ public class ConfigurationService {
      *     property is missing.
      */
     public int getSessionMins() throws GuacamoleException {
-        return Integer.parseInt(environment.getRequiredProperty(
-            CASGuacamoleProperties.LIBCALCAS_SESSION_MINS));
+        return getSnapshot().sessionMins;
     }
 
     /**
@@ -166,6 +450,576 @@ public class ConfigurationService {
      *     property is missing.
      */
     public String getLibCalRedirectURI() throws GuacamoleException {
-        return environment.getRequiredProperty(CASGuacamoleProperties.LIBCALCAS_INVALID_URI);
+        return getSnapshot().libCalRedirectURI;
+    }
+
+    /**
+     * Returns the maximum number of pooled HTTP connections to LibCal.
+     *
+     * @return
+     *     The maximum number of pooled connections, 20 by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getHttpMaxConnections() throws GuacamoleException {
+        return getSnapshot().httpMaxConnections;
+    }
+
+    /**
+     * Returns the maximum number of pooled HTTP connections to any single
+     * LibCal host.
+     *
+     * @return
+     *     The maximum number of pooled connections per host, 20 by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getHttpMaxPerRoute() throws GuacamoleException {
+        return getSnapshot().httpMaxPerRoute;
+    }
+
+    /**
+     * Returns the number of seconds to keep an idle LibCal connection alive
+     * when the server does not specify a keep-alive duration.
+     *
+     * @return
+     *     Keep-alive in seconds, 30 by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getHttpKeepAliveSeconds() throws GuacamoleException {
+        return getSnapshot().httpKeepAliveSeconds;
+    }
+
+    /**
+     * Returns the number of seconds after which idle LibCal connections are
+     * evicted from the pool.
+     *
+     * @return
+     *     Idle eviction time in seconds, 60 by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getHttpIdleEvictSeconds() throws GuacamoleException {
+        return getSnapshot().httpIdleEvictSeconds;
+    }
+
+    /**
+     * Returns the connect timeout for LibCal requests.
+     *
+     * @return
+     *     Connect timeout in milliseconds, 5000 by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getHttpConnectTimeout() throws GuacamoleException {
+        return getSnapshot().httpConnectTimeout;
+    }
+
+    /**
+     * Returns the read (socket) timeout for LibCal requests.
+     *
+     * @return
+     *     Read timeout in milliseconds, 10000 by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getHttpReadTimeout() throws GuacamoleException {
+        return getSnapshot().httpReadTimeout;
+    }
+
+    /**
+     * Returns how long a LibCal request may wait for a pooled connection.
+     *
+     * @return
+     *     Pool lease timeout in milliseconds, 2000 by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getHttpPoolTimeout() throws GuacamoleException {
+        return getSnapshot().httpPoolTimeout;
+    }
+
+    /**
+     * Returns the number of seconds cached bookings are considered fresh.
+     *
+     * @return
+     *     The bookings cache TTL in seconds, 60 by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getBookingsCacheTTL() throws GuacamoleException {
+        return getSnapshot().bookingsCacheTTL;
+    }
+
+    /**
+     * Returns the number of seconds past the TTL that cached bookings may be
+     * served while being refreshed in the background.
+     *
+     * @return
+     *     The stale-while-revalidate window in seconds, 300 by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getBookingsCacheStale() throws GuacamoleException {
+        return getSnapshot().bookingsCacheStale;
+    }
+
+    /**
+     * Returns the maximum number of calendar/date booking lists to cache.
+     *
+     * @return
+     *     The maximum number of cache entries, 16 by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getBookingsCacheSize() throws GuacamoleException {
+        return getSnapshot().bookingsCacheSize;
+    }
+
+    /**
+     * Returns how bookings are obtained: "on-demand", "poll" or "push".
+     *
+     * @return
+     *     The bookings mode, "on-demand" by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public String getBookingsMode() throws GuacamoleException {
+        return getSnapshot().bookingsMode;
+    }
+
+    /**
+     * Returns the number of seconds between background polls of bookings.
+     *
+     * @return
+     *     The poll interval in seconds, 30 by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getPollInterval() throws GuacamoleException {
+        return getSnapshot().pollInterval;
+    }
+
+    /**
+     * Returns the number of minutes before a booking starts that its user
+     * may log in.
+     *
+     * @return
+     *     Early entry in minutes, 0 by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getEarlyEntryMins() throws GuacamoleException {
+        return getSnapshot().earlyEntryMins;
+    }
+
+    /**
+     * Returns the number of minutes after a booking ends that its user may
+     * still log in.
+     *
+     * @return
+     *     Grace period in minutes, 0 by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getGraceMins() throws GuacamoleException {
+        return getSnapshot().graceMins;
+    }
+
+    /**
+     * Returns the LibCal booking statuses which grant access.
+     *
+     * @return
+     *     The accepted statuses in lowercase, "confirmed" and "mediated
+     *     approved" by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public Set<String> getAcceptedStatuses() throws GuacamoleException {
+        return getSnapshot().acceptedStatuses;
+    }
+
+    /**
+     * Returns the port on which metrics are served in the Prometheus text
+     * format.
+     *
+     * @return
+     *     The metrics port, or 0 (the default) if metrics are not served.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getMetricsPort() throws GuacamoleException {
+        return getSnapshot().metricsPort;
+    }
+
+    /**
+     * Returns the address on which metrics are served in the Prometheus
+     * text format.
+     *
+     * @return
+     *     The metrics address, "127.0.0.1" by default so that metrics can
+     *     only be scraped locally.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public String getMetricsAddress() throws GuacamoleException {
+        return getSnapshot().metricsAddress;
+    }
+
+    /**
+     * Returns the number of seconds for which the result of validating a
+     * CAS ticket is reused for resubmissions of the same ticket.
+     *
+     * @return
+     *     The ticket cache TTL in seconds, 30 by default, or 0 if every
+     *     submission is validated with CAS.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getTicketCacheTTL() throws GuacamoleException {
+        return getSnapshot().ticketCacheTTL;
+    }
+
+    /**
+     * Returns the maximum number of validated CAS tickets to remember.
+     *
+     * @return
+     *     The ticket cache size, 1000 by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getTicketCacheSize() throws GuacamoleException {
+        return getSnapshot().ticketCacheSize;
+    }
+
+    /**
+     * Returns the maximum number of requests to LibCal in progress at once.
+     *
+     * @return
+     *     The concurrent request limit, 8 by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getMaxConcurrentRequests() throws GuacamoleException {
+        return getSnapshot().maxConcurrentRequests;
+    }
+
+    /**
+     * Returns the maximum number of requests to LibCal which may wait for a
+     * turn when the concurrent limit is reached. Further requests fail at
+     * once.
+     *
+     * @return
+     *     The request queue limit, 64 by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getMaxQueuedRequests() throws GuacamoleException {
+        return getSnapshot().maxQueuedRequests;
+    }
+
+    /**
+     * Returns the number of most recent LibCal calls considered by the
+     * circuit breaker.
+     *
+     * @return
+     *     The window size, 20 calls by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getCircuitWindow() throws GuacamoleException {
+        return getSnapshot().circuitWindow;
+    }
+
+    /**
+     * Returns the percentage of failed LibCal calls at which the circuit
+     * breaker opens.
+     *
+     * @return
+     *     The failure rate threshold, 50 by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getCircuitFailureRate() throws GuacamoleException {
+        return getSnapshot().circuitFailureRate;
+    }
+
+    /**
+     * Returns the percentage of slow LibCal calls at which the circuit
+     * breaker opens.
+     *
+     * @return
+     *     The slow call rate threshold, 50 by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getCircuitSlowRate() throws GuacamoleException {
+        return getSnapshot().circuitSlowRate;
+    }
+
+    /**
+     * Returns the number of milliseconds at or above which a LibCal call is
+     * slow.
+     *
+     * @return
+     *     The slow call duration, 3000 by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getCircuitSlowCall() throws GuacamoleException {
+        return getSnapshot().circuitSlowCall;
+    }
+
+    /**
+     * Returns the number of seconds the circuit breaker stays open before
+     * LibCal is tried again.
+     *
+     * @return
+     *     The open period in seconds, 30 by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getCircuitOpenSeconds() throws GuacamoleException {
+        return getSnapshot().circuitOpenSeconds;
+    }
+
+    /**
+     * Returns the age up to which the last fetched bookings are used when
+     * LibCal cannot be reached.
+     *
+     * @return
+     *     The maximum age in seconds, 3600 by default, or 0 if the last
+     *     fetched bookings are never used.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getFallbackMaxAge() throws GuacamoleException {
+        return getSnapshot().fallbackMaxAge;
+    }
+
+    /**
+     * Returns the number of milliseconds a login may wait for CAS and
+     * LibCal together.
+     *
+     * @return
+     *     The login timeout in milliseconds, 15000 by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getLoginTimeout() throws GuacamoleException {
+        return getSnapshot().loginTimeout;
+    }
+
+    /**
+     * Returns whether LibCal lookups should run on virtual threads, where
+     * the JVM supports them.
+     *
+     * @return
+     *     true if virtual threads should be used, false (the default) to
+     *     use a pool of platform threads.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public boolean getVirtualThreads() throws GuacamoleException {
+        return getSnapshot().virtualThreads;
+    }
+
+    /**
+     * Returns the shared secret with which booking notifications are
+     * signed.
+     *
+     * @return
+     *     The webhook secret, or null if booking notifications are not
+     *     accepted.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public String getWebhookSecret() throws GuacamoleException {
+        return getSnapshot().webhookSecret;
+    }
+
+    /**
+     * Returns the number of seconds between full reloads of bookings when
+     * bookings are pushed, which catch any notification that was missed.
+     *
+     * @return
+     *     The reconciliation interval in seconds, 900 by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getReconcileInterval() throws GuacamoleException {
+        return getSnapshot().reconcileInterval;
+    }
+
+    /**
+     * Returns the file to which cached bookings are saved, and from which
+     * they are restored at startup.
+     *
+     * @return
+     *     The snapshot file, or null if bookings are not saved.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public File getSnapshotFile() throws GuacamoleException {
+        String file = getSnapshot().snapshotFile;
+        return file == null ? null : new File(file);
+    }
+
+    /**
+     * Returns the number of seconds between saves of cached bookings. The
+     * snapshot is only rewritten if the bookings changed.
+     *
+     * @return
+     *     The snapshot interval in seconds, 60 by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getSnapshotInterval() throws GuacamoleException {
+        return getSnapshot().snapshotInterval;
+    }
+
+    /**
+     * Returns the file mapping each station to its remote desktop.
+     *
+     * @return
+     *     The station file, or null if stations are left to another
+     *     extension.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public File getStationFile() throws GuacamoleException {
+        String file = getSnapshot().stationFile;
+        return file == null ? null : new File(file);
+    }
+
+    /**
+     * Returns the remote desktop to which bookings of the given station
+     * grant access, as listed in the station file. The lookup uses the
+     * stations read with the current settings, so a reload of the file
+     * applies to every later lookup at once.
+     *
+     * @param station
+     *     The name of the station, as returned by
+     *     LibCalCalendar.getStationName().
+     *
+     * @return
+     *     The station's connection, or null if no station file is configured
+     *     or it does not list the station.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public StationConnection getStationConnection(String station)
+            throws GuacamoleException {
+        Map<String, StationConnection> stations = getSnapshot().stations;
+        return stations == null ? null : stations.get(station);
+    }
+
+    /**
+     * Returns the number of minutes before a booking's access ends at which
+     * the user is warned, through the name of each open connection.
+     *
+     * @return
+     *     The warning lead time in minutes, 5 by default, or 0 if no warning
+     *     is given.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getSessionWarningMins() throws GuacamoleException {
+        return getSnapshot().sessionWarningMins;
+    }
+
+    /**
+     * Returns the number of logins carrying a CAS ticket allowed per minute
+     * from each client address, sustained.
+     *
+     * @return
+     *     The logins per minute per address, 60 by default, or 0 if logins
+     *     are not limited by address.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getLoginRatePerIp() throws GuacamoleException {
+        return getSnapshot().loginRatePerIp;
+    }
+
+    /**
+     * Returns the number of logins carrying a CAS ticket allowed at once from
+     * each client address.
+     *
+     * @return
+     *     The burst size per address, 20 by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getLoginBurstPerIp() throws GuacamoleException {
+        return getSnapshot().loginBurstPerIp;
+    }
+
+    /**
+     * Returns the number of logins carrying a CAS ticket allowed per second
+     * from all clients together, sustained.
+     *
+     * @return
+     *     The logins per second, 100 by default, or 0 if logins are not
+     *     limited overall.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getLoginRate() throws GuacamoleException {
+        return getSnapshot().loginRate;
+    }
+
+    /**
+     * Returns the number of logins carrying a CAS ticket allowed at once from
+     * all clients together.
+     *
+     * @return
+     *     The overall burst size, 200 by default.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getLoginBurst() throws GuacamoleException {
+        return getSnapshot().loginBurst;
     }
 }
@@ -0,0 +1,742 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.conf;
+
+import java.io.File;
+import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.environment.Environment;
+import org.apache.guacamole.properties.GuacamoleProperty;
+
+/**
+ * Immutable, validated copy of every CAS and LibCal setting, read from
+ * guacamole.properties in one pass. Settings are read from the snapshot on
+ * every login rather than from the environment, so no property is parsed
+ * and no key file is read on the login path.
+ */
+class ConfigurationSnapshot {
+
+    /**
+     * The authorization endpoint (URI) of the CAS service.
+     */
+    final String authorizationEndpoint;
+
+    /**
+     * The URI to which the CAS service redirects after authentication.
+     */
+    final String redirectURI;
+
+    /**
+     * The path of the ClearPass private key file, or null if ClearPass is
+     * not configured.
+     */
+    final String clearpassKeyFile;
+
+    /**
+     * The private key used to decrypt ClearPass credentials, or null if
+     * ClearPass is not configured.
+     */
+    final PrivateKey clearpassKey;
+
+    /**
+     * The URI of the LibCal OAUTH server.
+     */
+    final String oauthServer;
+
+    /**
+     * The client id of the LibCal service.
+     */
+    final String clientId;
+
+    /**
+     * The LibCal calendars whose bookings grant access, in the order
+     * configured.
+     */
+    final List<LibCalCalendar> calendars;
+
+    /**
+     * The configured LibCal calendars, keyed by location id.
+     */
+    final Map<String, LibCalCalendar> calendarsById;
+
+    /**
+     * The client secret of the LibCal service.
+     */
+    final String clientSecret;
+
+    /**
+     * The number of minutes for session.
+     */
+    final int sessionMins;
+
+    /**
+     * The URI to which users without a valid booking are redirected.
+     */
+    final String libCalRedirectURI;
+
+    /**
+     * The maximum number of pooled HTTP connections to LibCal.
+     */
+    final int httpMaxConnections;
+
+    /**
+     * The maximum number of pooled HTTP connections to any single LibCal
+     * host.
+     */
+    final int httpMaxPerRoute;
+
+    /**
+     * The number of seconds to keep an idle LibCal connection alive.
+     */
+    final int httpKeepAliveSeconds;
+
+    /**
+     * The number of seconds after which idle LibCal connections are
+     * evicted.
+     */
+    final int httpIdleEvictSeconds;
+
+    /**
+     * The connect timeout for LibCal requests, in milliseconds.
+     */
+    final int httpConnectTimeout;
+
+    /**
+     * The read (socket) timeout for LibCal requests, in milliseconds.
+     */
+    final int httpReadTimeout;
+
+    /**
+     * The number of milliseconds a LibCal request may wait for a pooled
+     * connection.
+     */
+    final int httpPoolTimeout;
+
+    /**
+     * The number of seconds cached bookings are considered fresh.
+     */
+    final int bookingsCacheTTL;
+
+    /**
+     * The number of seconds past the TTL that cached bookings may be served
+     * while they are refreshed.
+     */
+    final int bookingsCacheStale;
+
+    /**
+     * The maximum number of calendar/date booking lists to cache.
+     */
+    final int bookingsCacheSize;
+
+    /**
+     * How bookings are obtained: "on-demand", "poll" or "push".
+     */
+    final String bookingsMode;
+
+    /**
+     * The number of seconds between background polls of bookings.
+     */
+    final int pollInterval;
+
+    /**
+     * The number of minutes before a booking starts that its user may log
+     * in.
+     */
+    final int earlyEntryMins;
+
+    /**
+     * The number of minutes after a booking ends that its user may still
+     * log in.
+     */
+    final int graceMins;
+
+    /**
+     * The LibCal booking statuses which grant access, in lower case.
+     */
+    final Set<String> acceptedStatuses;
+
+    /**
+     * The port on which metrics are served, or 0 if they are not served.
+     */
+    final int metricsPort;
+
+    /**
+     * The address on which metrics are served.
+     */
+    final String metricsAddress;
+
+    /**
+     * The number of seconds for which the result of validating a CAS ticket
+     * is remembered.
+     */
+    final int ticketCacheTTL;
+
+    /**
+     * The maximum number of validated CAS tickets to remember.
+     */
+    final int ticketCacheSize;
+
+    /**
+     * The maximum number of requests to LibCal in progress at once.
+     */
+    final int maxConcurrentRequests;
+
+    /**
+     * The maximum number of requests to LibCal which may wait for one in
+     * progress to finish.
+     */
+    final int maxQueuedRequests;
+
+    /**
+     * The number of most recent LibCal calls considered by the circuit
+     * breaker.
+     */
+    final int circuitWindow;
+
+    /**
+     * The percentage of failed LibCal calls at which the circuit opens.
+     */
+    final int circuitFailureRate;
+
+    /**
+     * The percentage of slow LibCal calls at which the circuit opens.
+     */
+    final int circuitSlowRate;
+
+    /**
+     * The number of milliseconds at or above which a LibCal call is slow.
+     */
+    final int circuitSlowCall;
+
+    /**
+     * The number of seconds the circuit breaker stays open before LibCal is
+     * tried again.
+     */
+    final int circuitOpenSeconds;
+
+    /**
+     * The age in seconds up to which the last fetched bookings are used
+     * when LibCal cannot be reached, or 0 if they are never used.
+     */
+    final int fallbackMaxAge;
+
+    /**
+     * The number of milliseconds a login may wait for CAS and LibCal.
+     */
+    final int loginTimeout;
+
+    /**
+     * Whether LibCal lookups should run on virtual threads where available.
+     */
+    final boolean virtualThreads;
+
+    /**
+     * The shared secret with which booking notifications are signed, or
+     * null if notifications are not accepted.
+     */
+    final String webhookSecret;
+
+    /**
+     * The number of seconds between full reloads of bookings when bookings
+     * are pushed.
+     */
+    final int reconcileInterval;
+
+    /**
+     * The path of the file to which cached bookings are saved, or null if
+     * bookings are not saved.
+     */
+    final String snapshotFile;
+
+    /**
+     * The number of seconds between saves of cached bookings.
+     */
+    final int snapshotInterval;
+
+    /**
+     * The path of the file mapping each station to its remote desktop, or
+     * null if stations are not mapped.
+     */
+    final String stationFile;
+
+    /**
+     * The remote desktop of each station read from the station file, keyed
+     * by station name, or null if stations are not mapped.
+     */
+    final Map<String, StationConnection> stations;
+
+    /**
+     * The number of minutes before a booking's access ends at which its
+     * user is warned.
+     */
+    final int sessionWarningMins;
+
+    /**
+     * The number of logins carrying a CAS ticket allowed per minute from each
+     * client address, or 0 if they are not limited.
+     */
+    final int loginRatePerIp;
+
+    /**
+     * The number of logins carrying a CAS ticket allowed at once from each
+     * client address.
+     */
+    final int loginBurstPerIp;
+
+    /**
+     * The number of logins carrying a CAS ticket allowed per second from all
+     * clients together, or 0 if they are not limited.
+     */
+    final int loginRate;
+
+    /**
+     * The number of logins carrying a CAS ticket allowed at once from all
+     * clients together.
+     */
+    final int loginBurst;
+
+    /**
+     * Reads and validates every setting from the given environment.
+     *
+     * @param environment
+     *     The Guacamole server environment to read settings from.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed, a required property is
+     *     missing, the ClearPass key or station file cannot be read, or a
+     *     property has an invalid value.
+     */
+    ConfigurationSnapshot(Environment environment) throws GuacamoleException {
+
+        authorizationEndpoint = environment.getRequiredProperty(
+                CASGuacamoleProperties.CAS_AUTHORIZATION_ENDPOINT);
+        redirectURI = environment.getRequiredProperty(
+                CASGuacamoleProperties.CAS_REDIRECT_URI);
+        clearpassKeyFile = environment.getProperty(
+                CASGuacamoleProperties.CAS_CLEARPASS_KEY_FILE);
+        clearpassKey = environment.getProperty(
+                CASGuacamoleProperties.CAS_CLEARPASS_KEY);
+
+        oauthServer = environment.getRequiredProperty(
+                CASGuacamoleProperties.LIBCALCAS_OAUTH_SERVER);
+        clientId = environment.getRequiredProperty(
+                CASGuacamoleProperties.LIBCALCAS_CLIENT_ID);
+        calendars = parseCalendars(environment.getRequiredProperty(
+                CASGuacamoleProperties.LIBCALCAS_CALENDAR_ID));
+        Map<String, LibCalCalendar> byId = new HashMap<String, LibCalCalendar>();
+        for (LibCalCalendar calendar : calendars)
+            byId.put(calendar.getId(), calendar);
+        calendarsById = Collections.unmodifiableMap(byId);
+        clientSecret = environment.getRequiredProperty(
+                CASGuacamoleProperties.LIBCALCAS_CLIENT_SECRET);
+        libCalRedirectURI = environment.getRequiredProperty(
+                CASGuacamoleProperties.LIBCALCAS_INVALID_URI);
+
+        String sessionMinsValue = environment.getRequiredProperty(
+                CASGuacamoleProperties.LIBCALCAS_SESSION_MINS);
+        try {
+            sessionMins = Integer.parseInt(sessionMinsValue.trim());
+        }
+        catch (NumberFormatException e) {
+            throw new GuacamoleServerException("Property \""
+                    + CASGuacamoleProperties.LIBCALCAS_SESSION_MINS.getName()
+                    + "\" must be a number of minutes, not \""
+                    + sessionMinsValue + "\".", e);
+        }
+        requirePositive(CASGuacamoleProperties.LIBCALCAS_SESSION_MINS, sessionMins);
+
+        httpMaxConnections = positive(environment,
+                CASGuacamoleProperties.LIBCALCAS_HTTP_MAX_CONNECTIONS, 20);
+        httpMaxPerRoute = positive(environment,
+                CASGuacamoleProperties.LIBCALCAS_HTTP_MAX_PER_ROUTE, 20);
+        httpKeepAliveSeconds = positive(environment,
+                CASGuacamoleProperties.LIBCALCAS_HTTP_KEEP_ALIVE_SECONDS, 30);
+        httpIdleEvictSeconds = positive(environment,
+                CASGuacamoleProperties.LIBCALCAS_HTTP_IDLE_EVICT_SECONDS, 60);
+        httpConnectTimeout = positive(environment,
+                CASGuacamoleProperties.LIBCALCAS_HTTP_CONNECT_TIMEOUT, 5000);
+        httpReadTimeout = positive(environment,
+                CASGuacamoleProperties.LIBCALCAS_HTTP_READ_TIMEOUT, 10000);
+        httpPoolTimeout = positive(environment,
+                CASGuacamoleProperties.LIBCALCAS_HTTP_POOL_TIMEOUT, 2000);
+
+        bookingsCacheTTL = positive(environment,
+                CASGuacamoleProperties.LIBCALCAS_BOOKINGS_CACHE_TTL, 60);
+        bookingsCacheStale = notNegative(environment,
+                CASGuacamoleProperties.LIBCALCAS_BOOKINGS_CACHE_STALE, 300);
+        bookingsCacheSize = positive(environment,
+                CASGuacamoleProperties.LIBCALCAS_BOOKINGS_CACHE_SIZE, 16);
+
+        bookingsMode = environment.getProperty(
+                CASGuacamoleProperties.LIBCALCAS_BOOKINGS_MODE, "on-demand").trim();
+        if (!bookingsMode.equals("on-demand") && !bookingsMode.equals("poll")
+                && !bookingsMode.equals("push"))
+            throw new GuacamoleServerException("Property \""
+                    + CASGuacamoleProperties.LIBCALCAS_BOOKINGS_MODE.getName()
+                    + "\" must be \"on-demand\", \"poll\" or \"push\", not \""
+                    + bookingsMode + "\".");
+        pollInterval = positive(environment,
+                CASGuacamoleProperties.LIBCALCAS_POLL_INTERVAL, 30);
+
+        earlyEntryMins = notNegative(environment,
+                CASGuacamoleProperties.LIBCALCAS_EARLY_ENTRY_MINS, 0);
+        graceMins = notNegative(environment,
+                CASGuacamoleProperties.LIBCALCAS_GRACE_MINS, 0);
+
+        Set<String> statuses = new LinkedHashSet<String>();
+        for (String status : environment.getProperty(
+                CASGuacamoleProperties.LIBCALCAS_ACCEPTED_STATUSES,
+                "Confirmed, Mediated Approved").split(",")) {
+            if (!status.trim().isEmpty())
+                statuses.add(status.trim().toLowerCase(Locale.ROOT));
+        }
+        acceptedStatuses = Collections.unmodifiableSet(statuses);
+
+        metricsPort = notNegative(environment,
+                CASGuacamoleProperties.LIBCALCAS_METRICS_PORT, 0);
+        if (metricsPort > 65535)
+            throw new GuacamoleServerException("Property \""
+                    + CASGuacamoleProperties.LIBCALCAS_METRICS_PORT.getName()
+                    + "\" must be a port number.");
+        metricsAddress = environment.getProperty(
+                CASGuacamoleProperties.LIBCALCAS_METRICS_ADDRESS, "127.0.0.1").trim();
+
+        ticketCacheTTL = notNegative(environment,
+                CASGuacamoleProperties.LIBCALCAS_TICKET_CACHE_TTL, 30);
+        ticketCacheSize = positive(environment,
+                CASGuacamoleProperties.LIBCALCAS_TICKET_CACHE_SIZE, 1000);
+
+        maxConcurrentRequests = positive(environment,
+                CASGuacamoleProperties.LIBCALCAS_MAX_CONCURRENT_REQUESTS, 8);
+        maxQueuedRequests = notNegative(environment,
+                CASGuacamoleProperties.LIBCALCAS_MAX_QUEUED_REQUESTS, 64);
+
+        circuitWindow = positive(environment,
+                CASGuacamoleProperties.LIBCALCAS_CIRCUIT_WINDOW, 20);
+        circuitFailureRate = percentage(environment,
+                CASGuacamoleProperties.LIBCALCAS_CIRCUIT_FAILURE_RATE, 50);
+        circuitSlowRate = percentage(environment,
+                CASGuacamoleProperties.LIBCALCAS_CIRCUIT_SLOW_RATE, 50);
+        circuitSlowCall = positive(environment,
+                CASGuacamoleProperties.LIBCALCAS_CIRCUIT_SLOW_CALL, 3000);
+        circuitOpenSeconds = positive(environment,
+                CASGuacamoleProperties.LIBCALCAS_CIRCUIT_OPEN_SECONDS, 30);
+        fallbackMaxAge = notNegative(environment,
+                CASGuacamoleProperties.LIBCALCAS_FALLBACK_MAX_AGE, 3600);
+
+        loginTimeout = positive(environment,
+                CASGuacamoleProperties.LIBCALCAS_LOGIN_TIMEOUT, 15000);
+        virtualThreads = environment.getProperty(
+                CASGuacamoleProperties.LIBCALCAS_VIRTUAL_THREADS, false);
+
+        webhookSecret = environment.getProperty(
+                CASGuacamoleProperties.LIBCALCAS_WEBHOOK_SECRET);
+        if (bookingsMode.equals("push") && webhookSecret == null)
+            throw new GuacamoleServerException("Property \""
+                    + CASGuacamoleProperties.LIBCALCAS_WEBHOOK_SECRET.getName()
+                    + "\" is required when bookings are pushed.");
+        reconcileInterval = positive(environment,
+                CASGuacamoleProperties.LIBCALCAS_RECONCILE_INTERVAL, 900);
+
+        snapshotFile = environment.getProperty(
+                CASGuacamoleProperties.LIBCALCAS_SNAPSHOT_FILE);
+        snapshotInterval = positive(environment,
+                CASGuacamoleProperties.LIBCALCAS_SNAPSHOT_INTERVAL, 60);
+
+        stationFile = environment.getProperty(
+                CASGuacamoleProperties.LIBCALCAS_STATION_FILE);
+        stations = stationFile == null ? null
+            : StationConnection.load(new File(stationFile),
+                    CASGuacamoleProperties.LIBCALCAS_STATION_FILE.getName());
+
+        sessionWarningMins = notNegative(environment,
+                CASGuacamoleProperties.LIBCALCAS_SESSION_WARNING_MINS, 5);
+
+        loginRatePerIp = notNegative(environment,
+                CASGuacamoleProperties.LIBCALCAS_LOGIN_RATE_PER_IP, 60);
+        loginBurstPerIp = positive(environment,
+                CASGuacamoleProperties.LIBCALCAS_LOGIN_BURST_PER_IP, 20);
+        loginRate = notNegative(environment,
+                CASGuacamoleProperties.LIBCALCAS_LOGIN_RATE, 100);
+        loginBurst = positive(environment,
+                CASGuacamoleProperties.LIBCALCAS_LOGIN_BURST, 200);
+
+    }
+
+    /**
+     * Returns the names of the properties which differ from the given
+     * settings but are applied only at startup, when the services using
+     * them are created, so that a reload changing them can be reported.
+     *
+     * @param previous
+     *     The settings in use before these.
+     *
+     * @return
+     *     The names of the properties changed which take effect only after
+     *     a restart, in the order they are documented.
+     */
+    List<String> getRestartOnlyChanges(ConfigurationSnapshot previous) {
+        List<String> changes = new ArrayList<String>();
+        changed(changes, CASGuacamoleProperties.LIBCALCAS_HTTP_MAX_CONNECTIONS,
+                previous.httpMaxConnections, httpMaxConnections);
+        changed(changes, CASGuacamoleProperties.LIBCALCAS_HTTP_MAX_PER_ROUTE,
+                previous.httpMaxPerRoute, httpMaxPerRoute);
+        changed(changes, CASGuacamoleProperties.LIBCALCAS_HTTP_KEEP_ALIVE_SECONDS,
+                previous.httpKeepAliveSeconds, httpKeepAliveSeconds);
+        changed(changes, CASGuacamoleProperties.LIBCALCAS_HTTP_IDLE_EVICT_SECONDS,
+                previous.httpIdleEvictSeconds, httpIdleEvictSeconds);
+        changed(changes, CASGuacamoleProperties.LIBCALCAS_HTTP_CONNECT_TIMEOUT,
+                previous.httpConnectTimeout, httpConnectTimeout);
+        changed(changes, CASGuacamoleProperties.LIBCALCAS_HTTP_READ_TIMEOUT,
+                previous.httpReadTimeout, httpReadTimeout);
+        changed(changes, CASGuacamoleProperties.LIBCALCAS_HTTP_POOL_TIMEOUT,
+                previous.httpPoolTimeout, httpPoolTimeout);
+        changed(changes, CASGuacamoleProperties.LIBCALCAS_MAX_CONCURRENT_REQUESTS,
+                previous.maxConcurrentRequests, maxConcurrentRequests);
+        changed(changes, CASGuacamoleProperties.LIBCALCAS_MAX_QUEUED_REQUESTS,
+                previous.maxQueuedRequests, maxQueuedRequests);
+        changed(changes, CASGuacamoleProperties.LIBCALCAS_CIRCUIT_WINDOW,
+                previous.circuitWindow, circuitWindow);
+        changed(changes, CASGuacamoleProperties.LIBCALCAS_CIRCUIT_FAILURE_RATE,
+                previous.circuitFailureRate, circuitFailureRate);
+        changed(changes, CASGuacamoleProperties.LIBCALCAS_CIRCUIT_SLOW_RATE,
+                previous.circuitSlowRate, circuitSlowRate);
+        changed(changes, CASGuacamoleProperties.LIBCALCAS_CIRCUIT_SLOW_CALL,
+                previous.circuitSlowCall, circuitSlowCall);
+        changed(changes, CASGuacamoleProperties.LIBCALCAS_CIRCUIT_OPEN_SECONDS,
+                previous.circuitOpenSeconds, circuitOpenSeconds);
+        changed(changes, CASGuacamoleProperties.LIBCALCAS_VIRTUAL_THREADS,
+                previous.virtualThreads, virtualThreads);
+        changed(changes, CASGuacamoleProperties.LIBCALCAS_BOOKINGS_MODE,
+                previous.bookingsMode, bookingsMode);
+        changed(changes, CASGuacamoleProperties.LIBCALCAS_SNAPSHOT_FILE,
+                previous.snapshotFile, snapshotFile);
+        changed(changes, CASGuacamoleProperties.LIBCALCAS_SNAPSHOT_INTERVAL,
+                previous.snapshotInterval, snapshotInterval);
+        changed(changes, CASGuacamoleProperties.LIBCALCAS_METRICS_PORT,
+                previous.metricsPort, metricsPort);
+        changed(changes, CASGuacamoleProperties.LIBCALCAS_METRICS_ADDRESS,
+                previous.metricsAddress, metricsAddress);
+        changed(changes, CASGuacamoleProperties.LIBCALCAS_LOGIN_RATE_PER_IP,
+                previous.loginRatePerIp, loginRatePerIp);
+        changed(changes, CASGuacamoleProperties.LIBCALCAS_LOGIN_BURST_PER_IP,
+                previous.loginBurstPerIp, loginBurstPerIp);
+        changed(changes, CASGuacamoleProperties.LIBCALCAS_LOGIN_RATE,
+                previous.loginRate, loginRate);
+        changed(changes, CASGuacamoleProperties.LIBCALCAS_LOGIN_BURST,
+                previous.loginBurst, loginBurst);
+        return changes;
+    }
+
+    /**
+     * Adds the name of the given property to the given list if its value
+     * has changed.
+     *
+     * @param changes
+     *     The names of the properties changed so far.
+     *
+     * @param property
+     *     The property compared.
+     *
+     * @param previous
+     *     The previous value of the property, possibly null.
+     *
+     * @param current
+     *     The current value of the property, possibly null.
+     */
+    private static void changed(List<String> changes,
+            GuacamoleProperty<?> property, Object previous, Object current) {
+        if (previous == null ? current != null : !previous.equals(current))
+            changes.add(property.getName());
+    }
+
+    /**
+     * Parses the list of calendars in the libcalcas-calendar-id property.
+     * Calendars are separated by commas, and each is a LibCal location id
+     * optionally followed by a colon and its session length in minutes, and
+     * by another colon and its group, such as "1234, 5678:90:lab2". The
+     * session length may be left empty to give only a group.
+     *
+     * @param value
+     *     The value of the property.
+     *
+     * @return
+     *     The calendars, in the order listed.
+     *
+     * @throws GuacamoleException
+     *     If the list is empty, or a calendar is listed twice or cannot be
+     *     parsed.
+     */
+    private static List<LibCalCalendar> parseCalendars(String value)
+            throws GuacamoleException {
+
+        String name = CASGuacamoleProperties.LIBCALCAS_CALENDAR_ID.getName();
+        List<LibCalCalendar> parsed = new ArrayList<LibCalCalendar>();
+        Set<String> ids = new LinkedHashSet<String>();
+
+        for (String item : value.split(",")) {
+
+            String[] parts = item.trim().split(":", -1);
+            String id = parts[0].trim();
+            if (id.isEmpty() || parts.length > 3)
+                throw new GuacamoleServerException("Property \"" + name
+                        + "\" must list calendars as lid[:session-mins[:group]], "
+                        + "not \"" + item.trim() + "\".");
+
+            int sessionMins = 0;
+            if (parts.length > 1 && !parts[1].trim().isEmpty()) {
+                try {
+                    sessionMins = Integer.parseInt(parts[1].trim());
+                }
+                catch (NumberFormatException e) {
+                    throw new GuacamoleServerException("Property \"" + name
+                            + "\" must give session lengths in minutes, not \""
+                            + parts[1].trim() + "\".", e);
+                }
+                if (sessionMins <= 0)
+                    throw new GuacamoleServerException("Property \"" + name
+                            + "\" must give session lengths greater than zero.");
+            }
+
+            String group = parts.length > 2 ? parts[2].trim() : "";
+            if (!ids.add(id))
+                throw new GuacamoleServerException("Property \"" + name
+                        + "\" lists calendar \"" + id + "\" more than once.");
+
+            parsed.add(new LibCalCalendar(id, sessionMins,
+                    group.isEmpty() ? null : group));
+
+        }
+
+        return Collections.unmodifiableList(parsed);
+
+    }
+
+    /**
+     * Reads an integer property which must be greater than zero.
+     *
+     * @param environment
+     *     The environment to read from.
+     *
+     * @param property
+     *     The property to read.
+     *
+     * @param defaultValue
+     *     The value to use if the property is not set.
+     *
+     * @return
+     *     The value of the property.
+     *
+     * @throws GuacamoleException
+     *     If the property cannot be parsed or is not greater than zero.
+     */
+    private static int positive(Environment environment,
+            GuacamoleProperty<Integer> property, int defaultValue)
+            throws GuacamoleException {
+        int value = environment.getProperty(property, defaultValue);
+        requirePositive(property, value);
+        return value;
+    }
+
+    /**
+     * Reads an integer property which must not be negative.
+     *
+     * @param environment
+     *     The environment to read from.
+     *
+     * @param property
+     *     The property to read.
+     *
+     * @param defaultValue
+     *     The value to use if the property is not set.
+     *
+     * @return
+     *     The value of the property.
+     *
+     * @throws GuacamoleException
+     *     If the property cannot be parsed or is negative.
+     */
+    private static int notNegative(Environment environment,
+            GuacamoleProperty<Integer> property, int defaultValue)
+            throws GuacamoleException {
+        int value = environment.getProperty(property, defaultValue);
+        if (value < 0)
+            throw new GuacamoleServerException("Property \""
+                    + property.getName() + "\" must not be negative.");
+        return value;
+    }
+
+    /**
+     * Reads an integer property which must be a percentage from 1 to 100.
+     *
+     * @param environment
+     *     The environment to read from.
+     *
+     * @param property
+     *     The property to read.
+     *
+     * @param defaultValue
+     *     The value to use if the property is not set.
+     *
+     * @return
+     *     The value of the property.
+     *
+     * @throws GuacamoleException
+     *     If the property cannot be parsed or is not from 1 to 100.
+     */
+    private static int percentage(Environment environment,
+            GuacamoleProperty<Integer> property, int defaultValue)
+            throws GuacamoleException {
+        int value = environment.getProperty(property, defaultValue);
+        if (value < 1 || value > 100)
+            throw new GuacamoleServerException("Property \""
+                    + property.getName() + "\" must be a percentage from 1 to 100.");
+        return value;
+    }
+
+    /**
+     * Verifies that the value of the given property is greater than zero.
+     *
+     * @param property
+     *     The property whose value is being checked.
+     *
+     * @param value
+     *     The value to check.
+     *
+     * @throws GuacamoleServerException
+     *     If the value is not greater than zero.
+     */
+    private static void requirePositive(GuacamoleProperty<?> property,
+            int value) throws GuacamoleServerException {
+        if (value <= 0)
+            throw new GuacamoleServerException("Property \""
+                    + property.getName() + "\" must be greater than zero.");
+    }
+
+}
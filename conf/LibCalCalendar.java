@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.conf;
+
+/**
+ * A LibCal calendar from which bookings are read, as listed in the
+ * libcalcas-calendar-id property. Each calendar may override the default
+ * session length, and may name a group which is prefixed to the usernames
+ * of its stations in user-mapping.xml.
+ */
+public class LibCalCalendar {
+
+    /**
+     * The LibCal location (lid) of the calendar.
+     */
+    private final String id;
+
+    /**
+     * The length of bookings without an end, in minutes, or 0 to use the
+     * default session length.
+     */
+    private final int sessionMins;
+
+    /**
+     * The group of the calendar's stations, or null if none.
+     */
+    private final String group;
+
+    /**
+     * Creates a new LibCalCalendar.
+     *
+     * @param id
+     *     The LibCal location (lid) of the calendar.
+     *
+     * @param sessionMins
+     *     The length of bookings without an end, in minutes, or 0 to use the
+     *     default session length.
+     *
+     * @param group
+     *     The group of the calendar's stations, or null if none.
+     */
+    public LibCalCalendar(String id, int sessionMins, String group) {
+        this.id = id;
+        this.sessionMins = sessionMins;
+        this.group = group;
+    }
+
+    /**
+     * Returns the LibCal location (lid) of the calendar.
+     *
+     * @return
+     *     The calendar id.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Returns the length of this calendar's bookings which have no end.
+     *
+     * @return
+     *     The session length in minutes, or 0 if the default applies.
+     */
+    public int getSessionMins() {
+        return sessionMins;
+    }
+
+    /**
+     * Returns the group of this calendar's stations.
+     *
+     * @return
+     *     The group, or null if none.
+     */
+    public String getGroup() {
+        return group;
+    }
+
+    /**
+     * Returns the name under which the given station of this calendar is
+     * listed in user-mapping.xml: its LibCal id, prefixed with the group
+     * and a slash if the calendar has a group.
+     *
+     * @param eid
+     *     The LibCal id of the station.
+     *
+     * @return
+     *     The username of the station.
+     */
+    public String getStationName(int eid) {
+        if (group == null)
+            return Integer.toString(eid);
+        return group + "/" + eid;
+    }
+
+    @Override
+    public String toString() {
+        return id;
+    }
+
+}
@@ -0,0 +1,250 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.conf;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.protocol.GuacamoleConfiguration;
+
+/**
+ * The remote desktop to which a station's bookings grant access, as listed
+ * in the file named by the libcalcas-station-file property. The file is a
+ * properties file whose keys are a station name, a dot, and a parameter
+ * name, such as "lab2/1234.hostname = pc12.example.org". Keys beginning
+ * "*." give defaults shared by every station. The "protocol" parameter
+ * defaults to "rdp", the "name" parameter gives the name shown to the user,
+ * and every station must have a "hostname".
+ */
+public class StationConnection {
+
+    /**
+     * The prefix of keys giving defaults shared by every station.
+     */
+    private static final String DEFAULTS = "*";
+
+    /**
+     * The parameter giving the name of the connection.
+     */
+    private static final String NAME = "name";
+
+    /**
+     * The parameter giving the protocol of the connection.
+     */
+    private static final String PROTOCOL = "protocol";
+
+    /**
+     * The parameter giving the host of the remote desktop.
+     */
+    private static final String HOSTNAME = "hostname";
+
+    /**
+     * The name of the station, as returned by
+     * LibCalCalendar.getStationName().
+     */
+    private final String station;
+
+    /**
+     * The name of the connection shown to the user.
+     */
+    private final String name;
+
+    /**
+     * The protocol of the connection.
+     */
+    private final String protocol;
+
+    /**
+     * The parameters of the connection, excluding its name and protocol.
+     */
+    private final Map<String, String> parameters;
+
+    /**
+     * Creates a new StationConnection.
+     *
+     * @param station
+     *     The name of the station.
+     *
+     * @param name
+     *     The name of the connection shown to the user.
+     *
+     * @param protocol
+     *     The protocol of the connection.
+     *
+     * @param parameters
+     *     The parameters of the connection, which must not be modified
+     *     afterwards.
+     */
+    private StationConnection(String station, String name, String protocol,
+            Map<String, String> parameters) {
+        this.station = station;
+        this.name = name;
+        this.protocol = protocol;
+        this.parameters = Collections.unmodifiableMap(parameters);
+    }
+
+    /**
+     * Returns the name of the station.
+     *
+     * @return
+     *     The station name.
+     */
+    public String getStation() {
+        return station;
+    }
+
+    /**
+     * Returns the identifier of the station's connection: the station name
+     * with the slash after any group replaced by a colon. Identifiers appear
+     * in REST API paths, where an encoded slash is refused by most servlet
+     * containers, and a group cannot itself contain a colon, so no two
+     * stations share an identifier.
+     *
+     * @return
+     *     The connection identifier.
+     */
+    public String getIdentifier() {
+        return station.replace('/', ':');
+    }
+
+    /**
+     * Returns the name of the connection shown to the user.
+     *
+     * @return
+     *     The connection name, the station name unless the file gives one.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns a new configuration for connecting to this station's remote
+     * desktop. Each call returns a separate copy which the caller may
+     * modify.
+     *
+     * @return
+     *     The configuration of the connection.
+     */
+    public GuacamoleConfiguration getConfiguration() {
+        GuacamoleConfiguration config = new GuacamoleConfiguration();
+        config.setProtocol(protocol);
+        config.setParameters(parameters);
+        return config;
+    }
+
+    /**
+     * Reads every station from the given file.
+     *
+     * @param file
+     *     The file to read.
+     *
+     * @param property
+     *     The name of the property naming the file, for error messages.
+     *
+     * @return
+     *     An unmodifiable map of every station's connection, keyed by
+     *     station name.
+     *
+     * @throws GuacamoleException
+     *     If the file cannot be read, or a station has no hostname.
+     */
+    static Map<String, StationConnection> load(File file, String property)
+            throws GuacamoleException {
+
+        Properties properties = new Properties();
+        try (InputStream input = new FileInputStream(file);
+                Reader reader = new InputStreamReader(input, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException("Unable to read the file \""
+                    + file + "\" named by property \"" + property + "\".", e);
+        }
+
+        // Group parameters by station, splitting at the last dot since
+        // station names may contain dots but parameter names do not
+        Map<String, String> defaults = new HashMap<String, String>();
+        Map<String, Map<String, String>> stations =
+                new HashMap<String, Map<String, String>>();
+        for (String key : properties.stringPropertyNames()) {
+
+            int dot = key.lastIndexOf('.');
+            if (dot <= 0 || dot == key.length() - 1)
+                throw new GuacamoleServerException("The file \"" + file
+                        + "\" must give keys as station.parameter, not \""
+                        + key + "\".");
+
+            String station = key.substring(0, dot);
+            Map<String, String> parameters;
+            if (station.equals(DEFAULTS))
+                parameters = defaults;
+            else {
+                parameters = stations.get(station);
+                if (parameters == null) {
+                    parameters = new HashMap<String, String>();
+                    stations.put(station, parameters);
+                }
+            }
+            parameters.put(key.substring(dot + 1), properties.getProperty(key).trim());
+
+        }
+
+        Map<String, StationConnection> connections =
+                new HashMap<String, StationConnection>(stations.size() * 2);
+        for (Map.Entry<String, Map<String, String>> entry : stations.entrySet()) {
+
+            String station = entry.getKey();
+            Map<String, String> parameters = new HashMap<String, String>(defaults);
+            parameters.putAll(entry.getValue());
+
+            String name = parameters.remove(NAME);
+            String protocol = parameters.remove(PROTOCOL);
+            String hostname = parameters.get(HOSTNAME);
+            if (hostname == null || hostname.isEmpty())
+                throw new GuacamoleServerException("The file \"" + file
+                        + "\" gives no hostname for station \"" + station + "\".");
+
+            connections.put(station, new StationConnection(station,
+                    name == null || name.isEmpty() ? station : name,
+                    protocol == null || protocol.isEmpty() ? "rdp" : protocol,
+                    parameters));
+
+        }
+
+        return Collections.unmodifiableMap(connections);
+
+    }
+
+    @Override
+    public String toString() {
+        return station;
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.libcal;
+
+/**
+ * An OAuth access token issued by LibCal, along with the times at which it
+ * should be refreshed and at which it stops being usable.
+ */
+public class AccessToken {
+
+    /**
+     * Fraction of the token lifetime after which a background refresh is
+     * started.
+     */
+    private static final double REFRESH_FRACTION = 0.8;
+
+    /**
+     * Number of milliseconds before the advertised expiry at which the token
+     * is no longer handed out, allowing for clock skew and request latency.
+     */
+    private static final long EXPIRY_SKEW = 30000;
+
+    /**
+     * The bearer token value.
+     */
+    private final String value;
+
+    /**
+     * The time at which the token was issued, in milliseconds since the
+     * epoch.
+     */
+    private final long issuedAt;
+
+    /**
+     * The time after which a background refresh should be started, in
+     * milliseconds since the epoch.
+     */
+    private final long refreshAt;
+
+    /**
+     * The time after which the token must not be used, in milliseconds since
+     * the epoch.
+     */
+    private final long expiresAt;
+
+    /**
+     * Creates a new AccessToken.
+     *
+     * @param value
+     *     The bearer token value.
+     *
+     * @param issuedAt
+     *     The time at which the token was issued, in milliseconds since the
+     *     epoch.
+     *
+     * @param expiresIn
+     *     The lifetime of the token in seconds, as returned by LibCal.
+     */
+    public AccessToken(String value, long issuedAt, long expiresIn) {
+        long lifetime = Math.max(0, expiresIn * 1000 - EXPIRY_SKEW);
+        this.value = value;
+        this.issuedAt = issuedAt;
+        this.refreshAt = issuedAt + (long) (lifetime * REFRESH_FRACTION);
+        this.expiresAt = issuedAt + lifetime;
+    }
+
+    /**
+     * Returns the bearer token value.
+     *
+     * @return
+     *     The bearer token value.
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Returns the time at which the token was issued.
+     *
+     * @return
+     *     The issue time, in milliseconds since the epoch.
+     */
+    public long getIssuedAt() {
+        return issuedAt;
+    }
+
+    /**
+     * Returns the time after which the token must not be used.
+     *
+     * @return
+     *     The expiry time, in milliseconds since the epoch.
+     */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * Returns whether the token can no longer be used at the given time.
+     *
+     * @param now
+     *     The current time, in milliseconds since the epoch.
+     *
+     * @return
+     *     true if the token has expired, false otherwise.
+     */
+    public boolean isExpired(long now) {
+        return now >= expiresAt;
+    }
+
+    /**
+     * Returns whether the token is close enough to expiry that a
+     * replacement should be fetched in the background.
+     *
+     * @param now
+     *     The current time, in milliseconds since the epoch.
+     *
+     * @return
+     *     true if a refresh is due, false otherwise.
+     */
+    public boolean isRefreshDue(long now) {
+        return now >= refreshAt;
+    }
+
+}
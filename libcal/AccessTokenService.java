@@ -0,0 +1,346 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.libcal;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import io.micrometer.core.instrument.Timer;
+import java.io.IOException;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.auth.cas.conf.ConfigurationService;
+import org.apache.guacamole.auth.cas.metrics.MetricsService;
+import org.apache.guacamole.auth.cas.util.SingleFlight;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.message.BasicNameValuePair;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Service which obtains and caches the OAuth access token used for LibCal
+ * API calls. The token is refreshed in the background before it expires, so
+ * logins only wait on the token endpoint when no usable token is cached.
+ * Concurrent requests for a new token share a single call to LibCal.
+ */
+@Singleton
+public class AccessTokenService {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(AccessTokenService.class);
+
+    /**
+     * Lifetime assumed for tokens whose response omits expires_in, in
+     * seconds.
+     */
+    private static final long DEFAULT_EXPIRES_IN = 3600;
+
+    /**
+     * The key under which token requests are coalesced. There is only ever
+     * one token.
+     */
+    private static final String TOKEN_KEY = "token";
+
+    /**
+     * Service for retrieving CAS and LibCal configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Shared HTTP client for LibCal API calls.
+     */
+    @Inject
+    private LibCalHttpClient httpClient;
+
+    /**
+     * Service recording the duration of token requests.
+     */
+    @Inject
+    private MetricsService metricsService;
+
+    /**
+     * The clock against which token expiry is measured.
+     */
+    @Inject
+    private Clock clock;
+
+    /**
+     * The most recently obtained token, or null if none is cached.
+     */
+    private final AtomicReference<AccessToken> current =
+            new AtomicReference<AccessToken>();
+
+    /**
+     * Whether a background refresh is currently running.
+     */
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    /**
+     * Token requests currently in progress.
+     */
+    private final SingleFlight<String, AccessToken> tokenFlights =
+            new SingleFlight<String, AccessToken>();
+
+    /**
+     * Executor running background refreshes.
+     */
+    private final ExecutorService refresher = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "libcal-token-refresh");
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    });
+
+    /**
+     * Returns a usable access token. If the cached token is valid it is
+     * returned immediately, starting a background refresh if it is close to
+     * expiry. Otherwise a new token is fetched, with concurrent requests
+     * sharing a single fetch.
+     *
+     * @return
+     *     A bearer token for the LibCal API.
+     *
+     * @throws IOException
+     *     If no valid token is cached and a new one cannot be obtained.
+     *
+     * @throws GuacamoleException
+     *     If the LibCal configuration cannot be read.
+     */
+    public String getAccessToken() throws IOException, GuacamoleException {
+
+        AccessToken token = current.get();
+        long now = clock.millis();
+
+        if (token != null && !token.isExpired(now)) {
+            if (token.isRefreshDue(now))
+                refreshInBackground();
+            return token.getValue();
+        }
+
+        return fetchIfStale(token).getValue();
+
+    }
+
+    /**
+     * Starts fetching a token in the background unless one is cached, so
+     * that the first login after startup does not wait for it.
+     */
+    public void prefetch() {
+        if (current.get() == null)
+            refreshInBackground();
+    }
+
+    /**
+     * Discards the given token, if it is still the cached token, so that the
+     * next call to getAccessToken() fetches a new one. This should be called
+     * when LibCal rejects the token with a 401.
+     *
+     * @param value
+     *     The token value that was rejected.
+     */
+    public void invalidate(String value) {
+        AccessToken token = current.get();
+        if (token != null && token.getValue().equals(value))
+            current.compareAndSet(token, null);
+    }
+
+    /**
+     * Returns the currently cached token, without fetching.
+     *
+     * @return
+     *     The cached token, or null if none is cached.
+     */
+    public AccessToken getCachedToken() {
+        return current.get();
+    }
+
+    /**
+     * Fetches a new token unless another thread has already replaced the
+     * given stale token. If a fetch is already in progress, its result is
+     * awaited and shared instead.
+     *
+     * @param stale
+     *     The token observed to be missing or expired, possibly null.
+     *
+     * @return
+     *     A valid token.
+     *
+     * @throws IOException
+     *     If the token endpoint cannot be reached or returns an error.
+     *
+     * @throws GuacamoleException
+     *     If the LibCal configuration cannot be read.
+     */
+    private AccessToken fetchIfStale(final AccessToken stale)
+            throws IOException, GuacamoleException {
+
+        return LibCalFutures.get(tokenFlights.execute(TOKEN_KEY,
+                new Callable<AccessToken>() {
+
+            @Override
+            public AccessToken call() throws IOException, GuacamoleException {
+
+                AccessToken token = current.get();
+                if (token != stale && token != null
+                        && !token.isExpired(clock.millis()))
+                    return token;
+
+                return fetchAndStore();
+
+            }
+
+        }));
+
+    }
+
+    /**
+     * Fetches a new token and makes it the cached token.
+     *
+     * @return
+     *     The newly issued token.
+     *
+     * @throws IOException
+     *     If the token endpoint cannot be reached or returns an error.
+     *
+     * @throws GuacamoleException
+     *     If the LibCal configuration cannot be read.
+     */
+    private AccessToken fetchAndStore() throws IOException, GuacamoleException {
+        AccessToken token = fetch();
+        current.set(token);
+        return token;
+    }
+
+    /**
+     * Starts a background refresh of the token unless one is already
+     * running. Requests continue to use the current token meanwhile.
+     */
+    private void refreshInBackground() {
+
+        if (!refreshing.compareAndSet(false, true))
+            return;
+
+        refresher.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                CompletableFuture<AccessToken> refresh = tokenFlights.execute(
+                        TOKEN_KEY, new Callable<AccessToken>() {
+
+                    @Override
+                    public AccessToken call() throws IOException, GuacamoleException {
+                        return fetchAndStore();
+                    }
+
+                });
+
+                try {
+                    refresh.get();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                catch (ExecutionException e) {
+                    // The current token remains in use until it expires
+                    logger.warn("Unable to refresh the LibCal access token: {}",
+                            e.getCause().getMessage());
+                    logger.debug("Refreshing the access token failed.", e.getCause());
+                }
+                finally {
+                    refreshing.set(false);
+                }
+            }
+
+        });
+
+    }
+
+    /**
+     * Requests a new token from the LibCal token endpoint using the
+     * client_credentials grant.
+     *
+     * @return
+     *     The newly issued token.
+     *
+     * @throws IOException
+     *     If the token endpoint cannot be reached, returns an error, or
+     *     returns a response without an access token.
+     *
+     * @throws GuacamoleException
+     *     If the LibCal configuration cannot be read.
+     */
+    private AccessToken fetch() throws IOException, GuacamoleException {
+
+        List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>();
+        nameValuePairs.add(new BasicNameValuePair("client_id", confService.getClientId()));
+        nameValuePairs.add(new BasicNameValuePair("client_secret", confService.getClientSecret()));
+        nameValuePairs.add(new BasicNameValuePair("grant_type", "client_credentials"));
+
+        HttpPost post = new HttpPost(confService.getOauthServer() + "/oauth/token");
+        post.setEntity(new UrlEncodedFormEntity(nameValuePairs));
+
+        long issuedAt = clock.millis();
+        Timer.Sample sample = metricsService.startTimer();
+        boolean success = false;
+        try {
+            JSONObject obj = new JSONObject(httpClient.executeForString(post));
+            AccessToken token = new AccessToken(obj.getString("access_token"),
+                    issuedAt, obj.optLong("expires_in", DEFAULT_EXPIRES_IN));
+            success = true;
+            return token;
+        }
+        catch (JSONException e) {
+            throw new IOException("Unexpected LibCal token response.", e);
+        }
+        finally {
+            metricsService.recordLibCalCall(sample, "token", success);
+        }
+
+    }
+
+    /**
+     * Stops the background refresh thread.
+     */
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
+
+}
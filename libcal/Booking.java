@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.libcal;
+
+/**
+ * A single LibCal space booking, reduced to the fields needed to decide
+ * whether a user may log in.
+ */
+public class Booking {
+
+    /**
+     * The email address of the patron who made the booking.
+     */
+    private final String email;
+
+    /**
+     * The start of the booking, as returned by LibCal.
+     */
+    private final String fromDate;
+
+    /**
+     * The start of the booking, in milliseconds since the epoch.
+     */
+    private final long start;
+
+    /**
+     * The end of the booking, as returned by LibCal, or null if absent.
+     */
+    private final String toDate;
+
+    /**
+     * The end of the booking, in milliseconds since the epoch, or -1 if
+     * LibCal did not provide one.
+     */
+    private final long end;
+
+    /**
+     * The LibCal id of the booked station.
+     */
+    private final int eid;
+
+    /**
+     * The status of the booking, as returned by LibCal but in lower case, or
+     * null if absent.
+     */
+    private final String status;
+
+    /**
+     * The LibCal location (lid) of the calendar holding the booking, or null
+     * if unknown.
+     */
+    private final String calendarId;
+
+    /**
+     * Creates a new Booking.
+     *
+     * @param email
+     *     The email address of the patron who made the booking.
+     *
+     * @param fromDate
+     *     The start of the booking, as returned by LibCal.
+     *
+     * @param start
+     *     The start of the booking, in milliseconds since the epoch.
+     *
+     * @param toDate
+     *     The end of the booking, as returned by LibCal, or null if absent.
+     *
+     * @param end
+     *     The end of the booking, in milliseconds since the epoch, or -1 if
+     *     absent.
+     *
+     * @param eid
+     *     The LibCal id of the booked station.
+     *
+     * @param status
+     *     The status of the booking, as returned by LibCal but in lower
+     *     case, or null if absent.
+     */
+    public Booking(String email, String fromDate, long start, String toDate,
+            long end, int eid, String status) {
+        this(email, fromDate, start, toDate, end, eid, status, null);
+    }
+
+    /**
+     * Creates a new Booking held in the given calendar.
+     *
+     * @param email
+     *     The email address of the patron who made the booking.
+     *
+     * @param fromDate
+     *     The start of the booking, as returned by LibCal.
+     *
+     * @param start
+     *     The start of the booking, in milliseconds since the epoch.
+     *
+     * @param toDate
+     *     The end of the booking, as returned by LibCal, or null if absent.
+     *
+     * @param end
+     *     The end of the booking, in milliseconds since the epoch, or -1 if
+     *     absent.
+     *
+     * @param eid
+     *     The LibCal id of the booked station.
+     *
+     * @param status
+     *     The status of the booking, as returned by LibCal but in lower
+     *     case, or null if absent.
+     *
+     * @param calendarId
+     *     The LibCal location (lid) of the calendar holding the booking, or
+     *     null if unknown.
+     */
+    public Booking(String email, String fromDate, long start, String toDate,
+            long end, int eid, String status, String calendarId) {
+        this.email = email;
+        this.fromDate = fromDate;
+        this.start = start;
+        this.toDate = toDate;
+        this.end = end;
+        this.eid = eid;
+        this.status = status;
+        this.calendarId = calendarId;
+    }
+
+    /**
+     * Returns the email address of the patron who made the booking.
+     *
+     * @return
+     *     The patron's email address.
+     */
+    public String getEmail() {
+        return email;
+    }
+
+    /**
+     * Returns the start of the booking as returned by LibCal.
+     *
+     * @return
+     *     The start of the booking, in ISO-8601 format.
+     */
+    public String getFromDate() {
+        return fromDate;
+    }
+
+    /**
+     * Returns the start of the booking.
+     *
+     * @return
+     *     The start of the booking, in milliseconds since the epoch.
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * Returns the end of the booking as returned by LibCal.
+     *
+     * @return
+     *     The end of the booking, in ISO-8601 format, or null if absent.
+     */
+    public String getToDate() {
+        return toDate;
+    }
+
+    /**
+     * Returns the end of the booking.
+     *
+     * @return
+     *     The end of the booking, in milliseconds since the epoch, or -1 if
+     *     LibCal did not provide one.
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * Returns the LibCal id of the booked station.
+     *
+     * @return
+     *     The station id.
+     */
+    public int getEid() {
+        return eid;
+    }
+
+    /**
+     * Returns the status of the booking as returned by LibCal, in lower case
+     * so that it can be compared with the accepted statuses directly.
+     *
+     * @return
+     *     The booking status, such as "confirmed", or null if absent.
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the LibCal location of the calendar holding the booking.
+     *
+     * @return
+     *     The calendar id, or null if unknown.
+     */
+    public String getCalendarId() {
+        return calendarId;
+    }
+
+}
@@ -0,0 +1,767 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.libcal;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.time.Clock;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.auth.cas.conf.ConfigurationService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory cache of indexed LibCal bookings, keyed by calendar and date. Fresh
+ * entries are served directly, stale entries are served while a single
+ * background fetch revalidates them, and concurrent misses for the same key
+ * share one upstream fetch. Lookups return futures, so that callers can get
+ * on with other work while bookings are fetched. Entries are kept beyond
+ * their staleness bound so that they can be used as a last resort while
+ * LibCal cannot be reached. Booking notifications update cached entries in
+ * place, and are replayed onto fetches which may have missed them.
+ * Listeners are told of every change, so that access granted from bookings
+ * since cancelled can be withdrawn.
+ */
+@Singleton
+public class BookingCache {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(BookingCache.class);
+
+    /**
+     * Minimum age, in milliseconds, an entry must reach before a forced
+     * refresh fetches it again. This keeps a burst of users without bookings
+     * from each triggering an upstream fetch.
+     */
+    private static final long FORCED_REFRESH_INTERVAL = 5000;
+
+    /**
+     * The number of milliseconds for which booking notifications are kept,
+     * to be replayed onto fetched bookings which may predate them. This must
+     * exceed the longest a fetch can take.
+     */
+    private static final long JOURNAL_AGE = 120000;
+
+    /**
+     * Service for retrieving CAS and LibCal configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Service for retrieving LibCal bookings.
+     */
+    @Inject
+    private LibCalService libCalService;
+
+    /**
+     * The clock against which entry ages are measured.
+     */
+    @Inject
+    private Clock clock;
+
+    /**
+     * All cached entries.
+     */
+    private final ConcurrentMap<BookingKey, Entry> entries =
+            new ConcurrentHashMap<BookingKey, Entry>();
+
+    /**
+     * Keys with a background revalidation queued or running.
+     */
+    private final Set<BookingKey> revalidating =
+            Collections.newSetFromMap(new ConcurrentHashMap<BookingKey, Boolean>());
+
+    /**
+     * Recent booking notifications, oldest first. Updates to entries and
+     * replays onto fetched bookings are made while holding its lock, so that
+     * no notification is lost to a fetch completing at the same moment.
+     */
+    private final Deque<Update> journal = new ArrayDeque<Update>();
+
+    /**
+     * The number of times entries were stored or updated, so that savers can
+     * tell whether anything changed.
+     */
+    private final AtomicLong changes = new AtomicLong();
+
+    /**
+     * The listeners notified whenever cached bookings change.
+     */
+    private final List<BookingListener> listeners =
+            new CopyOnWriteArrayList<BookingListener>();
+
+    /**
+     * The number of requests served from a fresh entry.
+     */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * The number of requests served from a stale entry.
+     */
+    private final LongAdder staleHits = new LongAdder();
+
+    /**
+     * The number of requests which waited on a fetch from LibCal.
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * The number of requests served from the last fetched bookings because
+     * LibCal could not be reached.
+     */
+    private final LongAdder fallbacks = new LongAdder();
+
+    /**
+     * A cached list of bookings and the time it was fetched.
+     */
+    static class Entry {
+
+        /**
+         * The index of the bookings returned by LibCal.
+         */
+        private final BookingIndex bookings;
+
+        /**
+         * The time the bookings were fetched, in milliseconds since the
+         * epoch.
+         */
+        private final long fetchedAt;
+
+        /**
+         * The number of milliseconds after fetchedAt for which the entry is
+         * fresh.
+         */
+        private final long ttl;
+
+        /**
+         * The time the entry was last read, in milliseconds since the epoch.
+         */
+        private volatile long lastAccess;
+
+        /**
+         * Creates a new Entry.
+         *
+         * @param bookings
+         *     The index of the bookings returned by LibCal.
+         *
+         * @param fetchedAt
+         *     The time the bookings were fetched.
+         *
+         * @param ttl
+         *     The number of milliseconds after fetchedAt for which the entry
+         *     is fresh.
+         */
+        private Entry(BookingIndex bookings, long fetchedAt, long ttl) {
+            this.bookings = bookings;
+            this.fetchedAt = fetchedAt;
+            this.ttl = ttl;
+            this.lastAccess = fetchedAt;
+        }
+
+        /**
+         * Returns the index of the cached bookings.
+         *
+         * @return
+         *     The cached bookings.
+         */
+        BookingIndex getBookings() {
+            return bookings;
+        }
+
+        /**
+         * Returns the time the bookings were fetched.
+         *
+         * @return
+         *     The fetch time, in milliseconds since the epoch.
+         */
+        long getFetchedAt() {
+            return fetchedAt;
+        }
+
+    }
+
+    /**
+     * A booking notification, as kept in the journal.
+     */
+    private static class Update {
+
+        /**
+         * The calendar and date of the booking.
+         */
+        private final BookingKey key;
+
+        /**
+         * The booking created, changed or cancelled.
+         */
+        private final Booking booking;
+
+        /**
+         * Whether the booking was cancelled rather than created or changed.
+         */
+        private final boolean cancelled;
+
+        /**
+         * The time the notification arrived, in milliseconds since the
+         * epoch.
+         */
+        private final long receivedAt;
+
+        /**
+         * Creates a new Update.
+         *
+         * @param key
+         *     The calendar and date of the booking.
+         *
+         * @param booking
+         *     The booking created, changed or cancelled.
+         *
+         * @param cancelled
+         *     Whether the booking was cancelled.
+         *
+         * @param receivedAt
+         *     The time the notification arrived.
+         */
+        private Update(BookingKey key, Booking booking, boolean cancelled,
+                long receivedAt) {
+            this.key = key;
+            this.booking = booking;
+            this.cancelled = cancelled;
+            this.receivedAt = receivedAt;
+        }
+
+        /**
+         * Applies this update to the given bookings.
+         *
+         * @param bookings
+         *     The bookings of the calendar and date of this update.
+         *
+         * @return
+         *     The updated bookings.
+         */
+        private BookingIndex applyTo(BookingIndex bookings) {
+            return cancelled ? bookings.withoutBooking(booking)
+                    : bookings.withBooking(booking);
+        }
+
+    }
+
+    /**
+     * Returns the bookings for the given calendar and date, fetching them
+     * from LibCal in the background only if no usable entry is cached.
+     *
+     * @param calendarId
+     *     The LibCal location (lid) of the calendar.
+     *
+     * @param date
+     *     The date of the bookings, in yyyy-MM-dd format.
+     *
+     * @return
+     *     A future completed with an index of the bookings for the given
+     *     calendar and date, already complete if a usable entry is cached,
+     *     or completed exceptionally with the IOException or
+     *     GuacamoleException which prevented their retrieval.
+     *
+     * @throws GuacamoleException
+     *     If the cache settings cannot be read from guacamole.properties.
+     */
+    public CompletableFuture<BookingIndex> getBookingsAsync(String calendarId,
+            String date) throws GuacamoleException {
+
+        BookingKey key = new BookingKey(calendarId, date);
+        Entry entry = entries.get(key);
+        long now = clock.millis();
+
+        if (entry != null) {
+
+            entry.lastAccess = now;
+            long age = now - entry.fetchedAt;
+
+            // Fresh entries are served as-is
+            if (age < entry.ttl) {
+                hits.increment();
+                return CompletableFuture.completedFuture(entry.bookings);
+            }
+
+            // Stale entries are served while being revalidated
+            if (age < entry.ttl + TimeUnit.SECONDS.toMillis(
+                    confService.getBookingsCacheStale())) {
+                staleHits.increment();
+                revalidate(key);
+                return CompletableFuture.completedFuture(entry.bookings);
+            }
+
+        }
+
+        misses.increment();
+        return loadAsync(key);
+
+    }
+
+    /**
+     * Returns the bookings for the given calendar and date, fetching them
+     * from LibCal in the background unless they were fetched within the last
+     * few seconds. This should be used when a user is not found in the cached
+     * bookings, so that a booking made moments ago is still found.
+     *
+     * @param calendarId
+     *     The LibCal location (lid) of the calendar.
+     *
+     * @param date
+     *     The date of the bookings, in yyyy-MM-dd format.
+     *
+     * @return
+     *     A future completed with an index of the bookings for the given
+     *     calendar and date, or completed exceptionally with the IOException
+     *     or GuacamoleException which prevented their retrieval.
+     */
+    public CompletableFuture<BookingIndex> refreshAsync(String calendarId,
+            String date) {
+
+        BookingKey key = new BookingKey(calendarId, date);
+        Entry entry = entries.get(key);
+        if (entry != null && clock.millis() - entry.fetchedAt
+                < FORCED_REFRESH_INTERVAL) {
+            hits.increment();
+            return CompletableFuture.completedFuture(entry.bookings);
+        }
+
+        misses.increment();
+        return loadAsync(key);
+
+    }
+
+    /**
+     * Returns the last bookings fetched for the given calendar and date,
+     * however stale, provided they are within the configured fallback age.
+     * This should be used only when LibCal cannot be reached.
+     *
+     * @param calendarId
+     *     The LibCal location (lid) of the calendar.
+     *
+     * @param date
+     *     The date of the bookings, in yyyy-MM-dd format.
+     *
+     * @return
+     *     An index of the last bookings fetched, or null if there are none
+     *     within the fallback age.
+     *
+     * @throws GuacamoleException
+     *     If the fallback age cannot be read from guacamole.properties.
+     */
+    public BookingIndex getLastKnown(String calendarId, String date)
+            throws GuacamoleException {
+
+        Entry entry = entries.get(new BookingKey(calendarId, date));
+        if (entry == null || clock.millis() - entry.fetchedAt
+                >= TimeUnit.SECONDS.toMillis(confService.getFallbackMaxAge()))
+            return null;
+
+        fallbacks.increment();
+        return entry.bookings;
+
+    }
+
+    /**
+     * Stores the given bookings, as just fetched from LibCal, replacing any
+     * cached entry for the same calendar and date.
+     *
+     * @param calendarId
+     *     The LibCal location (lid) of the calendar.
+     *
+     * @param date
+     *     The date of the bookings, in yyyy-MM-dd format.
+     *
+     * @param bookings
+     *     The index of the bookings returned by LibCal.
+     *
+     * @param ttl
+     *     The number of milliseconds for which the bookings are fresh.
+     *
+     * @throws GuacamoleException
+     *     If the cache size cannot be read from guacamole.properties.
+     */
+    public void put(String calendarId, String date, BookingIndex bookings,
+            long ttl) throws GuacamoleException {
+        store(new BookingKey(calendarId, date), bookings, ttl);
+    }
+
+    /**
+     * Applies a booking notification to the cached bookings of the given
+     * calendar and date. A created or changed booking is added, replacing
+     * any booking of the same user for the same station and start time, and
+     * a cancelled booking is removed. The entry keeps its age, so it is
+     * still refreshed on schedule. The notification is also kept briefly,
+     * so that a fetch already under way does not undo it.
+     *
+     * @param calendarId
+     *     The LibCal location (lid) of the calendar.
+     *
+     * @param date
+     *     The date of the booking, in yyyy-MM-dd format.
+     *
+     * @param booking
+     *     The booking created, changed or cancelled.
+     *
+     * @param cancelled
+     *     Whether the booking was cancelled.
+     *
+     * @return
+     *     true if cached bookings were updated, false if none are cached for
+     *     the given calendar and date.
+     */
+    public boolean update(String calendarId, String date, Booking booking,
+            boolean cancelled) {
+
+        BookingKey key = new BookingKey(calendarId, date);
+        long now = clock.millis();
+        Update update = new Update(key, booking, cancelled, now);
+
+        Entry updated;
+        synchronized (journal) {
+
+            pruneJournal(now);
+            journal.addLast(update);
+
+            Entry entry = entries.get(key);
+            if (entry == null)
+                return false;
+
+            updated = new Entry(update.applyTo(entry.bookings),
+                    entry.fetchedAt, entry.ttl);
+            updated.lastAccess = entry.lastAccess;
+            if (!entries.replace(key, entry, updated))
+                return false;
+
+            changes.incrementAndGet();
+
+        }
+
+        fireChanged(key, updated.bookings, false);
+        return true;
+
+    }
+
+    /**
+     * Registers a listener to be notified whenever cached bookings change.
+     *
+     * @param listener
+     *     The listener to register.
+     */
+    public void addListener(BookingListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Notifies every listener that the cached bookings of the given
+     * calendar and date have changed.
+     *
+     * @param key
+     *     The calendar and date of the bookings.
+     *
+     * @param bookings
+     *     The bookings now cached.
+     *
+     * @param fetched
+     *     Whether the bookings were fetched from LibCal rather than updated
+     *     by a notification.
+     */
+    private void fireChanged(BookingKey key, BookingIndex bookings,
+            boolean fetched) {
+        for (BookingListener listener : listeners)
+            listener.bookingsChanged(key.getCalendarId(), key.getDate(),
+                    bookings, fetched);
+    }
+
+    /**
+     * Forgets notifications which no fetch can still be missing. The caller
+     * must hold the journal's lock.
+     *
+     * @param now
+     *     The current time, in milliseconds since the epoch.
+     */
+    private void pruneJournal(long now) {
+        while (!journal.isEmpty()
+                && now - journal.peekFirst().receivedAt > JOURNAL_AGE)
+            journal.removeFirst();
+    }
+
+    /**
+     * Stores the given bookings, evicting older entries if the cache is full.
+     *
+     * @param key
+     *     The calendar and date of the bookings.
+     *
+     * @param bookings
+     *     The index of the bookings returned by LibCal.
+     *
+     * @param ttl
+     *     The number of milliseconds for which the bookings are fresh.
+     *
+     * @return
+     *     The newly cached entry.
+     *
+     * @throws GuacamoleException
+     *     If the cache size cannot be read from guacamole.properties.
+     */
+    private Entry store(BookingKey key, BookingIndex bookings, long ttl)
+            throws GuacamoleException {
+
+        Entry entry;
+        synchronized (journal) {
+
+            // The fetch may have started before recent notifications, or
+            // LibCal may not reflect them yet. Only recent notifications are
+            // replayed, so that LibCal corrects any wrong one once it is
+            // older than a fetch could be.
+            long now = clock.millis();
+            pruneJournal(now);
+            for (Update update : journal) {
+                if (update.key.equals(key))
+                    bookings = update.applyTo(bookings);
+            }
+
+            entry = new Entry(bookings, now, ttl);
+            entries.put(key, entry);
+            changes.incrementAndGet();
+
+        }
+
+        fireChanged(key, entry.bookings, true);
+        evict();
+        return entry;
+
+    }
+
+    /**
+     * Restores bookings saved before a restart, unless bookings for the same
+     * calendar and date have been fetched since. The restored entry keeps
+     * its original fetch time, is served as stale straight away, and is
+     * revalidated against LibCal in the background.
+     *
+     * @param key
+     *     The calendar and date of the bookings.
+     *
+     * @param bookings
+     *     The saved bookings.
+     *
+     * @param fetchedAt
+     *     The time the saved bookings were fetched, in milliseconds since the
+     *     epoch.
+     *
+     * @throws GuacamoleException
+     *     If the cache size cannot be read from guacamole.properties.
+     */
+    void restore(BookingKey key, BookingIndex bookings, long fetchedAt)
+            throws GuacamoleException {
+
+        // Fresh until now, so stale for the configured window from now on
+        Entry entry = new Entry(bookings, fetchedAt,
+                Math.max(0, clock.millis() - fetchedAt));
+        if (entries.putIfAbsent(key, entry) != null)
+            return;
+
+        evict();
+        revalidate(key);
+
+    }
+
+    /**
+     * Returns a copy of every cached entry, for saving.
+     *
+     * @return
+     *     The cached entries, by calendar and date.
+     */
+    Map<BookingKey, Entry> getEntries() {
+        return new HashMap<BookingKey, Entry>(entries);
+    }
+
+    /**
+     * Returns the number of times entries have been stored or updated.
+     *
+     * @return
+     *     A count which changes whenever the cached bookings change.
+     */
+    long getChangeCount() {
+        return changes.get();
+    }
+
+    /**
+     * Starts a background fetch of the given key unless a revalidation is
+     * already pending.
+     *
+     * @param key
+     *     The key to revalidate.
+     */
+    private void revalidate(final BookingKey key) {
+
+        if (!revalidating.add(key))
+            return;
+
+        loadAsync(key).whenComplete(new BiConsumer<BookingIndex, Throwable>() {
+
+            @Override
+            public void accept(BookingIndex bookings, Throwable failure) {
+                revalidating.remove(key);
+                if (failure != null) {
+                    // The stale entry remains in use until it expires
+                    Throwable cause = failure instanceof CompletionException
+                            ? failure.getCause() : failure;
+                    logger.warn("Unable to revalidate cached LibCal bookings "
+                            + "for {}: {}", key, cause.getMessage());
+                    logger.debug("Revalidation of LibCal bookings failed.", cause);
+                }
+            }
+
+        });
+
+    }
+
+    /**
+     * Fetches the bookings for the given key from LibCal in the background
+     * and stores them in the cache. Concurrent fetches of the same key share
+     * a single request to LibCal.
+     *
+     * @param key
+     *     The key to fetch.
+     *
+     * @return
+     *     A future completed with the newly cached bookings, or completed
+     *     exceptionally with the IOException or GuacamoleException which
+     *     prevented their retrieval.
+     */
+    private CompletableFuture<BookingIndex> loadAsync(final BookingKey key) {
+        return libCalService.getBookingsAsync(key.getCalendarId(), key.getDate())
+                .thenApply(new Function<BookingIndex, BookingIndex>() {
+
+            @Override
+            public BookingIndex apply(BookingIndex bookings) {
+                try {
+                    return store(key, bookings, TimeUnit.SECONDS.toMillis(
+                            confService.getBookingsCacheTTL())).bookings;
+                }
+                catch (GuacamoleException e) {
+                    throw new CompletionException(e);
+                }
+            }
+
+        });
+    }
+
+    /**
+     * Removes the least recently read entries until the cache is within its
+     * configured size.
+     *
+     * @throws GuacamoleException
+     *     If the cache size cannot be read from guacamole.properties.
+     */
+    private void evict() throws GuacamoleException {
+
+        int maxEntries = confService.getBookingsCacheSize();
+        while (entries.size() > maxEntries) {
+
+            Map.Entry<BookingKey, Entry> oldest = null;
+            for (Map.Entry<BookingKey, Entry> candidate : entries.entrySet()) {
+                if (oldest == null
+                        || candidate.getValue().lastAccess < oldest.getValue().lastAccess)
+                    oldest = candidate;
+            }
+
+            if (oldest == null)
+                break;
+
+            entries.remove(oldest.getKey(), oldest.getValue());
+
+        }
+
+    }
+
+    /**
+     * Returns the number of requests served from a fresh entry.
+     *
+     * @return
+     *     The number of fresh hits since startup.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of requests served from a stale entry while it was
+     * revalidated.
+     *
+     * @return
+     *     The number of stale hits since startup.
+     */
+    public long getStaleHitCount() {
+        return staleHits.sum();
+    }
+
+    /**
+     * Returns the number of requests which waited on a fetch from LibCal.
+     *
+     * @return
+     *     The number of misses since startup.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of requests served from the last fetched bookings
+     * because LibCal could not be reached.
+     *
+     * @return
+     *     The number of fallbacks since startup.
+     */
+    public long getFallbackCount() {
+        return fallbacks.sum();
+    }
+
+    /**
+     * Returns the number of cached entries.
+     *
+     * @return
+     *     The number of cached calendar and date combinations.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+}
@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.libcal;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.auth.cas.conf.ConfigurationService;
+import org.apache.guacamole.auth.cas.conf.LibCalCalendar;
+
+/**
+ * Decides which, if any, of a user's bookings grants access at a given
+ * time. A booking grants access from its start, less the configured early
+ * entry, until its end, plus the configured grace period. Bookings without
+ * an end last the session minutes configured for their calendar, or the
+ * default number of session minutes. Bookings whose
+ * status is not accepted, such as cancelled bookings, never grant access.
+ * Booking windows are compared as epoch milliseconds computed when the
+ * bookings were parsed, so no date or time objects are created per check.
+ */
+@Singleton
+public class BookingEvaluator {
+
+    /**
+     * Service for retrieving CAS and LibCal configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Returns the booking which grants access at the given time. If several
+     * do, the one which started most recently is returned.
+     *
+     * @param bookings
+     *     A single user's bookings, sorted by start time.
+     *
+     * @param now
+     *     The time at which access is requested, in milliseconds since the
+     *     epoch.
+     *
+     * @return
+     *     The active booking, or null if no booking grants access.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public Booking findActive(List<Booking> bookings, long now)
+            throws GuacamoleException {
+
+        if (bookings.isEmpty())
+            return null;
+
+        long early = TimeUnit.MINUTES.toMillis(confService.getEarlyEntryMins());
+        long grace = TimeUnit.MINUTES.toMillis(confService.getGraceMins());
+        long session = TimeUnit.MINUTES.toMillis(confService.getSessionMins());
+        Set<String> accepted = confService.getAcceptedStatuses();
+
+        // Walk back from the last booking which has already opened
+        for (int i = lastOpened(bookings, now + early); i >= 0; i--) {
+
+            Booking booking = bookings.get(i);
+            if (now < endOf(booking, session) + grace && isAccepted(booking, accepted))
+                return booking;
+
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Returns the time at which the given booking stops granting access:
+     * its end, plus the configured grace period.
+     *
+     * @param booking
+     *     The booking.
+     *
+     * @return
+     *     The end of the booking's access window, in milliseconds since the
+     *     epoch.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public long getAccessEnd(Booking booking) throws GuacamoleException {
+        long grace = TimeUnit.MINUTES.toMillis(confService.getGraceMins());
+        long session = TimeUnit.MINUTES.toMillis(confService.getSessionMins());
+        return endOf(booking, session) + grace;
+    }
+
+    /**
+     * Returns the end of the given booking, or, if it has none, its start
+     * plus the session minutes of its calendar.
+     *
+     * @param booking
+     *     The booking.
+     *
+     * @param defaultSession
+     *     The default session length, in milliseconds.
+     *
+     * @return
+     *     The end of the booking, in milliseconds since the epoch.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    private long endOf(Booking booking, long defaultSession)
+            throws GuacamoleException {
+        if (booking.getEnd() != -1)
+            return booking.getEnd();
+        return booking.getStart() + sessionOf(booking, defaultSession);
+    }
+
+    /**
+     * Returns the length of the given booking, which has no end, from the
+     * session minutes of its calendar.
+     *
+     * @param booking
+     *     The booking without an end.
+     *
+     * @param defaultSession
+     *     The default session length, in milliseconds.
+     *
+     * @return
+     *     The session length of the booking's calendar, in milliseconds, or
+     *     the default if it has none.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    private long sessionOf(Booking booking, long defaultSession)
+            throws GuacamoleException {
+
+        if (booking.getCalendarId() == null)
+            return defaultSession;
+
+        LibCalCalendar calendar = confService.getCalendar(booking.getCalendarId());
+        if (calendar == null || calendar.getSessionMins() == 0)
+            return defaultSession;
+
+        return TimeUnit.MINUTES.toMillis(calendar.getSessionMins());
+
+    }
+
+    /**
+     * Returns the index of the last booking starting at or before the given
+     * time, using a binary search.
+     *
+     * @param bookings
+     *     Bookings sorted by start time.
+     *
+     * @param time
+     *     The time, in milliseconds since the epoch.
+     *
+     * @return
+     *     The index of the last booking starting at or before the given
+     *     time, or -1 if every booking starts later.
+     */
+    private static int lastOpened(List<Booking> bookings, long time) {
+
+        int low = 0;
+        int high = bookings.size() - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (bookings.get(mid).getStart() <= time)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+
+        return high;
+
+    }
+
+    /**
+     * Returns whether the status of the given booking is one of the
+     * configured accepted statuses. Bookings without a status are accepted.
+     *
+     * @param booking
+     *     The booking to check.
+     *
+     * @return
+     *     true if the booking's status is accepted, false otherwise.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public boolean isAccepted(Booking booking) throws GuacamoleException {
+        return isAccepted(booking, confService.getAcceptedStatuses());
+    }
+
+    /**
+     * Returns whether the status of the given booking is accepted. Bookings
+     * without a status are accepted, as they were before statuses were
+     * checked.
+     *
+     * @param booking
+     *     The booking to check.
+     *
+     * @param accepted
+     *     The accepted statuses, in lowercase.
+     *
+     * @return
+     *     true if the booking's status is accepted, false otherwise.
+     */
+    private static boolean isAccepted(Booking booking, Set<String> accepted) {
+        String status = booking.getStatus();
+        return status == null || accepted.contains(status);
+    }
+
+}
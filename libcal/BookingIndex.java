@@ -0,0 +1,414 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.libcal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Immutable index of the bookings of one calendar and date, keyed by the
+ * normalized local part of each patron's email address. Each user's bookings
+ * are sorted by start time. An index is built once per fetch and shared by
+ * every login until the bookings are fetched again.
+ */
+public class BookingIndex {
+
+    /**
+     * An index containing no bookings.
+     */
+    public static final BookingIndex EMPTY =
+            new BookingIndex(Collections.<String, List<Booking>>emptyMap(), 0);
+
+    /**
+     * Orders bookings by start time.
+     */
+    private static final Comparator<Booking> BY_START = new Comparator<Booking>() {
+
+        @Override
+        public int compare(Booking a, Booking b) {
+            return Long.compare(a.getStart(), b.getStart());
+        }
+
+    };
+
+    /**
+     * Each user's bookings, keyed by normalized email local part, or null if
+     * this index merges other indexes.
+     */
+    private final Map<String, List<Booking>> bookingsByUser;
+
+    /**
+     * The indexes merged by this index, or null if it holds its bookings
+     * directly.
+     */
+    private final BookingIndex[] parts;
+
+    /**
+     * The total number of bookings in the index.
+     */
+    private final int size;
+
+    /**
+     * Creates a new BookingIndex around the given map, which must not be
+     * modified afterwards.
+     *
+     * @param bookingsByUser
+     *     Each user's bookings, sorted by start time and keyed by normalized
+     *     email local part.
+     *
+     * @param size
+     *     The total number of bookings.
+     */
+    private BookingIndex(Map<String, List<Booking>> bookingsByUser, int size) {
+        this.bookingsByUser = bookingsByUser;
+        this.parts = null;
+        this.size = size;
+    }
+
+    /**
+     * Creates a new BookingIndex merging the given indexes.
+     *
+     * @param parts
+     *     The indexes to merge, which must not be modified afterwards.
+     *
+     * @param size
+     *     The total number of bookings in the given indexes.
+     */
+    private BookingIndex(BookingIndex[] parts, int size) {
+        this.bookingsByUser = null;
+        this.parts = parts;
+        this.size = size;
+    }
+
+    /**
+     * Returns the normalized form of the local part of the given email
+     * address or username, used as the key of the index.
+     *
+     * @param identity
+     *     An email address or username.
+     *
+     * @return
+     *     The lowercase text before the first "@", or the whole lowercase
+     *     value if it contains no "@".
+     */
+    public static String normalize(String identity) {
+        int at = identity.indexOf('@');
+        String localPart = at < 0 ? identity : identity.substring(0, at);
+        return localPart.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Builds an index from the given bookings.
+     *
+     * @param bookings
+     *     The bookings to index.
+     *
+     * @return
+     *     An index of the given bookings.
+     */
+    public static BookingIndex of(List<Booking> bookings) {
+
+        Map<String, List<Booking>> bookingsByUser =
+                new HashMap<String, List<Booking>>(bookings.size() * 2);
+
+        for (Booking booking : bookings) {
+            String user = normalize(booking.getEmail());
+            List<Booking> userBookings = bookingsByUser.get(user);
+            if (userBookings == null) {
+                userBookings = new ArrayList<Booking>(2);
+                bookingsByUser.put(user, userBookings);
+            }
+            userBookings.add(booking);
+        }
+
+        for (Map.Entry<String, List<Booking>> entry : bookingsByUser.entrySet()) {
+            List<Booking> userBookings = entry.getValue();
+            Collections.sort(userBookings, BY_START);
+            entry.setValue(Collections.unmodifiableList(userBookings));
+        }
+
+        return new BookingIndex(Collections.unmodifiableMap(bookingsByUser),
+                bookings.size());
+
+    }
+
+    /**
+     * Returns an index of the bookings in all of the given indexes, such as
+     * those of several calendars. No bookings are copied. A user's bookings
+     * are merged only when requested, so merging is cheap however many
+     * bookings each index holds.
+     *
+     * @param indexes
+     *     The indexes to merge.
+     *
+     * @return
+     *     An index of the bookings in all of the given indexes.
+     */
+    public static BookingIndex merge(List<BookingIndex> indexes) {
+
+        if (indexes.size() == 1)
+            return indexes.get(0);
+
+        int size = 0;
+        for (BookingIndex index : indexes)
+            size += index.size;
+
+        return new BookingIndex(indexes.toArray(new BookingIndex[indexes.size()]),
+                size);
+
+    }
+
+    /**
+     * Returns a copy of this index with the given booking added. A booking
+     * of the same user for the same station and start time is replaced, so
+     * this also records a change of status or end. Only the map and the
+     * user's own list are copied; this index is left unchanged.
+     *
+     * @param booking
+     *     The booking to add.
+     *
+     * @return
+     *     A new index containing the given booking.
+     *
+     * @throws IllegalStateException
+     *     If this index merges other indexes.
+     */
+    public BookingIndex withBooking(Booking booking) {
+
+        String user = normalize(booking.getEmail());
+        List<Booking> userBookings = copyOf(user);
+        int replaced = find(userBookings, booking);
+        if (replaced != -1)
+            userBookings.set(replaced, booking);
+        else
+            userBookings.add(booking);
+        Collections.sort(userBookings, BY_START);
+
+        return replace(user, userBookings, replaced != -1 ? size : size + 1);
+
+    }
+
+    /**
+     * Returns a copy of this index without the booking of the same user for
+     * the same station and start time as the given booking, such as one just
+     * cancelled. This index is left unchanged.
+     *
+     * @param booking
+     *     The booking to remove.
+     *
+     * @return
+     *     A new index without the given booking, or this index if it does not
+     *     contain it.
+     *
+     * @throws IllegalStateException
+     *     If this index merges other indexes.
+     */
+    public BookingIndex withoutBooking(Booking booking) {
+
+        String user = normalize(booking.getEmail());
+        List<Booking> userBookings = copyOf(user);
+        int removed = find(userBookings, booking);
+        if (removed == -1)
+            return this;
+
+        userBookings.remove(removed);
+        return replace(user, userBookings, size - 1);
+
+    }
+
+    /**
+     * Returns a modifiable copy of the given user's bookings.
+     *
+     * @param user
+     *     The normalized user.
+     *
+     * @return
+     *     A copy of the user's bookings, empty if the user has none.
+     *
+     * @throws IllegalStateException
+     *     If this index merges other indexes.
+     */
+    private List<Booking> copyOf(String user) {
+
+        if (parts != null)
+            throw new IllegalStateException("Merged indexes cannot be updated.");
+
+        List<Booking> userBookings = bookingsByUser.get(user);
+        if (userBookings == null)
+            return new ArrayList<Booking>(1);
+        return new ArrayList<Booking>(userBookings);
+
+    }
+
+    /**
+     * Returns the position of the booking for the same station and start
+     * time as the given booking.
+     *
+     * @param userBookings
+     *     A single user's bookings.
+     *
+     * @param booking
+     *     The booking to look for.
+     *
+     * @return
+     *     The position of the matching booking, or -1 if there is none.
+     */
+    private static int find(List<Booking> userBookings, Booking booking) {
+        for (int i = 0; i < userBookings.size(); i++) {
+            Booking candidate = userBookings.get(i);
+            if (candidate.getEid() == booking.getEid()
+                    && candidate.getStart() == booking.getStart())
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a copy of this index in which the given user has the given
+     * bookings.
+     *
+     * @param user
+     *     The normalized user.
+     *
+     * @param userBookings
+     *     The user's new bookings, sorted by start time.
+     *
+     * @param newSize
+     *     The total number of bookings in the new index.
+     *
+     * @return
+     *     The new index.
+     */
+    private BookingIndex replace(String user, List<Booking> userBookings,
+            int newSize) {
+
+        Map<String, List<Booking>> copy =
+                new HashMap<String, List<Booking>>(bookingsByUser);
+        if (userBookings.isEmpty())
+            copy.remove(user);
+        else
+            copy.put(user, Collections.unmodifiableList(userBookings));
+
+        return new BookingIndex(Collections.unmodifiableMap(copy), newSize);
+
+    }
+
+    /**
+     * Returns the bookings of the given user, sorted by start time.
+     *
+     * @param identity
+     *     The user's username or email address.
+     *
+     * @return
+     *     The user's bookings, or an empty list if the user has none.
+     */
+    public List<Booking> getBookings(String identity) {
+
+        if (parts != null)
+            return getMergedBookings(identity);
+
+        List<Booking> userBookings = bookingsByUser.get(normalize(identity));
+        if (userBookings == null)
+            return Collections.<Booking>emptyList();
+        return userBookings;
+
+    }
+
+    /**
+     * Returns the bookings of the given user across every merged index,
+     * sorted by start time.
+     *
+     * @param identity
+     *     The user's username or email address.
+     *
+     * @return
+     *     The user's bookings, or an empty list if the user has none.
+     */
+    private List<Booking> getMergedBookings(String identity) {
+
+        List<Booking> merged = Collections.<Booking>emptyList();
+        boolean copied = false;
+
+        for (BookingIndex part : parts) {
+
+            List<Booking> userBookings = part.getBookings(identity);
+            if (userBookings.isEmpty())
+                continue;
+
+            // Most users book in a single calendar, needing no copy
+            if (merged.isEmpty()) {
+                merged = userBookings;
+                continue;
+            }
+
+            if (!copied) {
+                merged = new ArrayList<Booking>(merged);
+                copied = true;
+            }
+            merged.addAll(userBookings);
+
+        }
+
+        if (copied) {
+            Collections.sort(merged, BY_START);
+            merged = Collections.unmodifiableList(merged);
+        }
+
+        return merged;
+
+    }
+
+    /**
+     * Returns every booking in the index.
+     *
+     * @return
+     *     All bookings, grouped by user.
+     */
+    List<Booking> getAll() {
+
+        List<Booking> all = new ArrayList<Booking>(size);
+        if (parts != null) {
+            for (BookingIndex part : parts)
+                all.addAll(part.getAll());
+        }
+        else {
+            for (List<Booking> userBookings : bookingsByUser.values())
+                all.addAll(userBookings);
+        }
+        return all;
+
+    }
+
+    /**
+     * Returns the total number of bookings in the index.
+     *
+     * @return
+     *     The number of bookings.
+     */
+    public int size() {
+        return size;
+    }
+
+}
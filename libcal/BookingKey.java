@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.libcal;
+
+/**
+ * Identifies the bookings of a single LibCal calendar on a single date.
+ */
+public class BookingKey {
+
+    /**
+     * The LibCal location (lid) of the calendar.
+     */
+    private final String calendarId;
+
+    /**
+     * The date of the bookings, in yyyy-MM-dd format.
+     */
+    private final String date;
+
+    /**
+     * Creates a new BookingKey.
+     *
+     * @param calendarId
+     *     The LibCal location (lid) of the calendar.
+     *
+     * @param date
+     *     The date of the bookings, in yyyy-MM-dd format.
+     */
+    public BookingKey(String calendarId, String date) {
+        this.calendarId = calendarId;
+        this.date = date;
+    }
+
+    /**
+     * Returns the LibCal location (lid) of the calendar.
+     *
+     * @return
+     *     The calendar id.
+     */
+    public String getCalendarId() {
+        return calendarId;
+    }
+
+    /**
+     * Returns the date of the bookings.
+     *
+     * @return
+     *     The date, in yyyy-MM-dd format.
+     */
+    public String getDate() {
+        return date;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+
+        if (this == obj)
+            return true;
+
+        if (!(obj instanceof BookingKey))
+            return false;
+
+        BookingKey other = (BookingKey) obj;
+        return calendarId.equals(other.calendarId) && date.equals(other.date);
+
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * calendarId.hashCode() + date.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return calendarId + "/" + date;
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.libcal;
+
+/**
+ * Listener notified whenever the bookings cached for a calendar and date
+ * change, whether fetched from LibCal or updated by a notification.
+ */
+public interface BookingListener {
+
+    /**
+     * Called once the cached bookings of the given calendar and date have
+     * changed. This is called on the thread which changed them, so must not
+     * block.
+     *
+     * @param calendarId
+     *     The LibCal location (lid) of the calendar.
+     *
+     * @param date
+     *     The date of the bookings, in yyyy-MM-dd format.
+     *
+     * @param bookings
+     *     The bookings now cached.
+     *
+     * @param fetched
+     *     Whether the bookings were fetched from LibCal, in which case they
+     *     may predate a change already seen elsewhere, rather than updated
+     *     by a notification.
+     */
+    void bookingsChanged(String calendarId, String date, BookingIndex bookings,
+            boolean fetched);
+
+}
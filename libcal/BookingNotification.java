@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.libcal;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+
+/**
+ * A notification that a LibCal booking was created, changed or cancelled,
+ * as pushed to the extension. Notifications are JSON objects of the form:
+ *
+ * <pre>
+ * {"action": "create", "calendarId": "1234",
+ *  "booking": {"email": "...", "fromDate": "...", "toDate": "...",
+ *              "eid": 5678, "status": "Confirmed"}}
+ * </pre>
+ *
+ * where the action is "create", "update" or "cancel", and the booking has
+ * the same fields as those returned by the LibCal bookings API.
+ */
+public class BookingNotification {
+
+    /**
+     * Factory for streaming JSON parsers. JsonFactory is thread-safe and
+     * meant to be shared.
+     */
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * The LibCal location (lid) of the calendar holding the booking.
+     */
+    private final String calendarId;
+
+    /**
+     * The booking created, changed or cancelled.
+     */
+    private final Booking booking;
+
+    /**
+     * Whether the booking was cancelled rather than created or changed.
+     */
+    private final boolean cancelled;
+
+    /**
+     * Creates a new BookingNotification.
+     *
+     * @param calendarId
+     *     The LibCal location (lid) of the calendar holding the booking.
+     *
+     * @param booking
+     *     The booking created, changed or cancelled.
+     *
+     * @param cancelled
+     *     Whether the booking was cancelled.
+     */
+    private BookingNotification(String calendarId, Booking booking,
+            boolean cancelled) {
+        this.calendarId = calendarId;
+        this.booking = booking;
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * Parses a notification.
+     *
+     * @param body
+     *     The JSON notification.
+     *
+     * @return
+     *     The parsed notification.
+     *
+     * @throws IOException
+     *     If the notification is not valid JSON, has an unknown action, or
+     *     lacks its calendar or any booking field needed to match a login.
+     */
+    public static BookingNotification parse(String body) throws IOException {
+
+        JsonParser parser = JSON_FACTORY.createParser(body);
+        try {
+
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                throw new JsonParseException(parser,
+                        "Expected a booking notification object.");
+
+            String action = null;
+            String calendarId = null;
+            Booking booking = null;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+
+                if ("action".equals(field) && value == JsonToken.VALUE_STRING)
+                    action = parser.getText();
+                else if ("calendarId".equals(field) && value.isScalarValue()
+                        && value != JsonToken.VALUE_NULL)
+                    calendarId = parser.getText();
+                else if ("booking".equals(field) && value == JsonToken.START_OBJECT)
+                    booking = BookingParser.parseBooking(parser, null);
+                else
+                    parser.skipChildren();
+
+            }
+
+            boolean cancelled = "cancel".equals(action);
+            if (!cancelled && !"create".equals(action) && !"update".equals(action))
+                throw new IOException("Unknown booking notification action \""
+                        + action + "\".");
+
+            if (calendarId == null || booking == null)
+                throw new IOException("Booking notification lacks a calendar "
+                        + "or a complete booking.");
+
+            return new BookingNotification(calendarId, new Booking(
+                    booking.getEmail(), booking.getFromDate(), booking.getStart(),
+                    booking.getToDate(), booking.getEnd(), booking.getEid(),
+                    booking.getStatus(), calendarId), cancelled);
+
+        }
+        finally {
+            parser.close();
+        }
+
+    }
+
+    /**
+     * Returns the LibCal location of the calendar holding the booking.
+     *
+     * @return
+     *     The calendar id.
+     */
+    public String getCalendarId() {
+        return calendarId;
+    }
+
+    /**
+     * Returns the date of the booking, as used by the LibCal bookings API.
+     *
+     * @return
+     *     The date of the booking, in yyyy-MM-dd format.
+     */
+    public String getDate() {
+        return booking.getFromDate().substring(0, 10);
+    }
+
+    /**
+     * Returns the booking created, changed or cancelled.
+     *
+     * @return
+     *     The booking.
+     */
+    public Booking getBooking() {
+        return booking;
+    }
+
+    /**
+     * Returns whether the booking was cancelled.
+     *
+     * @return
+     *     true if the booking was cancelled, false if it was created or
+     *     changed.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.libcal;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Streaming parser for the JSON array returned by the LibCal bookings API.
+ * Only the fields needed to match a login are extracted. All other fields,
+ * including nested objects and arrays, are skipped without being
+ * materialized.
+ */
+public class BookingParser {
+
+    /**
+     * Factory for streaming JSON parsers. JsonFactory is thread-safe and
+     * meant to be shared.
+     */
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * This class should not be instantiated.
+     */
+    private BookingParser() {}
+
+    /**
+     * Reads the bookings from the given stream. Bookings without an email
+     * address, start time or station, or with an unreadable start time, are
+     * skipped, as they can never be matched. The stream is not closed.
+     *
+     * @param input
+     *     The stream containing the JSON array of bookings.
+     *
+     * @return
+     *     The bookings read from the stream, in the order returned.
+     *
+     * @throws IOException
+     *     If the stream cannot be read or does not contain a JSON array of
+     *     objects.
+     */
+    public static List<Booking> parse(InputStream input) throws IOException {
+        return parse(input, null);
+    }
+
+    /**
+     * Reads the bookings of the given calendar from the given stream, as
+     * parse(InputStream) does, recording the calendar in each booking.
+     *
+     * @param input
+     *     The stream containing the JSON array of bookings.
+     *
+     * @param calendarId
+     *     The LibCal location (lid) whose bookings the stream contains, or
+     *     null if unknown.
+     *
+     * @return
+     *     The bookings read from the stream, in the order returned.
+     *
+     * @throws IOException
+     *     If the stream cannot be read or does not contain a JSON array of
+     *     objects.
+     */
+    public static List<Booking> parse(InputStream input, String calendarId)
+            throws IOException {
+
+        JsonParser parser = JSON_FACTORY.createParser(input);
+        try {
+
+            if (parser.nextToken() != JsonToken.START_ARRAY)
+                throw new JsonParseException(parser,
+                        "Expected a JSON array of LibCal bookings.");
+
+            List<Booking> bookings = new ArrayList<Booking>();
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+
+                if (token != JsonToken.START_OBJECT)
+                    throw new JsonParseException(parser,
+                            "Expected a LibCal booking object.");
+
+                Booking booking = parseBooking(parser, calendarId);
+                if (booking != null)
+                    bookings.add(booking);
+
+            }
+
+            return bookings;
+
+        }
+        finally {
+            parser.close();
+        }
+
+    }
+
+    /**
+     * Reads a single booking object, the opening brace of which has just
+     * been consumed.
+     *
+     * @param parser
+     *     The parser positioned at the start of the booking object.
+     *
+     * @param calendarId
+     *     The LibCal location (lid) holding the booking, or null if unknown.
+     *
+     * @return
+     *     The booking, or null if it lacks a required field.
+     *
+     * @throws IOException
+     *     If the stream cannot be read or is not valid JSON.
+     */
+    static Booking parseBooking(JsonParser parser, String calendarId)
+            throws IOException {
+
+        String email = null;
+        String fromDate = null;
+        String toDate = null;
+        String status = null;
+        int eid = -1;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+
+            if (value == JsonToken.VALUE_NULL)
+                continue;
+
+            if ("email".equals(field))
+                email = parser.getText();
+            else if ("fromDate".equals(field))
+                fromDate = parser.getText();
+            else if ("toDate".equals(field))
+                toDate = parser.getText();
+            else if ("status".equals(field))
+                status = parser.getText().toLowerCase(Locale.ROOT);
+            else if ("eid".equals(field))
+                eid = parser.getValueAsInt(-1);
+            else
+                parser.skipChildren();
+
+        }
+
+        if (email == null || fromDate == null || eid == -1)
+            return null;
+
+        long start = parseTime(fromDate);
+        if (start == -1)
+            return null;
+
+        long end = toDate == null ? -1 : parseTime(toDate);
+        return new Booking(email, fromDate, start, toDate, end, eid, status,
+                calendarId);
+
+    }
+
+    /**
+     * Parses a LibCal booking time.
+     *
+     * @param time
+     *     The time as returned by LibCal, in ISO-8601 format with offset.
+     *
+     * @return
+     *     The time in milliseconds since the epoch, or -1 if it cannot be
+     *     parsed.
+     */
+    private static long parseTime(String time) {
+        try {
+            return OffsetDateTime.parse(time).toInstant().toEpochMilli();
+        }
+        catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+}
@@ -0,0 +1,271 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.libcal;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.auth.cas.conf.ConfigurationService;
+import org.apache.guacamole.auth.cas.conf.LibCalCalendar;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Background task which, when the bookings mode is "poll", fetches today's
+ * and tomorrow's bookings of every calendar every few seconds, all at once,
+ * and publishes them to the BookingCache. When the bookings mode is "push",
+ * bookings are kept up to date by notifications instead, and the same
+ * fetch runs only every few minutes to reconcile any that were missed.
+ * Logins are then decided against data already in memory. Failed polls
+ * are retried with exponential backoff, and an extra poll runs just after
+ * local midnight so the new day's bookings are in place.
+ */
+@Singleton
+public class BookingPoller {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(BookingPoller.class);
+
+    /**
+     * The bookings mode which enables polling.
+     */
+    public static final String POLL_MODE = "poll";
+
+    /**
+     * The bookings mode in which bookings are pushed, and polled only to
+     * reconcile them.
+     */
+    public static final String PUSH_MODE = "push";
+
+    /**
+     * Maximum delay between polls while LibCal is failing, in seconds.
+     */
+    private static final long MAX_BACKOFF = 600;
+
+    /**
+     * Number of missed polls a polled entry remains fresh for, so that a
+     * single failed poll does not send logins upstream.
+     */
+    private static final int FRESH_POLLS = 3;
+
+    /**
+     * Service for retrieving CAS and LibCal configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Service for retrieving LibCal bookings.
+     */
+    @Inject
+    private LibCalService libCalService;
+
+    /**
+     * The cache to which polled bookings are published.
+     */
+    @Inject
+    private BookingCache bookingCache;
+
+    /**
+     * The clock determining the current date.
+     */
+    @Inject
+    private Clock clock;
+
+    /**
+     * Executor running the polls, or null if polling has not been started.
+     */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * The number of consecutive failed polls.
+     */
+    private int failures;
+
+    /**
+     * Starts polling if the bookings mode is "poll" or "push". Has no effect
+     * otherwise, or if polling has already been started.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public synchronized void start() throws GuacamoleException {
+
+        String mode = confService.getBookingsMode();
+        if (scheduler != null || (!POLL_MODE.equals(mode) && !PUSH_MODE.equals(mode)))
+            return;
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "libcal-bookings-poller");
+                thread.setDaemon(true);
+                return thread;
+            }
+
+        });
+
+        schedulePoll(0);
+        scheduleMidnight();
+
+    }
+
+    /**
+     * Stops polling. Bookings already published remain in the cache.
+     */
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Schedules the next poll after the given delay.
+     *
+     * @param delay
+     *     The delay before the next poll, in seconds.
+     */
+    private synchronized void schedulePoll(long delay) {
+
+        if (scheduler == null)
+            return;
+
+        scheduler.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                schedulePoll(poll());
+            }
+
+        }, delay, TimeUnit.SECONDS);
+
+    }
+
+    /**
+     * Schedules a one-off poll for just after the coming local midnight,
+     * which in turn schedules the following one.
+     */
+    private synchronized void scheduleMidnight() {
+
+        if (scheduler == null)
+            return;
+
+        ZonedDateTime now = ZonedDateTime.now(clock);
+        ZonedDateTime midnight = now.toLocalDate().plusDays(1)
+                .atStartOfDay(now.getZone());
+        long delay = Duration.between(now, midnight).toMillis() + 1000;
+
+        scheduler.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    poll();
+                }
+                finally {
+                    scheduleMidnight();
+                }
+            }
+
+        }, delay, TimeUnit.MILLISECONDS);
+
+    }
+
+    /**
+     * Fetches today's and tomorrow's bookings and publishes them to the
+     * cache.
+     *
+     * @return
+     *     The number of seconds to wait before the next poll, which grows
+     *     while polls are failing.
+     */
+    private long poll() {
+
+        long interval;
+        try {
+            interval = PUSH_MODE.equals(confService.getBookingsMode())
+                    ? confService.getReconcileInterval()
+                    : confService.getPollInterval();
+        }
+        catch (GuacamoleException e) {
+            logger.error("Unable to read the LibCal poll interval: {}", e.getMessage());
+            logger.debug("Reading the poll interval failed.", e);
+            return MAX_BACKOFF;
+        }
+
+        try {
+
+            LocalDate today = LocalDate.now(clock);
+            long ttl = TimeUnit.SECONDS.toMillis(interval * FRESH_POLLS);
+
+            List<BookingKey> keys = new ArrayList<BookingKey>();
+            List<CompletableFuture<BookingIndex>> fetches =
+                    new ArrayList<CompletableFuture<BookingIndex>>();
+            for (LibCalCalendar calendar : confService.getCalendars()) {
+                for (LocalDate date : new LocalDate[] { today, today.plusDays(1) }) {
+                    BookingKey key = new BookingKey(calendar.getId(),
+                            LibCalDates.format(date));
+                    keys.add(key);
+                    fetches.add(libCalService.getBookingsAsync(
+                            key.getCalendarId(), key.getDate()));
+                }
+            }
+
+            // Publish each calendar and date as it arrives, in order
+            for (int i = 0; i < keys.size(); i++) {
+                BookingKey key = keys.get(i);
+                bookingCache.put(key.getCalendarId(), key.getDate(),
+                        LibCalFutures.get(fetches.get(i)), ttl);
+            }
+
+            failures = 0;
+            return interval;
+
+        }
+        // Anything escaping would silently end polling for good
+        catch (IOException | GuacamoleException | RuntimeException e) {
+            failures++;
+            long backoff = Math.min(MAX_BACKOFF,
+                    interval << Math.min(failures, 16));
+            logger.warn("Unable to poll LibCal bookings, retrying in {}s: {}",
+                    backoff, e.getMessage());
+            logger.debug("Polling LibCal bookings failed.", e);
+            return backoff;
+        }
+
+    }
+
+}
@@ -0,0 +1,489 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.libcal;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.auth.cas.conf.ConfigurationService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Saves cached bookings to a compact binary file, and restores them at
+ * startup so that the first logins after a restart are decided without
+ * waiting for LibCal. Restored bookings are served as stale while they are
+ * revalidated in the background.
+ *
+ * The file starts with a magic number and a format version, and ends with
+ * a CRC-32 of everything before it. A file which is truncated, corrupt or
+ * of another version is ignored. Files are written to a temporary file and
+ * moved into place, so a crash never leaves a partial snapshot. The expiry
+ * of the cached access token is recorded, but never the token itself.
+ */
+@Singleton
+public class BookingSnapshot {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(BookingSnapshot.class);
+
+    /**
+     * The first four bytes of every snapshot: "LCBS".
+     */
+    private static final int MAGIC = 0x4C434253;
+
+    /**
+     * The version of the snapshot format.
+     */
+    private static final short VERSION = 1;
+
+    /**
+     * The length of the trailing checksum, in bytes.
+     */
+    private static final int CHECKSUM_LENGTH = 8;
+
+    /**
+     * Service for retrieving CAS and LibCal configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * The cache whose bookings are saved and restored.
+     */
+    @Inject
+    private BookingCache bookingCache;
+
+    /**
+     * Service whose token expiry is recorded, and which is asked for a new
+     * token after a restore.
+     */
+    @Inject
+    private AccessTokenService tokenService;
+
+    /**
+     * The clock determining the current date and time.
+     */
+    @Inject
+    private Clock clock;
+
+    /**
+     * Executor writing snapshots, or null if saving has not been started.
+     */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * The change count of the cache when the last snapshot was written.
+     */
+    private long savedChanges = -1;
+
+    /**
+     * Restores bookings from the snapshot file, if one is configured and
+     * valid, and starts saving bookings periodically. Has no effect if no
+     * snapshot file is configured, or if saving has already been started.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public synchronized void start() throws GuacamoleException {
+
+        File file = confService.getSnapshotFile();
+        if (scheduler != null || file == null)
+            return;
+
+        restore(file);
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "libcal-bookings-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            }
+
+        });
+
+        long interval = confService.getSnapshotInterval();
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                save();
+            }
+
+        }, interval, interval, TimeUnit.SECONDS);
+
+    }
+
+    /**
+     * Stops saving bookings, saving them one last time.
+     */
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+            save();
+        }
+    }
+
+    /**
+     * Writes the cached bookings to the snapshot file if they changed since
+     * the last snapshot. Failures are logged, and the previous snapshot is
+     * left in place.
+     */
+    private synchronized void save() {
+
+        long changes = bookingCache.getChangeCount();
+        if (changes == savedChanges)
+            return;
+
+        try {
+            File file = confService.getSnapshotFile();
+            if (file == null)
+                return;
+            write(file.toPath(), encode());
+            savedChanges = changes;
+        }
+        catch (IOException | GuacamoleException e) {
+            logger.warn("Unable to save LibCal bookings: {}", e.getMessage());
+            logger.debug("Saving the bookings snapshot failed.", e);
+        }
+
+    }
+
+    /**
+     * Restores the bookings in the given snapshot file, if it exists and is
+     * valid. Bookings of past days, or older than the fallback age, are
+     * skipped.
+     *
+     * @param file
+     *     The snapshot file.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    private void restore(File file) throws GuacamoleException {
+
+        if (!file.isFile())
+            return;
+
+        ByteBuffer snapshot;
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size());
+            snapshot = mapped;
+        }
+        catch (IOException e) {
+            logger.warn("Unable to read saved LibCal bookings: {}", e.getMessage());
+            logger.debug("Reading the bookings snapshot failed.", e);
+            return;
+        }
+
+        try {
+            int restored = decode(snapshot);
+            savedChanges = bookingCache.getChangeCount();
+            logger.info("Restored {} days of LibCal bookings from {}.",
+                    restored, file);
+        }
+        catch (IOException | BufferUnderflowException e) {
+            logger.warn("Ignoring saved LibCal bookings in {}: {}", file,
+                    e.getMessage());
+            logger.debug("The bookings snapshot is not valid.", e);
+        }
+
+    }
+
+    /**
+     * Encodes the cached bookings.
+     *
+     * @return
+     *     The snapshot, including its header and checksum.
+     *
+     * @throws IOException
+     *     If the snapshot cannot be encoded.
+     */
+    private byte[] encode() throws IOException {
+
+        Map<BookingKey, BookingCache.Entry> entries = bookingCache.getEntries();
+        AccessToken token = tokenService.getCachedToken();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeLong(clock.millis());
+        out.writeLong(token != null ? token.getIssuedAt() : -1);
+        out.writeLong(token != null ? token.getExpiresAt() : -1);
+
+        out.writeInt(entries.size());
+        for (Map.Entry<BookingKey, BookingCache.Entry> entry : entries.entrySet()) {
+
+            writeString(out, entry.getKey().getCalendarId());
+            writeString(out, entry.getKey().getDate());
+            out.writeLong(entry.getValue().getFetchedAt());
+
+            List<Booking> bookings = entry.getValue().getBookings().getAll();
+            out.writeInt(bookings.size());
+            for (Booking booking : bookings) {
+                writeString(out, booking.getEmail());
+                writeString(out, booking.getFromDate());
+                out.writeLong(booking.getStart());
+                writeString(out, booking.getToDate());
+                out.writeLong(booking.getEnd());
+                out.writeInt(booking.getEid());
+                writeString(out, booking.getStatus());
+                writeString(out, booking.getCalendarId());
+            }
+
+        }
+
+        out.flush();
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        out.flush();
+
+        return bytes.toByteArray();
+
+    }
+
+    /**
+     * Decodes a snapshot and restores its bookings into the cache.
+     *
+     * @param snapshot
+     *     The snapshot, including its header and checksum.
+     *
+     * @return
+     *     The number of calendar and date combinations restored.
+     *
+     * @throws IOException
+     *     If the snapshot is of another version or its checksum does not
+     *     match.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    private int decode(ByteBuffer snapshot) throws IOException, GuacamoleException {
+
+        int length = snapshot.remaining();
+        if (length < CHECKSUM_LENGTH + 4 + 2)
+            throw new IOException("The snapshot is truncated.");
+
+        if (snapshot.getInt(0) != MAGIC)
+            throw new IOException("The file is not a bookings snapshot.");
+        if (snapshot.getShort(4) != VERSION)
+            throw new IOException("The snapshot is of version "
+                    + snapshot.getShort(4) + ", not " + VERSION + ".");
+
+        // Verify the checksum before trusting any of the contents
+        ByteBuffer body = snapshot.duplicate();
+        body.limit(length - CHECKSUM_LENGTH);
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[8192];
+        while (body.hasRemaining()) {
+            int read = Math.min(chunk.length, body.remaining());
+            body.get(chunk, 0, read);
+            crc.update(chunk, 0, read);
+        }
+        if (crc.getValue() != snapshot.getLong(length - CHECKSUM_LENGTH))
+            throw new IOException("The snapshot checksum does not match.");
+
+        ByteBuffer in = snapshot.duplicate();
+        in.limit(length - CHECKSUM_LENGTH);
+        in.position(6);
+
+        long savedAt = in.getLong();
+        long tokenIssuedAt = in.getLong();
+        long tokenExpiresAt = in.getLong();
+
+        long now = clock.millis();
+        long maxAge = TimeUnit.SECONDS.toMillis(confService.getFallbackMaxAge());
+        String today = LibCalDates.format(LocalDate.now(clock));
+
+        int restored = 0;
+        int entries = in.getInt();
+        for (int i = 0; i < entries; i++) {
+
+            String calendarId = readString(in);
+            String date = readString(in);
+            long fetchedAt = in.getLong();
+
+            int count = in.getInt();
+            List<Booking> bookings = new ArrayList<Booking>(count);
+            for (int j = 0; j < count; j++) {
+                String email = readString(in);
+                String fromDate = readString(in);
+                long start = in.getLong();
+                String toDate = readString(in);
+                long end = in.getLong();
+                int eid = in.getInt();
+                String status = readString(in);
+                if (status != null)
+                    status = status.toLowerCase(Locale.ROOT);
+                String bookingCalendarId = readString(in);
+                bookings.add(new Booking(email, fromDate, start, toDate, end,
+                        eid, status, bookingCalendarId));
+            }
+
+            // Past days cannot grant access, and old bookings are not trusted
+            if (date.compareTo(today) < 0 || now - fetchedAt >= maxAge)
+                continue;
+
+            bookingCache.restore(new BookingKey(calendarId, date),
+                    BookingIndex.of(bookings), fetchedAt);
+            restored++;
+
+        }
+
+        logger.debug("Bookings snapshot saved at {}; access token then issued "
+                + "at {}, expiring at {}.", savedAt, tokenIssuedAt, tokenExpiresAt);
+
+        // The token itself is never saved, so fetch one before logins need it
+        if (restored > 0)
+            tokenService.prefetch();
+
+        return restored;
+
+    }
+
+    /**
+     * Writes the given snapshot to the given file, through a temporary file
+     * in the same directory which is then moved into place.
+     *
+     * @param file
+     *     The snapshot file.
+     *
+     * @param snapshot
+     *     The snapshot to write.
+     *
+     * @throws IOException
+     *     If the snapshot cannot be written.
+     */
+    private static void write(Path file, byte[] snapshot) throws IOException {
+
+        Path directory = file.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory,
+                file.getFileName().toString(), ".tmp");
+        try {
+
+            try (FileChannel channel = FileChannel.open(temporary,
+                    StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(snapshot);
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+                channel.force(true);
+            }
+
+            try {
+                Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+        }
+        finally {
+            Files.deleteIfExists(temporary);
+        }
+
+    }
+
+    /**
+     * Writes a string which may be null, as its length in UTF-8 bytes, or
+     * -1 for null, followed by the bytes.
+     *
+     * @param out
+     *     The stream to write to.
+     *
+     * @param value
+     *     The string to write, or null.
+     *
+     * @throws IOException
+     *     If the string cannot be written.
+     */
+    private static void writeString(DataOutputStream out, String value)
+            throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by writeString().
+     *
+     * @param in
+     *     The buffer to read from.
+     *
+     * @return
+     *     The string read, or null.
+     *
+     * @throws IOException
+     *     If the length of the string is invalid.
+     */
+    private static String readString(ByteBuffer in) throws IOException {
+
+        int length = in.getInt();
+        if (length == -1)
+            return null;
+        if (length < 0 || length > in.remaining())
+            throw new IOException("The snapshot holds an invalid string length.");
+
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+
+    }
+
+}
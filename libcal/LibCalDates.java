@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.libcal;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Utility class for the dates used when querying LibCal bookings. Dates are
+ * those of the time zone of the clock in use, normally the local time zone
+ * of the Guacamole server.
+ */
+public class LibCalDates {
+
+    /**
+     * The date format expected by the LibCal bookings API.
+     */
+    private static final DateTimeFormatter LIBCAL_DATE_FORMATTER =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    /**
+     * This class should not be instantiated.
+     */
+    private LibCalDates() {}
+
+    /**
+     * Returns the given date in LibCal format.
+     *
+     * @param date
+     *     The date to format.
+     *
+     * @return
+     *     The date in yyyy-MM-dd format.
+     */
+    public static String format(LocalDate date) {
+        return LIBCAL_DATE_FORMATTER.format(date);
+    }
+
+    /**
+     * Returns today's date in LibCal format, in the time zone of the given
+     * clock.
+     *
+     * @param clock
+     *     The clock providing the current date and time zone.
+     *
+     * @return
+     *     Today's date in yyyy-MM-dd format.
+     */
+    public static String today(Clock clock) {
+        return format(LocalDate.now(clock));
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.libcal;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.auth.cas.conf.ConfigurationService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executor on which LibCal lookups run while logins continue with other
+ * work. By default this is a pool of daemon platform threads, one per
+ * concurrent LibCal request allowed, with as many lookups waiting for a
+ * thread as LibCal requests may be queued; further lookups are rejected
+ * with a RejectedExecutionException. If configured, and the JVM supports
+ * them (Java 21 and later), a virtual thread is started per lookup instead,
+ * so that lookups waiting on LibCal hold no platform thread.
+ */
+@Singleton
+public class LibCalExecutor implements Executor {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(LibCalExecutor.class);
+
+    /**
+     * The number of seconds an idle platform thread is kept.
+     */
+    private static final long KEEP_ALIVE = 60;
+
+    /**
+     * The underlying executor.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Creates a new LibCalExecutor configured from guacamole.properties.
+     *
+     * @param confService
+     *     Service for retrieving CAS and LibCal configuration information.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    @Inject
+    public LibCalExecutor(ConfigurationService confService)
+            throws GuacamoleException {
+
+        ExecutorService virtual = null;
+        if (confService.getVirtualThreads()) {
+            virtual = newVirtualThreadExecutor();
+            if (virtual == null)
+                logger.warn("Virtual threads are not supported by this JVM, "
+                        + "using platform threads for LibCal lookups.");
+        }
+
+        if (virtual != null)
+            executor = virtual;
+        else {
+            int threads = confService.getMaxConcurrentRequests();
+            int queued = confService.getMaxQueuedRequests();
+            BlockingQueue<Runnable> queue = queued == 0
+                    ? new SynchronousQueue<Runnable>()
+                    : new ArrayBlockingQueue<Runnable>(queued);
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+                    KEEP_ALIVE, TimeUnit.SECONDS, queue, new ThreadFactory() {
+
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable,
+                            "libcal-lookup-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+
+            });
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+
+    }
+
+    /**
+     * Returns an executor starting a virtual thread per task, if the JVM
+     * supports virtual threads. The method is looked up reflectively, so
+     * that the extension still runs on Java 8.
+     *
+     * @return
+     *     A virtual thread per task executor, or null if the JVM does not
+     *     support virtual threads.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (NoSuchMethodException | IllegalAccessException
+                | InvocationTargetException e) {
+            logger.debug("Virtual thread executor unavailable.", e);
+            return null;
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        executor.execute(command);
+    }
+
+    /**
+     * Stops all lookups in progress.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.libcal;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.apache.guacamole.GuacamoleException;
+
+/**
+ * Waits on futures of LibCal calls, rethrowing their failures as the
+ * exceptions the calls themselves would have thrown.
+ */
+final class LibCalFutures {
+
+    /**
+     * This class should not be instantiated.
+     */
+    private LibCalFutures() {}
+
+    /**
+     * Waits for the given future and returns its result.
+     *
+     * @param <T>
+     *     The type of the result.
+     *
+     * @param future
+     *     The future of a LibCal call.
+     *
+     * @return
+     *     The result of the call.
+     *
+     * @throws IOException
+     *     If the call failed with an IOException or an unexpected exception,
+     *     or the thread was interrupted while waiting.
+     *
+     * @throws GuacamoleException
+     *     If the call failed with a GuacamoleException.
+     */
+    static <T> T get(Future<T> future) throws IOException, GuacamoleException {
+
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for LibCal.");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof GuacamoleException)
+                throw (GuacamoleException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException("Unable to complete LibCal request.", cause);
+        }
+
+    }
+
+}
@@ -0,0 +1,354 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.libcal;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.auth.cas.conf.ConfigurationService;
+import org.apache.guacamole.auth.cas.util.CircuitBreaker;
+import org.apache.guacamole.auth.cas.util.ConcurrencyLimiter;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Shared HTTP client used for all calls to the LibCal API. Connections are
+ * pooled and kept alive between logins, so that a burst of logins does not
+ * pay for a new TCP and TLS handshake per request. The number of requests in
+ * progress is limited, with a bounded queue, so that a burst of logins
+ * cannot overwhelm LibCal, and a circuit breaker refuses requests outright
+ * while LibCal is failing or slow, so that logins never wait on a dead
+ * server.
+ */
+@Singleton
+public class LibCalHttpClient {
+
+    /**
+     * Number of milliseconds a pooled connection may sit idle before it is
+     * checked for staleness prior to reuse.
+     */
+    private static final int VALIDATE_AFTER_INACTIVITY = 2000;
+
+    /**
+     * The pool of connections to the LibCal server.
+     */
+    private final PoolingHttpClientConnectionManager connectionManager;
+
+    /**
+     * The underlying HTTP client, backed by the connection pool.
+     */
+    private final CloseableHttpClient client;
+
+    /**
+     * Limiter bounding the number of requests in progress and waiting.
+     */
+    private final ConcurrencyLimiter limiter;
+
+    /**
+     * The number of milliseconds a request may wait for its turn.
+     */
+    private final long queueTimeout;
+
+    /**
+     * Circuit breaker which refuses requests while LibCal is failing or
+     * slow.
+     */
+    private final CircuitBreaker circuitBreaker;
+
+    /**
+     * Creates a new LibCalHttpClient whose pool and timeouts are configured
+     * from guacamole.properties.
+     *
+     * @param confService
+     *     Service for retrieving CAS and LibCal configuration information.
+     *
+     * @param clock
+     *     The clock against which the circuit breaker's open period is
+     *     measured.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    @Inject
+    public LibCalHttpClient(ConfigurationService confService, Clock clock)
+            throws GuacamoleException {
+
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(confService.getHttpMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(confService.getHttpMaxPerRoute());
+        connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(confService.getHttpConnectTimeout())
+                .setSocketTimeout(confService.getHttpReadTimeout())
+                .setConnectionRequestTimeout(confService.getHttpPoolTimeout())
+                .build();
+
+        final long keepAliveMillis = TimeUnit.SECONDS.toMillis(
+                confService.getHttpKeepAliveSeconds());
+
+        // Honor the server's Keep-Alive header, falling back to our default
+        ConnectionKeepAliveStrategy keepAliveStrategy = new ConnectionKeepAliveStrategy() {
+
+            @Override
+            public long getKeepAliveDuration(HttpResponse response,
+                    HttpContext context) {
+                long duration = DefaultConnectionKeepAliveStrategy.INSTANCE
+                        .getKeepAliveDuration(response, context);
+                return duration > 0 ? duration : keepAliveMillis;
+            }
+
+        };
+
+        client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(keepAliveStrategy)
+                .evictExpiredConnections()
+                .evictIdleConnections(confService.getHttpIdleEvictSeconds(),
+                        TimeUnit.SECONDS)
+                .build();
+
+        limiter = new ConcurrencyLimiter(confService.getMaxConcurrentRequests(),
+                confService.getMaxQueuedRequests());
+        queueTimeout = confService.getHttpPoolTimeout();
+
+        circuitBreaker = new CircuitBreaker(confService.getCircuitWindow(),
+                confService.getCircuitFailureRate(),
+                confService.getCircuitSlowRate(),
+                confService.getCircuitSlowCall(),
+                TimeUnit.SECONDS.toMillis(confService.getCircuitOpenSeconds()),
+                clock);
+
+    }
+
+    /**
+     * Executes the given request, handing the response to the given handler.
+     * The response entity is always fully consumed and the connection
+     * returned to the pool, whether or not the handler succeeds. If the
+     * concurrent request limit is reached, the request waits for its turn
+     * for up to the pool timeout, and fails at once if too many requests are
+     * already waiting. While the circuit breaker is open, the request fails
+     * at once without being sent. Error responses with a 4xx status do not
+     * count against LibCal's health.
+     *
+     * @param <T>
+     *     The type of value produced by the handler.
+     *
+     * @param request
+     *     The request to execute.
+     *
+     * @param handler
+     *     The handler which converts the response into a value.
+     *
+     * @return
+     *     The value produced by the handler.
+     *
+     * @throws IOException
+     *     If the request fails, the handler cannot process the response, the
+     *     request could not be given a turn, or the circuit breaker is open.
+     */
+    public <T> T execute(HttpUriRequest request,
+            ResponseHandler<? extends T> handler) throws IOException {
+
+        try {
+            if (!limiter.acquire(queueTimeout, TimeUnit.MILLISECONDS))
+                throw new IOException("Too many LibCal requests in progress.");
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to call LibCal.");
+        }
+
+        try {
+
+            long permit = circuitBreaker.tryAcquire();
+            if (permit == CircuitBreaker.REFUSED)
+                throw new IOException("LibCal is failing or slow, not calling it for now.");
+
+            long started = System.nanoTime();
+            boolean healthy = false;
+            try {
+                T result = client.execute(request, handler);
+                healthy = true;
+                return result;
+            }
+            catch (HttpResponseException e) {
+                healthy = e.getStatusCode() < 500;
+                throw e;
+            }
+            finally {
+                long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+                if (healthy)
+                    circuitBreaker.onSuccess(permit, duration);
+                else
+                    circuitBreaker.onFailure(permit, duration);
+            }
+
+        }
+        finally {
+            limiter.release();
+        }
+
+    }
+
+    /**
+     * Executes the given request and returns the response body as a string.
+     *
+     * @param request
+     *     The request to execute.
+     *
+     * @return
+     *     The body of the response.
+     *
+     * @throws HttpResponseException
+     *     If LibCal responds with a status other than 2xx.
+     *
+     * @throws IOException
+     *     If the request fails.
+     */
+    public String executeForString(HttpUriRequest request) throws IOException {
+        return execute(request, new ResponseHandler<String>() {
+
+            @Override
+            public String handleResponse(HttpResponse response)
+                    throws IOException {
+
+                checkStatus(response);
+
+                HttpEntity entity = response.getEntity();
+                if (entity == null)
+                    return "";
+
+                return EntityUtils.toString(entity, StandardCharsets.UTF_8);
+
+            }
+
+        });
+    }
+
+    /**
+     * Verifies that the given response has a 2xx status, consuming the
+     * entity and throwing an exception otherwise.
+     *
+     * @param response
+     *     The response to check.
+     *
+     * @throws HttpResponseException
+     *     If the response status is not 2xx.
+     *
+     * @throws IOException
+     *     If the entity cannot be consumed.
+     */
+    public static void checkStatus(HttpResponse response) throws IOException {
+
+        int status = response.getStatusLine().getStatusCode();
+        if (status >= 200 && status < 300)
+            return;
+
+        EntityUtils.consume(response.getEntity());
+        throw new HttpResponseException(status,
+                response.getStatusLine().getReasonPhrase());
+
+    }
+
+    /**
+     * Returns a snapshot of the connection pool statistics: leased,
+     * available and pending connections, and the configured maximum.
+     *
+     * @return
+     *     The current totals for the LibCal connection pool.
+     */
+    public PoolStats getPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * Returns the number of requests to LibCal in progress.
+     *
+     * @return
+     *     The number of requests holding a turn.
+     */
+    public int getActiveRequests() {
+        return limiter.getActive();
+    }
+
+    /**
+     * Returns the number of requests to LibCal waiting for a turn.
+     *
+     * @return
+     *     The number of queued requests.
+     */
+    public int getQueuedRequests() {
+        return limiter.getQueued();
+    }
+
+    /**
+     * Returns the state of the circuit breaker guarding LibCal.
+     *
+     * @return
+     *     The current circuit breaker state.
+     */
+    public CircuitBreaker.State getCircuitState() {
+        return circuitBreaker.getState();
+    }
+
+    /**
+     * Returns the number of requests refused because the circuit breaker was
+     * open.
+     *
+     * @return
+     *     The number of refused requests since startup.
+     */
+    public long getRejectedRequests() {
+        return circuitBreaker.getRejectedCount();
+    }
+
+    /**
+     * Closes the client and every pooled connection. The client cannot be
+     * used after this call.
+     */
+    public void shutdown() {
+        try {
+            client.close();
+        }
+        catch (IOException e) {
+            connectionManager.shutdown();
+        }
+    }
+
+}
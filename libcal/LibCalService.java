@@ -0,0 +1,285 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.libcal;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import io.micrometer.core.instrument.Timer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.auth.cas.conf.ConfigurationService;
+import org.apache.guacamole.auth.cas.metrics.MetricsService;
+import org.apache.guacamole.auth.cas.util.SingleFlight;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpGet;
+
+/**
+ * Service providing access to the LibCal space bookings API. Concurrent
+ * requests for the bookings of the same calendar and date share a single
+ * call to LibCal.
+ */
+@Singleton
+public class LibCalService {
+
+    /**
+     * Service for retrieving CAS and LibCal configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Shared HTTP client for LibCal API calls.
+     */
+    @Inject
+    private LibCalHttpClient httpClient;
+
+    /**
+     * Service providing cached OAuth access tokens.
+     */
+    @Inject
+    private AccessTokenService tokenService;
+
+    /**
+     * Service recording the duration of bookings requests.
+     */
+    @Inject
+    private MetricsService metricsService;
+
+    /**
+     * Executor on which asynchronous lookups run.
+     */
+    @Inject
+    private LibCalExecutor executor;
+
+    /**
+     * Bookings requests currently in progress, by calendar and date.
+     */
+    private final SingleFlight<BookingKey, BookingIndex> bookingsFlights =
+            new SingleFlight<BookingKey, BookingIndex>();
+
+    /**
+     * Returns an index of the bookings for the given calendar and date.
+     * If a request for the same calendar and date is already in progress,
+     * its result is awaited and shared instead. If LibCal rejects the cached
+     * access token, the token is discarded and the request retried once with
+     * a fresh token.
+     *
+     * @param calendarId
+     *     The LibCal location (lid) whose bookings should be retrieved.
+     *
+     * @param date
+     *     The date of the bookings, in yyyy-MM-dd format.
+     *
+     * @return
+     *     An index of the bookings returned by LibCal.
+     *
+     * @throws IOException
+     *     If LibCal cannot be reached or returns an error.
+     *
+     * @throws GuacamoleException
+     *     If the LibCal configuration cannot be read.
+     */
+    public BookingIndex getBookings(String calendarId, String date)
+            throws IOException, GuacamoleException {
+
+        return LibCalFutures.get(bookingsFlights.execute(
+                new BookingKey(calendarId, date), bookingsCall(calendarId, date)));
+
+    }
+
+    /**
+     * Starts retrieving an index of the bookings for the given calendar and
+     * date in the background, returning at once. If a request for the same
+     * calendar and date is already in progress, its future is returned
+     * instead.
+     *
+     * @param calendarId
+     *     The LibCal location (lid) whose bookings should be retrieved.
+     *
+     * @param date
+     *     The date of the bookings, in yyyy-MM-dd format.
+     *
+     * @return
+     *     A future completed with an index of the bookings returned by
+     *     LibCal, or exceptionally with the IOException or
+     *     GuacamoleException which prevented their retrieval.
+     */
+    public CompletableFuture<BookingIndex> getBookingsAsync(String calendarId,
+            String date) {
+        return bookingsFlights.executeAsync(new BookingKey(calendarId, date),
+                bookingsCall(calendarId, date), executor);
+    }
+
+    /**
+     * Returns a call which fetches the bookings for the given calendar and
+     * date.
+     *
+     * @param calendarId
+     *     The LibCal location (lid) whose bookings should be retrieved.
+     *
+     * @param date
+     *     The date of the bookings, in yyyy-MM-dd format.
+     *
+     * @return
+     *     A call returning an index of the bookings returned by LibCal.
+     */
+    private Callable<BookingIndex> bookingsCall(final String calendarId,
+            final String date) {
+        return new Callable<BookingIndex>() {
+
+            @Override
+            public BookingIndex call() throws IOException, GuacamoleException {
+                return fetchBookings(calendarId, date);
+            }
+
+        };
+    }
+
+    /**
+     * Fetches an index of the bookings for the given calendar and date,
+     * retrying once with a fresh token if LibCal rejects the cached token.
+     *
+     * @param calendarId
+     *     The LibCal location (lid) whose bookings should be retrieved.
+     *
+     * @param date
+     *     The date of the bookings, in yyyy-MM-dd format.
+     *
+     * @return
+     *     An index of the bookings returned by LibCal.
+     *
+     * @throws IOException
+     *     If LibCal cannot be reached or returns an error.
+     *
+     * @throws GuacamoleException
+     *     If the LibCal configuration cannot be read.
+     */
+    private BookingIndex fetchBookings(String calendarId, String date)
+            throws IOException, GuacamoleException {
+
+        String token = tokenService.getAccessToken();
+        try {
+            return getBookings(calendarId, date, token);
+        }
+        catch (HttpResponseException e) {
+            if (e.getStatusCode() != HttpStatus.SC_UNAUTHORIZED)
+                throw e;
+            tokenService.invalidate(token);
+            return getBookings(calendarId, date, tokenService.getAccessToken());
+        }
+
+    }
+
+    /**
+     * Returns an index of the bookings for the given calendar and date,
+     * authorizing with the given token. The response is parsed as it is
+     * streamed from LibCal.
+     *
+     * @param calendarId
+     *     The LibCal location (lid) whose bookings should be retrieved.
+     *
+     * @param date
+     *     The date of the bookings, in yyyy-MM-dd format.
+     *
+     * @param token
+     *     The bearer token to send.
+     *
+     * @return
+     *     An index of the bookings returned by LibCal.
+     *
+     * @throws IOException
+     *     If LibCal cannot be reached or returns an error.
+     *
+     * @throws GuacamoleException
+     *     If the LibCal configuration cannot be read.
+     */
+    private BookingIndex getBookings(String calendarId, String date, String token)
+            throws IOException, GuacamoleException {
+
+        HttpGet get = new HttpGet(confService.getOauthServer()
+                + "/space/bookings?lid=" + calendarId + "&date=" + date);
+        get.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + token);
+
+        Timer.Sample sample = metricsService.startTimer();
+        boolean success = false;
+        try {
+            BookingIndex bookings = httpClient.execute(get,
+                    new BookingsHandler(calendarId));
+            success = true;
+            return bookings;
+        }
+        finally {
+            metricsService.recordLibCalCall(sample, "bookings", success);
+        }
+
+    }
+
+    /**
+     * Handler which parses a bookings response as it is streamed from
+     * LibCal.
+     */
+    private static class BookingsHandler implements ResponseHandler<BookingIndex> {
+
+        /**
+         * The LibCal location (lid) whose bookings are being parsed.
+         */
+        private final String calendarId;
+
+        /**
+         * Creates a new BookingsHandler for the given calendar.
+         *
+         * @param calendarId
+         *     The LibCal location (lid) whose bookings are being parsed.
+         */
+        BookingsHandler(String calendarId) {
+            this.calendarId = calendarId;
+        }
+
+        @Override
+        public BookingIndex handleResponse(HttpResponse response)
+                throws IOException {
+
+            LibCalHttpClient.checkStatus(response);
+
+            HttpEntity entity = response.getEntity();
+            if (entity == null)
+                throw new IOException("Empty LibCal bookings response.");
+
+            InputStream input = entity.getContent();
+            try {
+                return BookingIndex.of(BookingParser.parse(input, calendarId));
+            }
+            finally {
+                input.close();
+            }
+
+        }
+
+    }
+
+}
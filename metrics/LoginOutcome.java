@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.metrics;
+
+/**
+ * The possible outcomes of a login attempt, as counted by MetricsService.
+ */
+public enum LoginOutcome {
+
+    /**
+     * The request carried no CAS ticket, so the user was sent to CAS.
+     */
+    NO_TICKET("no_ticket"),
+
+    /**
+     * CAS rejected the ticket, or did not identify a user.
+     */
+    INVALID_TICKET("invalid_ticket"),
+
+    /**
+     * The user has no bookings on the day of the login.
+     */
+    NO_BOOKING("no_booking"),
+
+    /**
+     * The user has bookings, but none grants access at the time of the
+     * login.
+     */
+    OUTSIDE_WINDOW("outside_window"),
+
+    /**
+     * The user was granted access to a station.
+     */
+    GRANTED("granted"),
+
+    /**
+     * The user was admitted again to the station of a booking which had
+     * already admitted them, without looking up bookings.
+     */
+    READMITTED("readmitted"),
+
+    /**
+     * The user's booking matched a station already in use by another user's
+     * booking.
+     */
+    STATION_IN_USE("station_in_use"),
+
+    /**
+     * LibCal could not be reached or returned an error.
+     */
+    IO_ERROR("io_error");
+
+    /**
+     * The value of the "outcome" tag of the login counter.
+     */
+    private final String tag;
+
+    /**
+     * Creates a new LoginOutcome.
+     *
+     * @param tag
+     *     The value of the "outcome" tag of the login counter.
+     */
+    private LoginOutcome(String tag) {
+        this.tag = tag;
+    }
+
+    /**
+     * Returns the value of the "outcome" tag of the login counter.
+     *
+     * @return
+     *     The tag value, in lowercase with underscores.
+     */
+    public String getTag() {
+        return tag;
+    }
+
+}
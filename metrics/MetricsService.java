@@ -0,0 +1,680 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.metrics;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.jmx.JmxConfig;
+import io.micrometer.jmx.JmxMeterRegistry;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.auth.cas.conf.ConfigurationService;
+import org.apache.guacamole.auth.cas.libcal.BookingCache;
+import org.apache.guacamole.auth.cas.libcal.LibCalHttpClient;
+import org.apache.guacamole.auth.cas.session.AdmissionLedger;
+import org.apache.guacamole.auth.cas.session.SessionExpiry;
+import org.apache.guacamole.auth.cas.ticket.TicketCache;
+import org.apache.http.pool.PoolStats;
+
+/**
+ * Service recording login latency, upstream call latency, login outcomes,
+ * HTTP pool usage and booking and ticket cache efficiency. Metrics are always published
+ * over JMX under the "libcalcas" domain, and are optionally served in the
+ * Prometheus text format on a local port.
+ */
+@Singleton
+public class MetricsService {
+
+    /**
+     * The JMX domain under which metrics are published.
+     */
+    private static final String JMX_DOMAIN = "libcalcas";
+
+    /**
+     * The path at which metrics are served in the Prometheus text format.
+     */
+    private static final String PROMETHEUS_PATH = "/metrics";
+
+    /**
+     * Service for retrieving CAS and LibCal configuration information.
+     */
+    private final ConfigurationService confService;
+
+    /**
+     * Provider for the booking cache, whose hit ratio is reported.
+     */
+    private final Provider<BookingCache> bookingCache;
+
+    /**
+     * Provider for the LibCal HTTP client, whose pool usage is reported.
+     */
+    private final Provider<LibCalHttpClient> httpClient;
+
+    /**
+     * Provider for the ticket cache, whose hits and misses are reported.
+     */
+    private final Provider<TicketCache> ticketCache;
+
+    /**
+     * Provider for the admission ledger, whose size is reported.
+     */
+    private final Provider<AdmissionLedger> admissionLedger;
+
+    /**
+     * Provider for the session expiry service, whose sessions are counted.
+     */
+    private final Provider<SessionExpiry> sessionExpiry;
+
+    /**
+     * Registry publishing metrics over JMX.
+     */
+    private final JmxMeterRegistry jmxRegistry;
+
+    /**
+     * Registry rendering metrics in the Prometheus text format.
+     */
+    private final PrometheusMeterRegistry prometheusRegistry;
+
+    /**
+     * Registry through which all metrics are recorded, forwarding to both
+     * the JMX and Prometheus registries.
+     */
+    private final MeterRegistry registry;
+
+    /**
+     * Timer for the whole of each login.
+     */
+    private final Timer loginTimer;
+
+    /**
+     * Timer for CAS ticket validation.
+     */
+    private final Timer casTimer;
+
+    /**
+     * Counters of the outcomes of logins decided from bookings just
+     * retrieved, or for which no bookings were needed.
+     */
+    private final Map<LoginOutcome, Counter> liveOutcomes =
+            new EnumMap<LoginOutcome, Counter>(LoginOutcome.class);
+
+    /**
+     * Counters of the outcomes of logins decided from the last fetched
+     * bookings because LibCal could not be reached.
+     */
+    private final Map<LoginOutcome, Counter> fallbackOutcomes =
+            new EnumMap<LoginOutcome, Counter>(LoginOutcome.class);
+
+    /**
+     * Timers for successful calls to the LibCal API, by API called.
+     */
+    private final Map<String, Timer> libCalSuccesses = new HashMap<String, Timer>();
+
+    /**
+     * Timers for failed calls to the LibCal API, by API called.
+     */
+    private final Map<String, Timer> libCalErrors = new HashMap<String, Timer>();
+
+    /**
+     * Counters of logins turned away for exceeding a rate limit, by limit
+     * exceeded.
+     */
+    private final Map<String, Counter> rateLimited = new HashMap<String, Counter>();
+
+    /**
+     * Counters of booking notifications received, by what became of them.
+     */
+    private final Map<String, Counter> notifications = new HashMap<String, Counter>();
+
+    /**
+     * Server for the Prometheus text endpoint, or null if not started.
+     */
+    private HttpServer prometheusServer;
+
+    /**
+     * Creates a new MetricsService and registers its timers and counters.
+     *
+     * @param confService
+     *     Service for retrieving CAS and LibCal configuration information.
+     *
+     * @param bookingCache
+     *     Provider for the booking cache.
+     *
+     * @param httpClient
+     *     Provider for the LibCal HTTP client.
+     *
+     * @param ticketCache
+     *     Provider for the ticket cache.
+     *
+     * @param admissionLedger
+     *     Provider for the admission ledger.
+     *
+     * @param sessionExpiry
+     *     Provider for the session expiry service.
+     */
+    @Inject
+    public MetricsService(ConfigurationService confService,
+            Provider<BookingCache> bookingCache,
+            Provider<LibCalHttpClient> httpClient,
+            Provider<TicketCache> ticketCache,
+            Provider<AdmissionLedger> admissionLedger,
+            Provider<SessionExpiry> sessionExpiry) {
+
+        this.confService = confService;
+        this.bookingCache = bookingCache;
+        this.httpClient = httpClient;
+        this.ticketCache = ticketCache;
+        this.admissionLedger = admissionLedger;
+        this.sessionExpiry = sessionExpiry;
+
+        jmxRegistry = new JmxMeterRegistry(new JmxConfig() {
+
+            @Override
+            public String get(String key) {
+                return null;
+            }
+
+            @Override
+            public String domain() {
+                return JMX_DOMAIN;
+            }
+
+        }, Clock.SYSTEM);
+        prometheusRegistry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+
+        CompositeMeterRegistry composite = new CompositeMeterRegistry();
+        composite.add(jmxRegistry);
+        composite.add(prometheusRegistry);
+        registry = composite;
+
+        loginTimer = Timer.builder("libcalcas.login")
+                .description("Time taken by each login, whatever its outcome")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(registry);
+        casTimer = Timer.builder("libcalcas.cas.validate")
+                .description("Time taken to validate CAS tickets")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(registry);
+
+        for (LoginOutcome outcome : LoginOutcome.values()) {
+            liveOutcomes.put(outcome, Counter.builder("libcalcas.logins")
+                    .description("Logins, by outcome and source of bookings")
+                    .tag("outcome", outcome.getTag())
+                    .tag("source", "live")
+                    .register(registry));
+            fallbackOutcomes.put(outcome, Counter.builder("libcalcas.logins")
+                    .description("Logins, by outcome and source of bookings")
+                    .tag("outcome", outcome.getTag())
+                    .tag("source", "fallback")
+                    .register(registry));
+        }
+
+        for (String call : new String[] { "token", "bookings" }) {
+            libCalSuccesses.put(call, libCalTimer(call, "success"));
+            libCalErrors.put(call, libCalTimer(call, "error"));
+        }
+
+        for (String scope : new String[] { "ip", "global" }) {
+            rateLimited.put(scope, Counter.builder("libcalcas.logins.limited")
+                    .description("Logins turned away for exceeding a rate limit")
+                    .tag("scope", scope)
+                    .register(registry));
+        }
+
+        for (String result : new String[] { "applied", "not_cached", "invalid", "rejected" }) {
+            notifications.put(result, Counter.builder("libcalcas.webhook.notifications")
+                    .description("Booking notifications received")
+                    .tag("result", result)
+                    .register(registry));
+        }
+
+    }
+
+    /**
+     * Registers a timer for calls to the LibCal API.
+     *
+     * @param call
+     *     The API called, such as "token" or "bookings".
+     *
+     * @param outcome
+     *     The outcome of the calls timed: "success" or "error".
+     *
+     * @return
+     *     The registered timer.
+     */
+    private Timer libCalTimer(String call, String outcome) {
+        return Timer.builder("libcalcas.libcal.request")
+                .description("Time taken by LibCal API calls")
+                .tag("call", call)
+                .tag("outcome", outcome)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(registry);
+    }
+
+    /**
+     * Registers the HTTP pool and booking cache gauges and, if a metrics
+     * port is configured, starts serving metrics in the Prometheus text
+     * format.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed, or the metrics port
+     *     cannot be opened.
+     */
+    public void start() throws GuacamoleException {
+
+        LibCalHttpClient client = httpClient.get();
+        Gauge.builder("libcalcas.http.pool.leased", client,
+                new ToDoubleFunction<LibCalHttpClient>() {
+
+                    @Override
+                    public double applyAsDouble(LibCalHttpClient c) {
+                        return c.getPoolStats().getLeased();
+                    }
+
+                })
+                .description("LibCal connections in use")
+                .register(registry);
+        Gauge.builder("libcalcas.http.pool.available", client,
+                new ToDoubleFunction<LibCalHttpClient>() {
+
+                    @Override
+                    public double applyAsDouble(LibCalHttpClient c) {
+                        return c.getPoolStats().getAvailable();
+                    }
+
+                })
+                .description("Idle pooled LibCal connections")
+                .register(registry);
+        Gauge.builder("libcalcas.http.pool.pending", client,
+                new ToDoubleFunction<LibCalHttpClient>() {
+
+                    @Override
+                    public double applyAsDouble(LibCalHttpClient c) {
+                        return c.getPoolStats().getPending();
+                    }
+
+                })
+                .description("Requests waiting for a LibCal connection")
+                .register(registry);
+        Gauge.builder("libcalcas.http.pool.max", client,
+                new ToDoubleFunction<LibCalHttpClient>() {
+
+                    @Override
+                    public double applyAsDouble(LibCalHttpClient c) {
+                        return c.getPoolStats().getMax();
+                    }
+
+                })
+                .description("Maximum LibCal connections")
+                .register(registry);
+        Gauge.builder("libcalcas.http.pool.usage", client,
+                new ToDoubleFunction<LibCalHttpClient>() {
+
+                    @Override
+                    public double applyAsDouble(LibCalHttpClient c) {
+                        return poolUsage(c);
+                    }
+
+                })
+                .description("Fraction of the LibCal connection pool in use")
+                .register(registry);
+
+        Gauge.builder("libcalcas.libcal.requests.active", client,
+                new ToDoubleFunction<LibCalHttpClient>() {
+
+                    @Override
+                    public double applyAsDouble(LibCalHttpClient c) {
+                        return c.getActiveRequests();
+                    }
+
+                })
+                .description("LibCal requests in progress")
+                .register(registry);
+        Gauge.builder("libcalcas.libcal.requests.queued", client,
+                new ToDoubleFunction<LibCalHttpClient>() {
+
+                    @Override
+                    public double applyAsDouble(LibCalHttpClient c) {
+                        return c.getQueuedRequests();
+                    }
+
+                })
+                .description("LibCal requests waiting for a turn")
+                .register(registry);
+        FunctionCounter.builder("libcalcas.libcal.requests.rejected", client,
+                new ToDoubleFunction<LibCalHttpClient>() {
+
+                    @Override
+                    public double applyAsDouble(LibCalHttpClient c) {
+                        return c.getRejectedRequests();
+                    }
+
+                })
+                .description("LibCal requests refused while the circuit breaker was open")
+                .register(registry);
+        Gauge.builder("libcalcas.libcal.circuit.state", client,
+                new ToDoubleFunction<LibCalHttpClient>() {
+
+                    @Override
+                    public double applyAsDouble(LibCalHttpClient c) {
+                        return c.getCircuitState().ordinal();
+                    }
+
+                })
+                .description("LibCal circuit breaker state: 0 closed, 1 open, 2 half open")
+                .register(registry);
+
+        BookingCache cache = bookingCache.get();
+        FunctionCounter.builder("libcalcas.bookings.cache.requests", cache,
+                new ToDoubleFunction<BookingCache>() {
+
+                    @Override
+                    public double applyAsDouble(BookingCache c) {
+                        return c.getHitCount();
+                    }
+
+                })
+                .description("Booking cache requests, by result")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("libcalcas.bookings.cache.requests", cache,
+                new ToDoubleFunction<BookingCache>() {
+
+                    @Override
+                    public double applyAsDouble(BookingCache c) {
+                        return c.getStaleHitCount();
+                    }
+
+                })
+                .description("Booking cache requests, by result")
+                .tag("result", "stale")
+                .register(registry);
+        FunctionCounter.builder("libcalcas.bookings.cache.requests", cache,
+                new ToDoubleFunction<BookingCache>() {
+
+                    @Override
+                    public double applyAsDouble(BookingCache c) {
+                        return c.getMissCount();
+                    }
+
+                })
+                .description("Booking cache requests, by result")
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("libcalcas.bookings.cache.requests", cache,
+                new ToDoubleFunction<BookingCache>() {
+
+                    @Override
+                    public double applyAsDouble(BookingCache c) {
+                        return c.getFallbackCount();
+                    }
+
+                })
+                .description("Booking cache requests, by result")
+                .tag("result", "fallback")
+                .register(registry);
+        Gauge.builder("libcalcas.bookings.cache.hit.ratio", cache,
+                new ToDoubleFunction<BookingCache>() {
+
+                    @Override
+                    public double applyAsDouble(BookingCache c) {
+                        return hitRatio(c);
+                    }
+
+                })
+                .description("Fraction of booking cache requests served without waiting on LibCal")
+                .register(registry);
+        Gauge.builder("libcalcas.bookings.cache.size", cache,
+                new ToDoubleFunction<BookingCache>() {
+
+                    @Override
+                    public double applyAsDouble(BookingCache c) {
+                        return c.size();
+                    }
+
+                })
+                .description("Cached calendar and date combinations")
+                .register(registry);
+
+        TicketCache tickets = ticketCache.get();
+        FunctionCounter.builder("libcalcas.tickets.cache.requests", tickets,
+                new ToDoubleFunction<TicketCache>() {
+
+                    @Override
+                    public double applyAsDouble(TicketCache c) {
+                        return c.getHitCount();
+                    }
+
+                })
+                .description("CAS ticket cache requests, by result")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("libcalcas.tickets.cache.requests", tickets,
+                new ToDoubleFunction<TicketCache>() {
+
+                    @Override
+                    public double applyAsDouble(TicketCache c) {
+                        return c.getMissCount();
+                    }
+
+                })
+                .description("CAS ticket cache requests, by result")
+                .tag("result", "miss")
+                .register(registry);
+
+        Gauge.builder("libcalcas.admissions", admissionLedger.get(),
+                new ToDoubleFunction<AdmissionLedger>() {
+
+                    @Override
+                    public double applyAsDouble(AdmissionLedger ledger) {
+                        return ledger.size();
+                    }
+
+                })
+                .description("Users admitted whose booking has not yet ended")
+                .register(registry);
+        Gauge.builder("libcalcas.sessions", sessionExpiry.get(),
+                new ToDoubleFunction<SessionExpiry>() {
+
+                    @Override
+                    public double applyAsDouble(SessionExpiry expiry) {
+                        return expiry.size();
+                    }
+
+                })
+                .description("Sessions which will be ended with their booking")
+                .register(registry);
+
+        int port = confService.getMetricsPort();
+        if (port == 0)
+            return;
+
+        String address = confService.getMetricsAddress();
+        try {
+            prometheusServer = HttpServer.create(new InetSocketAddress(address, port), 0);
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException("Unable to serve metrics on "
+                    + address + ":" + port + ".", e);
+        }
+
+        prometheusServer.createContext(PROMETHEUS_PATH, new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = prometheusRegistry.scrape().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", TextFormat.CONTENT_TYPE_004);
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream output = exchange.getResponseBody();
+                try {
+                    output.write(body);
+                }
+                finally {
+                    output.close();
+                }
+            }
+
+        });
+        prometheusServer.start();
+
+    }
+
+    /**
+     * Returns the fraction of the given client's connection pool in use.
+     *
+     * @param client
+     *     The LibCal HTTP client.
+     *
+     * @return
+     *     Leased connections divided by the pool's maximum size.
+     */
+    private static double poolUsage(LibCalHttpClient client) {
+        PoolStats stats = client.getPoolStats();
+        return stats.getMax() == 0 ? 0 : (double) stats.getLeased() / stats.getMax();
+    }
+
+    /**
+     * Returns the fraction of the given cache's requests which were served
+     * from a fresh or stale entry.
+     *
+     * @param cache
+     *     The booking cache.
+     *
+     * @return
+     *     The hit ratio, or NaN if the cache has not been used.
+     */
+    private static double hitRatio(BookingCache cache) {
+        double hits = cache.getHitCount() + cache.getStaleHitCount();
+        double total = hits + cache.getMissCount();
+        return total == 0 ? Double.NaN : hits / total;
+    }
+
+    /**
+     * Starts timing an operation. The returned sample is passed to one of
+     * the record methods once the operation completes.
+     *
+     * @return
+     *     A sample holding the start time.
+     */
+    public Timer.Sample startTimer() {
+        return Timer.start(registry);
+    }
+
+    /**
+     * Records the duration of a login and counts its outcome.
+     *
+     * @param sample
+     *     The sample started when the login began.
+     *
+     * @param outcome
+     *     The outcome of the login.
+     *
+     * @param fallback
+     *     Whether the login was decided from the last fetched bookings
+     *     because LibCal could not be reached.
+     */
+    public void recordLogin(Timer.Sample sample, LoginOutcome outcome,
+            boolean fallback) {
+        sample.stop(loginTimer);
+        (fallback ? fallbackOutcomes : liveOutcomes).get(outcome).increment();
+    }
+
+    /**
+     * Records the duration of a CAS ticket validation.
+     *
+     * @param sample
+     *     The sample started when validation began.
+     */
+    public void recordCasValidation(Timer.Sample sample) {
+        sample.stop(casTimer);
+    }
+
+    /**
+     * Records the duration of a call to the LibCal API.
+     *
+     * @param sample
+     *     The sample started when the call began.
+     *
+     * @param call
+     *     The API called: "token" or "bookings".
+     *
+     * @param success
+     *     Whether the call succeeded.
+     */
+    public void recordLibCalCall(Timer.Sample sample, String call,
+            boolean success) {
+        sample.stop((success ? libCalSuccesses : libCalErrors).get(call));
+    }
+
+    /**
+     * Counts a login turned away for exceeding a rate limit.
+     *
+     * @param scope
+     *     The limit exceeded: "ip" or "global".
+     */
+    public void recordRateLimited(String scope) {
+        rateLimited.get(scope).increment();
+    }
+
+    /**
+     * Counts a booking notification received by the extension.
+     *
+     * @param result
+     *     What became of the notification: "applied", "not_cached",
+     *     "invalid" or "rejected".
+     */
+    public void recordNotification(String result) {
+        notifications.get(result).increment();
+    }
+
+    /**
+     * Stops the Prometheus endpoint and unregisters metrics from JMX.
+     */
+    public void shutdown() {
+        if (prometheusServer != null)
+            prometheusServer.stop(0);
+        registry.close();
+        jmxRegistry.close();
+        prometheusRegistry.close();
+    }
+
+}
@@ -0,0 +1,319 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * A user's admission to a station, valid until the end of the booking
+ * which granted it, together with the Guacamole sessions it created.
+ */
+public class Admission {
+
+    /**
+     * The CAS username of the admitted user.
+     */
+    private final String principal;
+
+    /**
+     * The LibCal id of the station.
+     */
+    private final int eid;
+
+    /**
+     * The name of the station, as returned by
+     * LibCalCalendar.getStationName().
+     */
+    private final String stationName;
+
+    /**
+     * The start of the booking, in milliseconds since the epoch.
+     */
+    private final long start;
+
+    /**
+     * The email address of the booking, under which it is indexed.
+     */
+    private final String identity;
+
+    /**
+     * The LibCal location (lid) of the calendar holding the booking, or
+     * null if not known.
+     */
+    private final String calendarId;
+
+    /**
+     * The date whose bookings held the booking, in yyyy-MM-dd format.
+     */
+    private final String date;
+
+    /**
+     * The time at which this admission was granted, in milliseconds since
+     * the epoch.
+     */
+    private final long admittedAt;
+
+    /**
+     * The time at which the booking stops granting access, in milliseconds
+     * since the epoch.
+     */
+    private final long windowEnd;
+
+    /**
+     * The sessions created by logins this admission granted, which have not
+     * been logged out. Guarded by this admission's lock.
+     */
+    private final List<BookedSession> sessions = new ArrayList<BookedSession>(1);
+
+    /**
+     * The task removing this admission at the end of its window, or null
+     * until it is scheduled.
+     */
+    private volatile ScheduledFuture<?> expiry;
+
+    /**
+     * Creates a new Admission.
+     *
+     * @param principal
+     *     The CAS username of the admitted user.
+     *
+     * @param eid
+     *     The LibCal id of the station.
+     *
+     * @param stationName
+     *     The name of the station.
+     *
+     * @param start
+     *     The start of the booking, in milliseconds since the epoch.
+     *
+     * @param identity
+     *     The email address of the booking.
+     *
+     * @param calendarId
+     *     The LibCal location (lid) of the calendar holding the booking, or
+     *     null if not known.
+     *
+     * @param date
+     *     The date whose bookings held the booking, in yyyy-MM-dd format.
+     *
+     * @param windowEnd
+     *     The time at which the booking stops granting access, in
+     *     milliseconds since the epoch.
+     *
+     * @param admittedAt
+     *     The time at which the admission is granted, in milliseconds since
+     *     the epoch.
+     */
+    public Admission(String principal, int eid, String stationName,
+            long start, String identity, String calendarId, String date,
+            long windowEnd, long admittedAt) {
+        this.principal = principal;
+        this.eid = eid;
+        this.stationName = stationName;
+        this.start = start;
+        this.identity = identity;
+        this.calendarId = calendarId;
+        this.date = date;
+        this.windowEnd = windowEnd;
+        this.admittedAt = admittedAt;
+    }
+
+    /**
+     * Returns the CAS username of the admitted user.
+     *
+     * @return
+     *     The username.
+     */
+    public String getPrincipal() {
+        return principal;
+    }
+
+    /**
+     * Returns the LibCal id of the station.
+     *
+     * @return
+     *     The station's LibCal id.
+     */
+    public int getEid() {
+        return eid;
+    }
+
+    /**
+     * Returns the name of the station, including the group of its calendar
+     * if it has one.
+     *
+     * @return
+     *     The station name.
+     */
+    public String getStationName() {
+        return stationName;
+    }
+
+    /**
+     * Returns the start of the booking which granted this admission.
+     *
+     * @return
+     *     The start of the booking, in milliseconds since the epoch.
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * Returns the email address of the booking which granted this
+     * admission.
+     *
+     * @return
+     *     The booking's email address.
+     */
+    public String getIdentity() {
+        return identity;
+    }
+
+    /**
+     * Returns the LibCal location (lid) of the calendar holding the booking
+     * which granted this admission.
+     *
+     * @return
+     *     The calendar's location id, or null if not known.
+     */
+    public String getCalendarId() {
+        return calendarId;
+    }
+
+    /**
+     * Returns the date whose bookings held the booking which granted this
+     * admission.
+     *
+     * @return
+     *     The date, in yyyy-MM-dd format.
+     */
+    public String getDate() {
+        return date;
+    }
+
+    /**
+     * Returns the time at which this admission was granted.
+     *
+     * @return
+     *     The time of admission, in milliseconds since the epoch.
+     */
+    public long getAdmittedAt() {
+        return admittedAt;
+    }
+
+    /**
+     * Returns the time at which the booking stops granting access.
+     *
+     * @return
+     *     The end of the window, in milliseconds since the epoch.
+     */
+    public long getWindowEnd() {
+        return windowEnd;
+    }
+
+    /**
+     * Returns whether this admission still grants access at the given time.
+     *
+     * @param now
+     *     The time, in milliseconds since the epoch.
+     *
+     * @return
+     *     true if the window has not yet ended, false otherwise.
+     */
+    public boolean isValid(long now) {
+        return now < windowEnd;
+    }
+
+    /**
+     * Records a session created by a login this admission granted, removing
+     * the sessions of every other login, which are to be ended so that the
+     * station is used from only one place at a time.
+     *
+     * @param session
+     *     The new session.
+     *
+     * @return
+     *     The sessions of other logins.
+     */
+    synchronized List<BookedSession> addSession(BookedSession session) {
+
+        List<BookedSession> replaced = new ArrayList<BookedSession>(1);
+        for (BookedSession existing : sessions) {
+            if (existing.getOwner() != session.getOwner())
+                replaced.add(existing);
+        }
+
+        sessions.removeAll(replaced);
+        sessions.add(session);
+        return replaced;
+
+    }
+
+    /**
+     * Forgets a session which has been logged out.
+     *
+     * @param session
+     *     The session logged out.
+     *
+     * @return
+     *     true if this admission has no other session, false otherwise.
+     */
+    synchronized boolean removeSession(BookedSession session) {
+        sessions.remove(session);
+        return sessions.isEmpty();
+    }
+
+    /**
+     * Removes every session of this admission, which are to be ended as its
+     * station has been claimed by another admission or its booking has
+     * been cancelled.
+     *
+     * @return
+     *     The sessions removed.
+     */
+    synchronized List<BookedSession> removeSessions() {
+        List<BookedSession> removed = new ArrayList<BookedSession>(sessions);
+        sessions.clear();
+        return removed;
+    }
+
+    /**
+     * Records the task removing this admission at the end of its window.
+     *
+     * @param expiry
+     *     The scheduled task.
+     */
+    void setExpiry(ScheduledFuture<?> expiry) {
+        this.expiry = expiry;
+    }
+
+    /**
+     * Cancels the task removing this admission, if scheduled.
+     */
+    void cancelExpiry() {
+        ScheduledFuture<?> task = expiry;
+        if (task != null)
+            task.cancel(false);
+    }
+
+}
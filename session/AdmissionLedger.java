@@ -0,0 +1,347 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.session;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import java.time.Clock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.auth.cas.libcal.Booking;
+import org.apache.guacamole.auth.cas.libcal.BookingEvaluator;
+import org.apache.guacamole.auth.cas.libcal.BookingIndex;
+import org.apache.guacamole.auth.cas.libcal.BookingListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Record of the users admitted to a station, kept until the end of the
+ * booking which admitted them. A user whose tunnel drops and who logs in
+ * again during the same booking is admitted again from this record, once
+ * CAS has identified them, without looking their bookings up again. Each
+ * admission is removed by a task on the SessionScheduler due at the end of
+ * its window, so expired admissions are never searched for.
+ *
+ * Each admission also claims its station, so that two users matching the
+ * same station are never admitted to it at once. Claims are made by
+ * compare-and-set on a map of station to admission, without locks. A claim
+ * is refused while the station is held by another user's admission whose
+ * booking started no earlier, and otherwise replaces it: an admission of
+ * the same user, or of an earlier booking in its grace period, gives way,
+ * and its sessions are ended. Claims are released at the end of their
+ * window, or when the last session of their admission is logged out.
+ *
+ * Whenever cached bookings change, each admission they cover is checked
+ * against them, and an admission whose booking has been cancelled, moved or
+ * given a status which is not accepted is removed and its sessions ended.
+ */
+@Singleton
+public class AdmissionLedger implements BookingListener {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionLedger.class);
+
+    /**
+     * The longest a fetch of bookings may take, in milliseconds. An
+     * admission granted more recently may have come from bookings fetched
+     * after those just published, which are then not trusted to revoke it.
+     */
+    private static final long FETCH_AGE = 60000;
+
+    /**
+     * The current admissions, keyed by CAS username.
+     */
+    private final ConcurrentMap<String, Admission> admissions =
+            new ConcurrentHashMap<String, Admission>();
+
+    /**
+     * The admission holding each claimed station, keyed by station name.
+     */
+    private final ConcurrentMap<String, Admission> stations =
+            new ConcurrentHashMap<String, Admission>();
+
+    /**
+     * Timer removing admissions at the end of their windows.
+     */
+    @Inject
+    private SessionScheduler scheduler;
+
+    /**
+     * Provider for the service ending the sessions of admissions which give
+     * way to another.
+     */
+    @Inject
+    private Provider<SessionExpiry> sessionExpiry;
+
+    /**
+     * Service deciding whether a booking's status grants access.
+     */
+    @Inject
+    private BookingEvaluator bookingEvaluator;
+
+    /**
+     * The clock against which windows are checked.
+     */
+    @Inject
+    private Clock clock;
+
+    /**
+     * Returns the admission of the given user, if its window has not yet
+     * ended and it still holds its station.
+     *
+     * @param principal
+     *     The CAS username of the user.
+     *
+     * @return
+     *     The user's admission, or null if the user has none in force.
+     */
+    public Admission find(String principal) {
+        Admission admission = admissions.get(principal);
+        if (admission == null || !admission.isValid(clock.millis())
+                || stations.get(admission.getStationName()) != admission)
+            return null;
+        return admission;
+    }
+
+    /**
+     * Returns the admission holding the given station, if its window has not
+     * yet ended.
+     *
+     * @param stationName
+     *     The name of the station, including the group of its calendar if
+     *     it has one.
+     *
+     * @return
+     *     The station's admission, or null if it has none in force.
+     */
+    public Admission findByStation(String stationName) {
+        Admission admission = stations.get(stationName);
+        if (admission == null || !admission.isValid(clock.millis()))
+            return null;
+        return admission;
+    }
+
+    /**
+     * Admits the given user to the station of the given booking until the
+     * given time, if no other user holds it. Any earlier admission of the
+     * same user is replaced.
+     *
+     * @param principal
+     *     The CAS username of the user.
+     *
+     * @param booking
+     *     The booking granting access.
+     *
+     * @param stationName
+     *     The name of the station, including the group of its calendar if
+     *     it has one.
+     *
+     * @param date
+     *     The date whose bookings held the booking, in yyyy-MM-dd format.
+     *
+     * @param windowEnd
+     *     The time at which the booking stops granting access, in
+     *     milliseconds since the epoch.
+     *
+     * @return
+     *     The new admission, or null if another user holds the station.
+     */
+    public Admission claim(String principal, Booking booking,
+            String stationName, String date, long windowEnd) {
+
+        int eid = booking.getEid();
+        long start = booking.getStart();
+        final Admission admission = new Admission(principal, eid, stationName,
+                start, booking.getEmail(), booking.getCalendarId(), date,
+                windowEnd, clock.millis());
+
+        // Take the station unless another user's booking holds it
+        Admission holder;
+        do {
+            holder = stations.get(stationName);
+            if (holder == null) {
+                if (stations.putIfAbsent(stationName, admission) == null)
+                    break;
+            }
+            else if (holder.isValid(clock.millis())
+                    && !holder.getPrincipal().equals(principal)
+                    && holder.getStart() >= start)
+                return null;
+            else if (stations.replace(stationName, holder, admission))
+                break;
+        } while (true);
+
+        if (holder != null)
+            giveWay(holder);
+
+        Admission previous = admissions.put(principal, admission);
+        if (previous != null && previous != holder)
+            forget(previous);
+
+        admission.setExpiry(scheduler.scheduleAt(new Runnable() {
+
+            @Override
+            public void run() {
+                release(admission);
+            }
+
+        }, windowEnd));
+
+        return admission;
+
+    }
+
+    /**
+     * Forgets the admission of the given user, so that their next login
+     * looks up their bookings again. The sessions of the admission are left
+     * to end with its window.
+     *
+     * @param principal
+     *     The CAS username of the user.
+     */
+    public void revoke(String principal) {
+        Admission admission = admissions.remove(principal);
+        if (admission != null)
+            forget(admission);
+    }
+
+    @Override
+    public void bookingsChanged(String calendarId, String date,
+            BookingIndex bookings, boolean fetched) {
+
+        long now = clock.millis();
+        for (Admission admission : admissions.values()) {
+
+            if (!calendarId.equals(admission.getCalendarId())
+                    || !date.equals(admission.getDate())
+                    || (fetched && now - admission.getAdmittedAt() < FETCH_AGE))
+                continue;
+
+            try {
+                if (isBooked(admission, bookings))
+                    continue;
+            }
+            catch (GuacamoleException e) {
+                logger.warn("Unable to check admission to station {}: {}",
+                        admission.getStationName(), e.getMessage());
+                logger.debug("Checking an admission failed.", e);
+                continue;
+            }
+
+            logger.info("Booking cancelled: station={}", admission.getStationName());
+            end(admission);
+
+        }
+
+    }
+
+    /**
+     * Returns whether the given bookings still hold the booking which
+     * granted the given admission, with a status which is accepted.
+     *
+     * @param admission
+     *     The admission to check.
+     *
+     * @param bookings
+     *     The bookings of the admission's calendar and date.
+     *
+     * @return
+     *     true if the admission's booking is held and accepted, false
+     *     otherwise.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    private boolean isBooked(Admission admission, BookingIndex bookings)
+            throws GuacamoleException {
+        for (Booking booking : bookings.getBookings(admission.getIdentity())) {
+            if (booking.getEid() == admission.getEid()
+                    && booking.getStart() == admission.getStart())
+                return bookingEvaluator.isAccepted(booking);
+        }
+        return false;
+    }
+
+    /**
+     * Removes the given admission and releases its station, if it has not
+     * already been replaced.
+     *
+     * @param admission
+     *     The admission to remove.
+     */
+    void release(Admission admission) {
+        admissions.remove(admission.getPrincipal(), admission);
+        forget(admission);
+    }
+
+    /**
+     * Removes an admission whose booking no longer grants access, releases
+     * its station and ends its sessions.
+     *
+     * @param admission
+     *     The admission to end.
+     */
+    private void end(Admission admission) {
+        if (!admissions.remove(admission.getPrincipal(), admission))
+            return;
+        forget(admission);
+        sessionExpiry.get().end(admission.removeSessions());
+    }
+
+    /**
+     * Ends the sessions of an admission whose station has been claimed by
+     * another, and forgets it.
+     *
+     * @param holder
+     *     The admission which held the station.
+     */
+    private void giveWay(Admission holder) {
+        admissions.remove(holder.getPrincipal(), holder);
+        holder.cancelExpiry();
+        sessionExpiry.get().end(holder.removeSessions());
+    }
+
+    /**
+     * Releases the station of the given admission, if it still holds it,
+     * and cancels the admission's expiry.
+     *
+     * @param admission
+     *     The admission to forget.
+     */
+    private void forget(Admission admission) {
+        stations.remove(admission.getStationName(), admission);
+        admission.cancelExpiry();
+    }
+
+    /**
+     * Returns the number of admissions recorded.
+     *
+     * @return
+     *     The number of admissions.
+     */
+    public int size() {
+        return admissions.size();
+    }
+
+}
@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.session;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.net.auth.AuthenticatedUser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A Guacamole session created by a login which a booking granted, together
+ * with the tunnels opened through it. When the booking's access ends, or the
+ * station is taken over by another login, the tunnels are closed and no more
+ * may be opened.
+ */
+public class BookedSession {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(BookedSession.class);
+
+    /**
+     * The admission which created this session.
+     */
+    private final Admission admission;
+
+    /**
+     * The user whose login created this session.
+     */
+    private final AuthenticatedUser owner;
+
+    /**
+     * The tunnels currently open through this session.
+     */
+    private final Set<BookedTunnel> tunnels =
+            Collections.newSetFromMap(new ConcurrentHashMap<BookedTunnel, Boolean>());
+
+    /**
+     * The time at which access ends, as shown in warnings, or null if no
+     * warning has been given yet.
+     */
+    private volatile String warning;
+
+    /**
+     * Whether access has ended.
+     */
+    private volatile boolean ended;
+
+    /**
+     * The tasks warning of and ending this session, cancelled if the session
+     * is logged out first.
+     */
+    private volatile ScheduledFuture<?>[] tasks = new ScheduledFuture<?>[0];
+
+    /**
+     * Creates a new BookedSession.
+     *
+     * @param admission
+     *     The admission which created this session.
+     *
+     * @param owner
+     *     The user whose login created this session.
+     */
+    BookedSession(Admission admission, AuthenticatedUser owner) {
+        this.admission = admission;
+        this.owner = owner;
+    }
+
+    /**
+     * Returns the admission which created this session.
+     *
+     * @return
+     *     The admission.
+     */
+    public Admission getAdmission() {
+        return admission;
+    }
+
+    /**
+     * Returns the user whose login created this session. Sessions created
+     * by the same login share the same user object.
+     *
+     * @return
+     *     The user.
+     */
+    public AuthenticatedUser getOwner() {
+        return owner;
+    }
+
+    /**
+     * Returns whether the booking's access has ended.
+     *
+     * @return
+     *     true if no more tunnels may be opened, false otherwise.
+     */
+    public boolean isEnded() {
+        return ended;
+    }
+
+    /**
+     * Records a tunnel opened through this session. A tunnel opened just as
+     * access ends is closed at once, and one opened after the warning is
+     * warned at once.
+     *
+     * @param tunnel
+     *     The tunnel opened.
+     */
+    void add(BookedTunnel tunnel) {
+
+        tunnels.add(tunnel);
+
+        String endsAt = warning;
+        if (endsAt != null)
+            tunnel.warn(endsAt);
+
+        if (ended)
+            close(tunnel);
+
+    }
+
+    /**
+     * Forgets a tunnel which has been closed.
+     *
+     * @param tunnel
+     *     The tunnel closed.
+     */
+    void remove(BookedTunnel tunnel) {
+        tunnels.remove(tunnel);
+    }
+
+    /**
+     * Warns every open tunnel that access ends at the given time.
+     *
+     * @param endsAt
+     *     The time at which access ends, formatted for display.
+     */
+    void warn(String endsAt) {
+        warning = endsAt;
+        for (BookedTunnel tunnel : tunnels)
+            tunnel.warn(endsAt);
+    }
+
+    /**
+     * Ends access, closing every open tunnel. Ending a session twice has no
+     * further effect.
+     */
+    void end() {
+        ended = true;
+        for (BookedTunnel tunnel : tunnels)
+            close(tunnel);
+    }
+
+    /**
+     * Closes the given tunnel, logging any failure.
+     *
+     * @param tunnel
+     *     The tunnel to close.
+     */
+    private void close(BookedTunnel tunnel) {
+        try {
+            tunnel.close();
+        }
+        catch (GuacamoleException e) {
+            logger.warn("Unable to close tunnel at the end of a booking: {}",
+                    e.getMessage());
+            logger.debug("Closing the tunnel failed.", e);
+        }
+    }
+
+    /**
+     * Records the tasks warning of and ending this session.
+     *
+     * @param tasks
+     *     The scheduled tasks.
+     */
+    void setTasks(ScheduledFuture<?>... tasks) {
+        this.tasks = tasks;
+    }
+
+    /**
+     * Cancels the tasks warning of and ending this session.
+     */
+    void cancel() {
+        for (ScheduledFuture<?> task : tasks)
+            task.cancel(false);
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.session;
+
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.io.GuacamoleReader;
+import org.apache.guacamole.net.DelegatingGuacamoleTunnel;
+import org.apache.guacamole.net.GuacamoleTunnel;
+import org.apache.guacamole.protocol.GuacamoleInstruction;
+
+/**
+ * Tunnel opened through a BookedSession, which the session closes when the
+ * booking's access ends. Guacamole 1.1 has no instruction for showing a
+ * message, so a warning is given by renaming the connection, through a
+ * "name" instruction slipped in between the instructions read from guacd.
+ */
+class BookedTunnel extends DelegatingGuacamoleTunnel {
+
+    /**
+     * The session through which this tunnel was opened.
+     */
+    private final BookedSession session;
+
+    /**
+     * The name of the connection.
+     */
+    private final String name;
+
+    /**
+     * The "name" instruction waiting to be sent, or null if none is.
+     */
+    private final AtomicReference<GuacamoleInstruction> pending =
+            new AtomicReference<GuacamoleInstruction>();
+
+    /**
+     * Creates a new BookedTunnel.
+     *
+     * @param tunnel
+     *     The tunnel opened by the connection.
+     *
+     * @param session
+     *     The session through which the tunnel was opened.
+     *
+     * @param name
+     *     The name of the connection.
+     */
+    BookedTunnel(GuacamoleTunnel tunnel, BookedSession session, String name) {
+        super(tunnel);
+        this.session = session;
+        this.name = name;
+    }
+
+    /**
+     * Renames the connection to show the time at which access ends. The
+     * instruction is sent with the next instructions read from guacd.
+     *
+     * @param endsAt
+     *     The time at which access ends, formatted for display.
+     */
+    void warn(String endsAt) {
+        pending.set(new GuacamoleInstruction("name",
+                name + " (ends at " + endsAt + ")"));
+    }
+
+    @Override
+    public GuacamoleReader acquireReader() {
+
+        final GuacamoleReader reader = super.acquireReader();
+        return new GuacamoleReader() {
+
+            @Override
+            public boolean available() throws GuacamoleException {
+                return pending.get() != null || reader.available();
+            }
+
+            @Override
+            public char[] read() throws GuacamoleException {
+                GuacamoleInstruction instruction = pending.getAndSet(null);
+                if (instruction != null)
+                    return instruction.toString().toCharArray();
+                return reader.read();
+            }
+
+            @Override
+            public GuacamoleInstruction readInstruction()
+                    throws GuacamoleException {
+                GuacamoleInstruction instruction = pending.getAndSet(null);
+                if (instruction != null)
+                    return instruction;
+                return reader.readInstruction();
+            }
+
+        };
+
+    }
+
+    @Override
+    public void close() throws GuacamoleException {
+        session.remove(this);
+        super.close();
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.session;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleSecurityException;
+import org.apache.guacamole.net.GuacamoleTunnel;
+import org.apache.guacamole.net.auth.Connection;
+import org.apache.guacamole.net.auth.DelegatingConnection;
+import org.apache.guacamole.net.auth.DelegatingDirectory;
+import org.apache.guacamole.net.auth.DelegatingUserContext;
+import org.apache.guacamole.net.auth.Directory;
+import org.apache.guacamole.net.auth.UserContext;
+import org.apache.guacamole.protocol.GuacamoleClientInformation;
+
+/**
+ * UserContext whose connections open tunnels tracked by a BookedSession, and
+ * refuse to connect once the session's booking has ended. The session's
+ * warning and end are cancelled when the context is invalidated on logout.
+ */
+class BookedUserContext extends DelegatingUserContext {
+
+    /**
+     * The session to which tunnels opened through this context belong.
+     */
+    private final BookedSession session;
+
+    /**
+     * The service which ends the session, notified on logout.
+     */
+    private final SessionExpiry sessionExpiry;
+
+    /**
+     * Creates a new BookedUserContext.
+     *
+     * @param userContext
+     *     The UserContext to decorate.
+     *
+     * @param session
+     *     The session to which tunnels opened through this context belong.
+     *
+     * @param sessionExpiry
+     *     The service which ends the session.
+     */
+    BookedUserContext(UserContext userContext, BookedSession session,
+            SessionExpiry sessionExpiry) {
+        super(userContext);
+        this.session = session;
+        this.sessionExpiry = sessionExpiry;
+    }
+
+    /**
+     * Decorates the given connection so that its tunnels belong to this
+     * context's session.
+     *
+     * @param connection
+     *     The connection to decorate, or null.
+     *
+     * @return
+     *     The decorated connection, or null if the connection was null.
+     */
+    private Connection decorate(Connection connection) {
+
+        if (connection == null)
+            return null;
+
+        return new DelegatingConnection(connection) {
+
+            @Override
+            public GuacamoleTunnel connect(GuacamoleClientInformation info,
+                    Map<String, String> tokens) throws GuacamoleException {
+
+                if (session.isEnded())
+                    throw new GuacamoleSecurityException("This session no longer has access to the station.");
+
+                BookedTunnel tunnel = new BookedTunnel(
+                        super.connect(info, tokens), session, getName());
+                session.add(tunnel);
+                return tunnel;
+
+            }
+
+        };
+
+    }
+
+    @Override
+    public Directory<Connection> getConnectionDirectory()
+            throws GuacamoleException {
+        return new DelegatingDirectory<Connection>(super.getConnectionDirectory()) {
+
+            @Override
+            public Connection get(String identifier) throws GuacamoleException {
+                return decorate(super.get(identifier));
+            }
+
+            @Override
+            public Collection<Connection> getAll(Collection<String> identifiers)
+                    throws GuacamoleException {
+                Collection<Connection> connections = super.getAll(identifiers);
+                Collection<Connection> decorated =
+                        new ArrayList<Connection>(connections.size());
+                for (Connection connection : connections)
+                    decorated.add(decorate(connection));
+                return decorated;
+            }
+
+        };
+    }
+
+    @Override
+    public void invalidate() {
+        sessionExpiry.release(session);
+        super.invalidate();
+    }
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.session;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.auth.cas.conf.ConfigurationService;
+import org.apache.guacamole.net.auth.AuthenticatedUser;
+import org.apache.guacamole.net.auth.UserContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ends Guacamole sessions when the booking which admitted them ends, rather
+ * than leaving them open until they time out. A configurable number of
+ * minutes beforehand, each open connection is warned; at the end of the
+ * booking's access window, every tunnel is closed and no more may be opened.
+ * Both are tasks on the shared SessionScheduler, so any number of sessions
+ * needs no thread of its own. A later login to the same admission ends the
+ * sessions of earlier logins, so that a station is used from one place at a
+ * time.
+ */
+@Singleton
+public class SessionExpiry {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(SessionExpiry.class);
+
+    /**
+     * Format of the time at which access ends, as shown in warnings.
+     */
+    private static final DateTimeFormatter END_FORMAT =
+            DateTimeFormatter.ofPattern("HH:mm");
+
+    /**
+     * Service for retrieving CAS and LibCal configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Timer on which sessions are warned and ended.
+     */
+    @Inject
+    private SessionScheduler scheduler;
+
+    /**
+     * Record of admitted users, whose claims on stations are released when
+     * they log out.
+     */
+    @Inject
+    private AdmissionLedger admissionLedger;
+
+    /**
+     * The clock in whose time zone the end of access is shown.
+     */
+    @Inject
+    private Clock clock;
+
+    /**
+     * The sessions which have not yet ended or been logged out.
+     */
+    private final Set<BookedSession> sessions =
+            Collections.newSetFromMap(new ConcurrentHashMap<BookedSession, Boolean>());
+
+    /**
+     * Ties the given UserContext to the window of the given admission,
+     * returning a UserContext whose tunnels are closed when the window ends.
+     *
+     * @param userContext
+     *     The UserContext of the session created by the admitted login.
+     *
+     * @param admission
+     *     The admission which granted the login.
+     *
+     * @param owner
+     *     The user whose login created the session.
+     *
+     * @return
+     *     A UserContext decorating the given one.
+     *
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public UserContext attach(UserContext userContext,
+            final Admission admission, AuthenticatedUser owner)
+            throws GuacamoleException {
+
+        final BookedSession session = new BookedSession(admission, owner);
+        final long windowEnd = admission.getWindowEnd();
+        sessions.add(session);
+
+        // The same user logging in again takes the station over
+        List<BookedSession> replaced = admission.addSession(session);
+        if (!replaced.isEmpty()) {
+            logger.info("Station taken over by a new login: station={}",
+                    admission.getStationName());
+            end(replaced);
+        }
+
+        ScheduledFuture<?> end = scheduler.scheduleAt(new Runnable() {
+
+            @Override
+            public void run() {
+                logger.info("Booking ended: station={}", admission.getStationName());
+                end(Collections.singletonList(session));
+            }
+
+        }, windowEnd);
+
+        long lead = TimeUnit.MINUTES.toMillis(confService.getSessionWarningMins());
+        if (lead == 0)
+            session.setTasks(end);
+        else {
+            final String endsAt = END_FORMAT.format(
+                    Instant.ofEpochMilli(windowEnd).atZone(clock.getZone()));
+            session.setTasks(end, scheduler.scheduleAt(new Runnable() {
+
+                @Override
+                public void run() {
+                    session.warn(endsAt);
+                }
+
+            }, windowEnd - lead));
+        }
+
+        return new BookedUserContext(userContext, session, this);
+
+    }
+
+    /**
+     * Ends the given sessions, closing their tunnels.
+     *
+     * @param ended
+     *     The sessions to end.
+     */
+    void end(List<BookedSession> ended) {
+        for (BookedSession session : ended) {
+            session.cancel();
+            sessions.remove(session);
+            session.end();
+        }
+    }
+
+    /**
+     * Stops tracking the given session, which has been logged out. Once the
+     * last session of its admission is logged out, the station is released
+     * for others.
+     *
+     * @param session
+     *     The session logged out.
+     */
+    void release(BookedSession session) {
+        session.cancel();
+        sessions.remove(session);
+        Admission admission = session.getAdmission();
+        if (admission.removeSession(session))
+            admissionLedger.release(admission);
+    }
+
+    /**
+     * Returns the number of sessions which have not yet ended or been logged
+     * out.
+     *
+     * @return
+     *     The number of sessions tracked.
+     */
+    public int size() {
+        return sessions.size();
+    }
+
+}
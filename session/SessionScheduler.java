@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.session;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.time.Clock;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single timer on which every task tied to the end of a booking runs. Tasks
+ * wait in one priority queue ordered by due time, so thousands of admitted
+ * users cost one thread, and nothing is ever scanned to find what is due.
+ * Cancelled tasks are removed from the queue at once.
+ */
+@Singleton
+public class SessionScheduler {
+
+    /**
+     * The clock against which due times are measured.
+     */
+    private final Clock clock;
+
+    /**
+     * The executor running due tasks, on a single daemon thread.
+     */
+    private final ScheduledThreadPoolExecutor executor;
+
+    /**
+     * Creates a new SessionScheduler.
+     *
+     * @param clock
+     *     The clock against which due times are measured.
+     */
+    @Inject
+    public SessionScheduler(Clock clock) {
+        this.clock = clock;
+        this.executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "libcalcas-session-timer");
+                thread.setDaemon(true);
+                return thread;
+            }
+
+        });
+        this.executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Runs the given task at the given time, or at once if that time has
+     * passed. Tasks must be short, as they share one thread.
+     *
+     * @param task
+     *     The task to run.
+     *
+     * @param time
+     *     The time at which to run the task, in milliseconds since the
+     *     epoch.
+     *
+     * @return
+     *     A future through which the task may be cancelled.
+     */
+    public ScheduledFuture<?> scheduleAt(Runnable task, long time) {
+        return executor.schedule(task, Math.max(0, time - clock.millis()),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the number of tasks waiting to run.
+     *
+     * @return
+     *     The number of scheduled tasks.
+     */
+    public int size() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Cancels every waiting task and stops the timer thread.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,343 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.ticket;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.auth.cas.conf.ConfigurationService;
+import org.apache.guacamole.auth.cas.util.SingleFlight;
+import org.apache.guacamole.net.auth.Credentials;
+
+/**
+ * Short-lived cache of validated CAS tickets. The Guacamole client often
+ * submits the same ticket several times in quick succession, as pages are
+ * reloaded and tunnels reconnect. Resubmissions from the same address within
+ * the configured TTL reuse the result of the first validation rather than
+ * calling CAS again, and concurrent submissions share one validation.
+ * Tickets are held only as SHA-256 hashes, failed validations are never
+ * cached, and no entry is used after its TTL has passed.
+ */
+@Singleton
+public class TicketCache {
+
+    /**
+     * Service for retrieving CAS and LibCal configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * Service for validating received ID tickets.
+     */
+    @Inject
+    private TicketValidationService ticketService;
+
+    /**
+     * The clock against which entries expire.
+     */
+    @Inject
+    private Clock clock;
+
+    /**
+     * Validated tickets, keyed by the hash of the submitting address and the
+     * ticket.
+     */
+    private final ConcurrentMap<String, Entry> entries =
+            new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Validations currently in progress. Submissions of a ticket with a
+     * validation in progress wait on that validation instead of starting
+     * their own.
+     */
+    private final SingleFlight<String, Entry> inFlight =
+            new SingleFlight<String, Entry>();
+
+    /**
+     * The number of submissions answered from the cache.
+     */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * The number of submissions which waited on a validation by CAS.
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * The outcome of a successful validation: the user identified by CAS
+     * and the tokens derived from their attributes.
+     */
+    private static class Entry {
+
+        /**
+         * The username identified by CAS.
+         */
+        private final String username;
+
+        /**
+         * The password decrypted from ClearPass, or null if none.
+         */
+        private final String password;
+
+        /**
+         * The tokens derived from the user's CAS attributes.
+         */
+        private final Map<String, String> tokens;
+
+        /**
+         * The time after which the entry must not be used, in milliseconds
+         * since the epoch.
+         */
+        private final long expiresAt;
+
+        /**
+         * Creates a new Entry.
+         *
+         * @param username
+         *     The username identified by CAS.
+         *
+         * @param password
+         *     The password decrypted from ClearPass, or null if none.
+         *
+         * @param tokens
+         *     The tokens derived from the user's CAS attributes.
+         *
+         * @param expiresAt
+         *     The time after which the entry must not be used.
+         */
+        private Entry(String username, String password,
+                Map<String, String> tokens, long expiresAt) {
+            this.username = username;
+            this.password = password;
+            this.tokens = Collections.unmodifiableMap(
+                    new HashMap<String, String>(tokens));
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * Sets the username and password of the given credentials as CAS
+         * validation would have.
+         *
+         * @param credentials
+         *     The credentials of the submission being answered.
+         *
+         * @return
+         *     The tokens derived from the user's CAS attributes.
+         */
+        private Map<String, String> applyTo(Credentials credentials) {
+            credentials.setUsername(username);
+            if (password != null)
+                credentials.setPassword(password);
+            return tokens;
+        }
+
+    }
+
+    /**
+     * Validates the given ticket, reusing the result of an earlier
+     * validation of the same ticket from the same address if it has not
+     * expired. As with TicketValidationService, the username, and password
+     * if ClearPass is in use, of the given credentials are set.
+     *
+     * @param ticket
+     *     The CAS ticket to validate.
+     *
+     * @param credentials
+     *     The credentials of the submission.
+     *
+     * @return
+     *     The tokens derived from the user's CAS attributes.
+     *
+     * @throws GuacamoleException
+     *     If the ticket is not valid, or CAS cannot be reached.
+     */
+    public Map<String, String> validateTicket(final String ticket,
+            final Credentials credentials) throws GuacamoleException {
+
+        final long ttl = TimeUnit.SECONDS.toMillis(confService.getTicketCacheTTL());
+        if (ttl == 0)
+            return ticketService.validateTicket(ticket, credentials);
+
+        final String key = hash(credentials.getRemoteAddress(), ticket);
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            if (clock.millis() < entry.expiresAt) {
+                hits.increment();
+                return entry.applyTo(credentials);
+            }
+            entries.remove(key, entry);
+        }
+
+        misses.increment();
+
+        Future<Entry> validation = inFlight.execute(key, new Callable<Entry>() {
+
+            @Override
+            public Entry call() throws GuacamoleException {
+                Map<String, String> tokens = ticketService.validateTicket(ticket, credentials);
+                Entry validated = new Entry(credentials.getUsername(),
+                        credentials.getPassword(), tokens, clock.millis() + ttl);
+                if (validated.username != null)
+                    store(key, validated);
+                return validated;
+            }
+
+        });
+
+        try {
+            return validation.get().applyTo(credentials);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GuacamoleServerException("Interrupted while validating CAS ticket.", e);
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof GuacamoleException)
+                throw (GuacamoleException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new GuacamoleServerException("Unable to validate CAS ticket.", cause);
+        }
+
+    }
+
+    /**
+     * Stores the given entry, removing expired entries, then the entries
+     * closest to expiry, if the cache is full.
+     *
+     * @param key
+     *     The key of the entry.
+     *
+     * @param entry
+     *     The entry to store.
+     *
+     * @throws GuacamoleException
+     *     If the cache size cannot be read from guacamole.properties.
+     */
+    private void store(String key, Entry entry) throws GuacamoleException {
+
+        entries.put(key, entry);
+
+        int maxEntries = confService.getTicketCacheSize();
+        if (entries.size() <= maxEntries)
+            return;
+
+        long now = clock.millis();
+        Iterator<Entry> values = entries.values().iterator();
+        while (values.hasNext()) {
+            if (values.next().expiresAt <= now)
+                values.remove();
+        }
+
+        while (entries.size() > maxEntries) {
+
+            Map.Entry<String, Entry> oldest = null;
+            for (Map.Entry<String, Entry> candidate : entries.entrySet()) {
+                if (oldest == null
+                        || candidate.getValue().expiresAt < oldest.getValue().expiresAt)
+                    oldest = candidate;
+            }
+
+            if (oldest == null)
+                break;
+
+            entries.remove(oldest.getKey(), oldest.getValue());
+
+        }
+
+    }
+
+    /**
+     * Returns the hex-encoded SHA-256 hash of the given address and ticket,
+     * so that tickets are not held in memory in the clear.
+     *
+     * @param remoteAddress
+     *     The address from which the ticket was submitted, possibly null.
+     *
+     * @param ticket
+     *     The CAS ticket.
+     *
+     * @return
+     *     The hash, as 64 hexadecimal digits.
+     */
+    private static String hash(String remoteAddress, String ticket) {
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+
+        if (remoteAddress != null)
+            digest.update(remoteAddress.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        byte[] hash = digest.digest(ticket.getBytes(StandardCharsets.UTF_8));
+
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = Character.forDigit((hash[i] >> 4) & 0xF, 16);
+            hex[i * 2 + 1] = Character.forDigit(hash[i] & 0xF, 16);
+        }
+        return new String(hex);
+
+    }
+
+    /**
+     * Returns the number of submissions answered from the cache.
+     *
+     * @return
+     *     The number of hits since startup.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of submissions which waited on a validation by
+     * CAS.
+     *
+     * @return
+     *     The number of misses since startup.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+}
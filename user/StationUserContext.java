@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.user;
+
+import java.util.Collections;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.auth.cas.conf.StationConnection;
+import org.apache.guacamole.net.auth.AbstractUserContext;
+import org.apache.guacamole.net.auth.AuthenticationProvider;
+import org.apache.guacamole.net.auth.Connection;
+import org.apache.guacamole.net.auth.Directory;
+import org.apache.guacamole.net.auth.User;
+import org.apache.guacamole.net.auth.permission.ObjectPermissionSet;
+import org.apache.guacamole.net.auth.simple.SimpleConnection;
+import org.apache.guacamole.net.auth.simple.SimpleDirectory;
+import org.apache.guacamole.net.auth.simple.SimpleObjectPermissionSet;
+import org.apache.guacamole.net.auth.simple.SimpleUser;
+
+/**
+ * UserContext granting access to the one station a user has booked, so that
+ * no other extension needs to look the station up. The station's
+ * connection is placed directly within the root connection group, under an
+ * identifier free of slashes.
+ */
+public class StationUserContext extends AbstractUserContext {
+
+    /**
+     * The AuthenticationProvider that created this UserContext.
+     */
+    private final AuthenticationProvider authProvider;
+
+    /**
+     * The user whose access this context describes, able to read the
+     * station's connection and the root connection group.
+     */
+    private final User self;
+
+    /**
+     * Directory containing only the station's connection.
+     */
+    private final Directory<Connection> connectionDirectory;
+
+    /**
+     * Creates a new StationUserContext granting the given user access to the
+     * given station.
+     *
+     * @param authProvider
+     *     The AuthenticationProvider creating this UserContext.
+     *
+     * @param username
+     *     The identifier of the authenticated user.
+     *
+     * @param station
+     *     The station the user has booked.
+     */
+    public StationUserContext(AuthenticationProvider authProvider,
+            String username, StationConnection station) {
+
+        this.authProvider = authProvider;
+
+        // Parameter tokens such as ${GUAC_USERNAME} are substituted on connect
+        Connection connection = new SimpleConnection(station.getName(),
+                station.getIdentifier(), station.getConfiguration(), true);
+        connection.setParentIdentifier(DEFAULT_ROOT_CONNECTION_GROUP);
+        this.connectionDirectory = new SimpleDirectory<Connection>(connection);
+
+        final ObjectPermissionSet connectionPermissions =
+                new SimpleObjectPermissionSet(
+                        Collections.singleton(station.getIdentifier()));
+        final ObjectPermissionSet groupPermissions =
+                new SimpleObjectPermissionSet(
+                        Collections.singleton(DEFAULT_ROOT_CONNECTION_GROUP));
+
+        this.self = new SimpleUser(username) {
+
+            @Override
+            public ObjectPermissionSet getConnectionPermissions()
+                    throws GuacamoleException {
+                return connectionPermissions;
+            }
+
+            @Override
+            public ObjectPermissionSet getConnectionGroupPermissions()
+                    throws GuacamoleException {
+                return groupPermissions;
+            }
+
+        };
+
+    }
+
+    @Override
+    public User self() {
+        return self;
+    }
+
+    @Override
+    public AuthenticationProvider getAuthenticationProvider() {
+        return authProvider;
+    }
+
+    @Override
+    public Directory<Connection> getConnectionDirectory()
+            throws GuacamoleException {
+        return connectionDirectory;
+    }
+
+}
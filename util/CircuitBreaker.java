@@ -0,0 +1,337 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.util;
+
+import java.time.Clock;
+
+/**
+ * Circuit breaker which stops calls to an upstream service once too many of
+ * its recent calls have failed or been slow. The outcomes of the most recent
+ * calls are kept in a fixed-size window. Once the window is full and either
+ * the failure rate or the slow call rate reaches its threshold, the circuit
+ * opens and calls are refused without being attempted. After the open
+ * period, a single trial call is allowed through: if it succeeds the circuit
+ * closes, otherwise it opens again. Each call is given a permit naming the
+ * state it was allowed in, so that a call outlasting that state, such as a
+ * slow call still in flight when the trial starts, cannot decide the trial.
+ */
+public class CircuitBreaker {
+
+    /**
+     * The permit returned by tryAcquire() for a call which may not be
+     * attempted.
+     */
+    public static final long REFUSED = -1;
+
+    /**
+     * The states of a circuit breaker.
+     */
+    public enum State {
+
+        /**
+         * Calls are allowed and their outcomes recorded.
+         */
+        CLOSED,
+
+        /**
+         * Calls are refused until the open period has passed.
+         */
+        OPEN,
+
+        /**
+         * A single trial call is allowed to decide whether the circuit
+         * closes again.
+         */
+        HALF_OPEN
+
+    }
+
+    /**
+     * The percentage of failed calls in the window at which the circuit
+     * opens.
+     */
+    private final int failureRateThreshold;
+
+    /**
+     * The percentage of slow calls in the window at which the circuit opens.
+     */
+    private final int slowCallRateThreshold;
+
+    /**
+     * The duration, in milliseconds, at or above which a call is slow.
+     */
+    private final long slowCallDuration;
+
+    /**
+     * The number of milliseconds the circuit stays open before a trial call
+     * is allowed.
+     */
+    private final long openDuration;
+
+    /**
+     * The clock against which the open period is measured.
+     */
+    private final Clock clock;
+
+    /**
+     * Whether each call in the window failed, as a ring buffer.
+     */
+    private final boolean[] failed;
+
+    /**
+     * Whether each call in the window was slow, as a ring buffer.
+     */
+    private final boolean[] slow;
+
+    /**
+     * The number of calls recorded in the window, up to its size.
+     */
+    private int calls;
+
+    /**
+     * The index in the window at which the next call is recorded.
+     */
+    private int next;
+
+    /**
+     * The number of failed calls in the window.
+     */
+    private int failures;
+
+    /**
+     * The number of slow calls in the window.
+     */
+    private int slowCalls;
+
+    /**
+     * The current state.
+     */
+    private State state = State.CLOSED;
+
+    /**
+     * The number of state changes so far, given as the permit of each call
+     * allowed, so that outcomes of calls allowed before the latest change
+     * are told apart and ignored.
+     */
+    private long generation;
+
+    /**
+     * The time the circuit last opened, in milliseconds since the epoch.
+     */
+    private long openedAt;
+
+    /**
+     * Whether a trial call is in progress while half open.
+     */
+    private boolean trialInProgress;
+
+    /**
+     * The number of calls refused while open.
+     */
+    private long rejected;
+
+    /**
+     * Creates a new, closed CircuitBreaker.
+     *
+     * @param windowSize
+     *     The number of most recent calls whose outcomes are considered.
+     *
+     * @param failureRateThreshold
+     *     The percentage of failed calls at which the circuit opens.
+     *
+     * @param slowCallRateThreshold
+     *     The percentage of slow calls at which the circuit opens.
+     *
+     * @param slowCallDuration
+     *     The duration, in milliseconds, at or above which a call is slow.
+     *
+     * @param openDuration
+     *     The number of milliseconds the circuit stays open before a trial
+     *     call is allowed.
+     *
+     * @param clock
+     *     The clock against which the open period is measured.
+     */
+    public CircuitBreaker(int windowSize, int failureRateThreshold,
+            int slowCallRateThreshold, long slowCallDuration,
+            long openDuration, Clock clock) {
+        this.failed = new boolean[windowSize];
+        this.slow = new boolean[windowSize];
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallDuration = slowCallDuration;
+        this.openDuration = openDuration;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns whether a call may be attempted now. Every call allowed must
+     * be followed by a call to onSuccess() or onFailure() with the permit
+     * returned.
+     *
+     * @return
+     *     The permit of the call if it may be attempted, or REFUSED if the
+     *     circuit is open or a trial call is already in progress.
+     */
+    public synchronized long tryAcquire() {
+
+        if (state == State.OPEN) {
+            if (clock.millis() - openedAt < openDuration) {
+                rejected++;
+                return REFUSED;
+            }
+            state = State.HALF_OPEN;
+            generation++;
+        }
+
+        if (state == State.HALF_OPEN) {
+            if (trialInProgress) {
+                rejected++;
+                return REFUSED;
+            }
+            trialInProgress = true;
+        }
+
+        return generation;
+
+    }
+
+    /**
+     * Records a call which succeeded.
+     *
+     * @param permit
+     *     The permit returned by tryAcquire() for the call.
+     *
+     * @param duration
+     *     The duration of the call, in milliseconds.
+     */
+    public synchronized void onSuccess(long permit, long duration) {
+        if (permit == generation)
+            record(false, duration);
+    }
+
+    /**
+     * Records a call which failed.
+     *
+     * @param permit
+     *     The permit returned by tryAcquire() for the call.
+     *
+     * @param duration
+     *     The duration of the call, in milliseconds.
+     */
+    public synchronized void onFailure(long permit, long duration) {
+        if (permit == generation)
+            record(true, duration);
+    }
+
+    /**
+     * Records the outcome of a call allowed in the current state, opening or
+     * closing the circuit as required.
+     *
+     * @param failure
+     *     Whether the call failed.
+     *
+     * @param duration
+     *     The duration of the call, in milliseconds.
+     */
+    private void record(boolean failure, long duration) {
+
+        boolean slowCall = duration >= slowCallDuration;
+
+        // The trial call alone decides whether the circuit closes
+        if (state == State.HALF_OPEN) {
+            trialInProgress = false;
+            if (failure || slowCall)
+                open();
+            else
+                close();
+            return;
+        }
+
+        if (state != State.CLOSED)
+            return;
+
+        if (calls == failed.length) {
+            if (failed[next])
+                failures--;
+            if (slow[next])
+                slowCalls--;
+        }
+        else
+            calls++;
+
+        failed[next] = failure;
+        slow[next] = slowCall;
+        if (failure)
+            failures++;
+        if (slowCall)
+            slowCalls++;
+        next = (next + 1) % failed.length;
+
+        if (calls == failed.length
+                && (failures * 100 >= failureRateThreshold * calls
+                    || slowCalls * 100 >= slowCallRateThreshold * calls))
+            open();
+
+    }
+
+    /**
+     * Opens the circuit.
+     */
+    private void open() {
+        state = State.OPEN;
+        generation++;
+        openedAt = clock.millis();
+    }
+
+    /**
+     * Closes the circuit, forgetting the outcomes of earlier calls.
+     */
+    private void close() {
+        state = State.CLOSED;
+        generation++;
+        calls = 0;
+        next = 0;
+        failures = 0;
+        slowCalls = 0;
+    }
+
+    /**
+     * Returns the current state. An open circuit whose open period has
+     * passed is still reported as open until the next call is attempted.
+     *
+     * @return
+     *     The current state.
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Returns the number of calls refused because the circuit was open.
+     *
+     * @return
+     *     The number of refused calls since startup.
+     */
+    public synchronized long getRejectedCount() {
+        return rejected;
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.util;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of concurrent operations, with a bounded queue of
+ * callers waiting for a turn. Callers beyond the queue bound are turned away
+ * at once rather than piling up, so that a burst of work cannot overwhelm
+ * the service being protected.
+ */
+public class ConcurrencyLimiter {
+
+    /**
+     * The maximum number of concurrent operations.
+     */
+    private final int maxConcurrent;
+
+    /**
+     * The maximum number of callers which may wait for a turn.
+     */
+    private final int maxQueued;
+
+    /**
+     * Permits for concurrent operations, granted in arrival order.
+     */
+    private final Semaphore permits;
+
+    /**
+     * The number of callers currently waiting for a turn.
+     */
+    private final AtomicInteger queued = new AtomicInteger();
+
+    /**
+     * Creates a new ConcurrencyLimiter.
+     *
+     * @param maxConcurrent
+     *     The maximum number of concurrent operations.
+     *
+     * @param maxQueued
+     *     The maximum number of callers which may wait for a turn.
+     */
+    public ConcurrencyLimiter(int maxConcurrent, int maxQueued) {
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+        this.permits = new Semaphore(maxConcurrent, true);
+    }
+
+    /**
+     * Waits for a turn to perform an operation. Every successful call must
+     * be matched by a call to release().
+     *
+     * @param timeout
+     *     The longest time to wait for a turn.
+     *
+     * @param unit
+     *     The unit of the timeout.
+     *
+     * @return
+     *     true if a turn was granted, false if the queue was full or the
+     *     timeout passed.
+     *
+     * @throws InterruptedException
+     *     If the thread is interrupted while waiting.
+     */
+    public boolean acquire(long timeout, TimeUnit unit)
+            throws InterruptedException {
+
+        if (permits.tryAcquire())
+            return true;
+
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            return false;
+        }
+
+        try {
+            return permits.tryAcquire(timeout, unit);
+        }
+        finally {
+            queued.decrementAndGet();
+        }
+
+    }
+
+    /**
+     * Ends an operation started by a successful call to acquire().
+     */
+    public void release() {
+        permits.release();
+    }
+
+    /**
+     * Returns the number of operations in progress.
+     *
+     * @return
+     *     The number of turns currently granted.
+     */
+    public int getActive() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    /**
+     * Returns the number of callers waiting for a turn.
+     *
+     * @return
+     *     The number of queued callers.
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Token bucket rate limiter, implemented as the generic cell rate algorithm:
+ * each bucket is a single number, the time at which it will be full again,
+ * advanced by compare-and-set, so no lock is ever held. Keyed requests are
+ * spread over a fixed number of buckets by hash, so memory stays bounded
+ * however many keys are seen, at the cost of keys sharing a bucket on a
+ * collision.
+ */
+public class RateLimiter {
+
+    /**
+     * The time from which bucket times are measured, so that they are never
+     * negative.
+     */
+    private final long origin = System.nanoTime();
+
+    /**
+     * The number of nanoseconds between requests at the sustained rate.
+     */
+    private final long interval;
+
+    /**
+     * The number of nanoseconds a bucket may run ahead of the current time,
+     * which is the burst size times the interval.
+     */
+    private final long tolerance;
+
+    /**
+     * For each bucket, the time at which it will be full again, in
+     * nanoseconds since the origin.
+     */
+    private final AtomicLongArray buckets;
+
+    /**
+     * The mask selecting a bucket from a hash.
+     */
+    private final int mask;
+
+    /**
+     * Creates a new RateLimiter.
+     *
+     * @param permits
+     *     The number of requests allowed per period, sustained.
+     *
+     * @param period
+     *     The period over which the requests are allowed.
+     *
+     * @param unit
+     *     The unit of the period.
+     *
+     * @param burst
+     *     The number of requests allowed at once, after an idle period.
+     *
+     * @param buckets
+     *     The number of buckets over which keys are spread, rounded up to a
+     *     power of two. This should be 1 if the limiter is not keyed.
+     */
+    public RateLimiter(int permits, long period, TimeUnit unit, int burst,
+            int buckets) {
+        this.interval = Math.max(1, unit.toNanos(period) / permits);
+        this.tolerance = interval * burst;
+        int size = buckets <= 1 ? 1 : Integer.highestOneBit(buckets - 1) << 1;
+        this.buckets = new AtomicLongArray(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Takes a token from the only bucket of an unkeyed limiter.
+     *
+     * @return
+     *     true if the request is allowed, false if it exceeds the limit.
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(0);
+    }
+
+    /**
+     * Takes a token from the bucket of the given key.
+     *
+     * @param key
+     *     The key, such as a client address.
+     *
+     * @return
+     *     true if the request is allowed, false if it exceeds the limit.
+     */
+    public boolean tryAcquire(Object key) {
+        int hash = key.hashCode();
+        return tryAcquire((hash ^ (hash >>> 16)) & mask);
+    }
+
+    /**
+     * Returns a token taken by tryAcquire(Object) to the bucket of the given
+     * key, for a request which was refused for some other reason.
+     *
+     * @param key
+     *     The key, such as a client address.
+     */
+    public void release(Object key) {
+        int hash = key.hashCode();
+        int bucket = (hash ^ (hash >>> 16)) & mask;
+        for (;;) {
+
+            // A bucket time in the past counts as now, so a token returned
+            // after the bucket refilled is simply lost
+            long full = buckets.get(bucket);
+            if (buckets.compareAndSet(bucket, full, full - interval))
+                return;
+
+        }
+    }
+
+    /**
+     * Takes a token from the given bucket.
+     *
+     * @param bucket
+     *     The index of the bucket.
+     *
+     * @return
+     *     true if the request is allowed, false if it exceeds the limit.
+     */
+    private boolean tryAcquire(int bucket) {
+
+        long now = System.nanoTime() - origin;
+        for (;;) {
+
+            long full = buckets.get(bucket);
+            long next = Math.max(full, now) + interval;
+            if (next - now > tolerance)
+                return false;
+
+            if (buckets.compareAndSet(bucket, full, next))
+                return true;
+
+        }
+
+    }
+
+}
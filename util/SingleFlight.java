@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Coalesces concurrent calls for the same key into one. The first caller
+ * for a key starts the call, either in its own thread or on an executor;
+ * callers arriving while it is in progress receive the same future rather
+ * than repeating the call.
+ * Once the call completes, the next caller for the key starts a new one.
+ *
+ * @param <K>
+ *     The type of key identifying equivalent calls.
+ *
+ * @param <V>
+ *     The type of value produced by a call.
+ */
+public class SingleFlight<K, V> {
+
+    /**
+     * Calls currently in progress.
+     */
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight =
+            new ConcurrentHashMap<K, CompletableFuture<V>>();
+
+    /**
+     * Performs the given call unless a call for the same key is already in
+     * progress, in which case the future of that call is returned instead.
+     * If this caller performs the call, the returned future is already
+     * complete.
+     *
+     * @param key
+     *     The key identifying the call.
+     *
+     * @param call
+     *     The call to perform if none is in progress for the key.
+     *
+     * @return
+     *     A future completed with the result of the call, or exceptionally
+     *     with whatever the call threw.
+     */
+    public CompletableFuture<V> execute(K key, Callable<? extends V> call) {
+
+        CompletableFuture<V> future = new CompletableFuture<V>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null)
+            return existing;
+
+        complete(key, future, call);
+        return future;
+
+    }
+
+    /**
+     * Starts the given call on the given executor unless a call for the same
+     * key is already in progress, in which case the future of that call is
+     * returned instead. The caller never waits on the call.
+     *
+     * @param key
+     *     The key identifying the call.
+     *
+     * @param call
+     *     The call to perform if none is in progress for the key.
+     *
+     * @param executor
+     *     The executor on which to perform the call.
+     *
+     * @return
+     *     A future completed with the result of the call, or exceptionally
+     *     with whatever the call threw, or with a RejectedExecutionException
+     *     if the executor refused the call.
+     */
+    public CompletableFuture<V> executeAsync(final K key,
+            final Callable<? extends V> call, Executor executor) {
+
+        final CompletableFuture<V> future = new CompletableFuture<V>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null)
+            return existing;
+
+        try {
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    complete(key, future, call);
+                }
+
+            });
+        }
+        catch (RejectedExecutionException e) {
+            inFlight.remove(key, future);
+            future.completeExceptionally(e);
+        }
+
+        return future;
+
+    }
+
+    /**
+     * Performs the given call in the current thread, completing the given
+     * future with its outcome, then allows new calls for the key.
+     *
+     * @param key
+     *     The key identifying the call.
+     *
+     * @param future
+     *     The future registered for the call.
+     *
+     * @param call
+     *     The call to perform.
+     */
+    private void complete(K key, CompletableFuture<V> future,
+            Callable<? extends V> call) {
+
+        try {
+            future.complete(call.call());
+        }
+        catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        catch (Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            inFlight.remove(key, future);
+        }
+
+    }
+
+    /**
+     * Returns the number of calls currently in progress.
+     *
+     * @return
+     *     The number of distinct keys with a call in progress.
+     */
+    public int size() {
+        return inFlight.size();
+    }
+
+}
@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.webhook;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.time.Clock;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.core.MediaType;
+import org.apache.guacamole.GuacamoleClientException;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleUnauthorizedException;
+import org.apache.guacamole.auth.cas.conf.ConfigurationService;
+import org.apache.guacamole.auth.cas.libcal.BookingCache;
+import org.apache.guacamole.auth.cas.libcal.BookingNotification;
+import org.apache.guacamole.auth.cas.metrics.MetricsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * REST resource accepting notifications that LibCal bookings were created,
+ * changed or cancelled, so that cached bookings are updated without asking
+ * LibCal. It is exposed by CASAuthenticationProvider.getResource(), at
+ * /api/ext/cas/bookings, only when a webhook secret is configured. Each
+ * notification must carry a valid signature (see WebhookSignature) made no
+ * more than a few minutes earlier, and is accepted only once, as replaying
+ * an earlier notification could undo a later one.
+ */
+@Singleton
+public class WebhookResource {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(WebhookResource.class);
+
+    /**
+     * The greatest difference, in seconds, allowed between the timestamp of
+     * a notification and the current time.
+     */
+    private static final long MAX_SKEW = 300;
+
+    /**
+     * Service for retrieving CAS and LibCal configuration information.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * The cache to which notified bookings are applied.
+     */
+    @Inject
+    private BookingCache bookingCache;
+
+    /**
+     * Service counting notifications.
+     */
+    @Inject
+    private MetricsService metricsService;
+
+    /**
+     * The clock against which timestamps are checked.
+     */
+    @Inject
+    private Clock clock;
+
+    /**
+     * The signatures of notifications accepted while their timestamps are
+     * still recent, with those timestamps in seconds since the epoch.
+     */
+    private final ConcurrentMap<String, Long> seen =
+            new ConcurrentHashMap<String, Long>();
+
+    /**
+     * Applies a booking notification to the cached bookings.
+     *
+     * @param timestamp
+     *     The time the notification was signed, in seconds since the epoch.
+     *
+     * @param signature
+     *     The signature of the notification.
+     *
+     * @param body
+     *     The notification, as described by BookingNotification.
+     *
+     * @throws GuacamoleException
+     *     If the signature is missing, invalid or too old, or if the
+     *     notification cannot be parsed.
+     */
+    @POST
+    @Path("bookings")
+    @Consumes(MediaType.APPLICATION_JSON)
+    public void notifyBooking(
+            @HeaderParam(WebhookSignature.TIMESTAMP_HEADER) String timestamp,
+            @HeaderParam(WebhookSignature.SIGNATURE_HEADER) String signature,
+            String body) throws GuacamoleException {
+
+        String secret = confService.getWebhookSecret();
+        if (secret == null || timestamp == null || signature == null
+                || !isRecent(timestamp)
+                || !WebhookSignature.verify(secret, timestamp, body, signature)) {
+            metricsService.recordNotification("rejected");
+            logger.warn("Rejected a booking notification without a valid signature.");
+            throw new GuacamoleUnauthorizedException("Invalid notification signature.");
+        }
+
+        if (!isFirstDelivery(timestamp, signature)) {
+            metricsService.recordNotification("rejected");
+            logger.warn("Rejected a booking notification which was already accepted.");
+            throw new GuacamoleUnauthorizedException("Notification already accepted.");
+        }
+
+        BookingNotification notification;
+        try {
+            notification = BookingNotification.parse(body);
+        }
+        catch (IOException e) {
+            metricsService.recordNotification("invalid");
+            logger.warn("Ignored an invalid booking notification: {}", e.getMessage());
+            logger.debug("Parsing the booking notification failed.", e);
+            throw new GuacamoleClientException("Invalid booking notification.", e);
+        }
+
+        boolean applied = bookingCache.update(notification.getCalendarId(),
+                notification.getDate(), notification.getBooking(),
+                notification.isCancelled());
+        metricsService.recordNotification(applied ? "applied" : "not_cached");
+        logger.debug("Booking notification: calendar={} date={} eid={} cancelled={} applied={}",
+                notification.getCalendarId(), notification.getDate(),
+                notification.getBooking().getEid(), notification.isCancelled(),
+                applied);
+
+    }
+
+    /**
+     * Records the signature of a notification whose signature and timestamp
+     * are valid, and returns whether it had not been seen before.
+     * Signatures are forgotten once their timestamps are too old to be
+     * accepted anyway.
+     *
+     * @param timestamp
+     *     The value of the timestamp header, already known to be recent.
+     *
+     * @param signature
+     *     The value of the signature header, already known to be valid.
+     *
+     * @return
+     *     true if no notification with the same signature has been
+     *     accepted, false otherwise.
+     */
+    private boolean isFirstDelivery(String timestamp, String signature) {
+
+        long now = TimeUnit.MILLISECONDS.toSeconds(clock.millis());
+        Iterator<Long> signedAt = seen.values().iterator();
+        while (signedAt.hasNext()) {
+            if (now - signedAt.next() > MAX_SKEW)
+                signedAt.remove();
+        }
+
+        return seen.putIfAbsent(signature.trim().toLowerCase(Locale.ROOT),
+                Long.parseLong(timestamp.trim())) == null;
+
+    }
+
+    /**
+     * Returns whether the given timestamp is close enough to the current
+     * time.
+     *
+     * @param timestamp
+     *     The value of the timestamp header.
+     *
+     * @return
+     *     true if the timestamp is a number of seconds since the epoch no
+     *     more than a few minutes from now, false otherwise.
+     */
+    private boolean isRecent(String timestamp) {
+        try {
+            long signedAt = Long.parseLong(timestamp.trim());
+            long now = TimeUnit.MILLISECONDS.toSeconds(clock.millis());
+            return Math.abs(now - signedAt) <= MAX_SKEW;
+        }
+        catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+}
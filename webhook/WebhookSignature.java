@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.cas.webhook;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Locale;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * HMAC-SHA256 signatures of booking notifications. The sender signs the
+ * timestamp header, a period and the request body with the shared secret,
+ * and sends the result in the signature header as "sha256=" followed by
+ * the hexadecimal digest. Covering the timestamp keeps a captured
+ * notification from being replayed later.
+ */
+public final class WebhookSignature {
+
+    /**
+     * The header holding the time the notification was signed, in seconds
+     * since the epoch.
+     */
+    public static final String TIMESTAMP_HEADER = "X-LibCalCAS-Timestamp";
+
+    /**
+     * The header holding the signature of the notification.
+     */
+    public static final String SIGNATURE_HEADER = "X-LibCalCAS-Signature";
+
+    /**
+     * The prefix of every signature, naming the digest used.
+     */
+    private static final String PREFIX = "sha256=";
+
+    /**
+     * The MAC algorithm used to sign notifications.
+     */
+    private static final String ALGORITHM = "HmacSHA256";
+
+    /**
+     * This class should not be instantiated.
+     */
+    private WebhookSignature() {}
+
+    /**
+     * Signs a notification.
+     *
+     * @param secret
+     *     The shared secret.
+     *
+     * @param timestamp
+     *     The value of the timestamp header.
+     *
+     * @param body
+     *     The request body.
+     *
+     * @return
+     *     The value of the signature header.
+     */
+    public static String sign(String secret, String timestamp, String body) {
+
+        byte[] digest;
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8),
+                    ALGORITHM));
+            mac.update(timestamp.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) '.');
+            digest = mac.doFinal(body.getBytes(StandardCharsets.UTF_8));
+        }
+        catch (GeneralSecurityException e) {
+            // Every Java platform supports HmacSHA256
+            throw new IllegalStateException("HMAC-SHA256 is not available.", e);
+        }
+
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = Character.forDigit((digest[i] >> 4) & 0xF, 16);
+            hex[i * 2 + 1] = Character.forDigit(digest[i] & 0xF, 16);
+        }
+        return PREFIX + new String(hex);
+
+    }
+
+    /**
+     * Returns whether the given signature is that of the given notification.
+     * The comparison takes the same time wherever the signatures differ, so
+     * it reveals nothing about the expected signature.
+     *
+     * @param secret
+     *     The shared secret.
+     *
+     * @param timestamp
+     *     The value of the timestamp header.
+     *
+     * @param body
+     *     The request body.
+     *
+     * @param signature
+     *     The value of the signature header.
+     *
+     * @return
+     *     true if the signature is valid, false otherwise.
+     */
+    public static boolean verify(String secret, String timestamp, String body,
+            String signature) {
+        byte[] expected = sign(secret, timestamp, body).getBytes(StandardCharsets.UTF_8);
+        return MessageDigest.isEqual(expected,
+                signature.trim().toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+    }
+
+}